@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ajanata.catbot.CommandRouter;
+import com.ajanata.catbot.CommandRouter.ParsedCommand;
+import com.ajanata.catbot.Config;
+import com.ajanata.catbot.InboundMessage;
+import com.ajanata.catbot.handlers.AsyncHandler;
+import com.ajanata.catbot.handlers.Handler;
+import com.ajanata.catbot.handlers.HelloHandler;
+
+
+/**
+ * Trigger parsing and dispatch, as {@code IrcBot.onMessage} and
+ * {@code DiscordBot.onMessageReceivedEvent} and the pipeline stages behind them do it for each
+ * message, minus the queues between the stages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+  private static final String PROP_TRIGGER_PREFIX = "trigger.prefix";
+  private static final String[] TRIGGERS = { "hello", "wa", "wolfram", "brains", "8ball",
+      "status" };
+
+  @Param({ ".hello world, how are you?", ".eightball will it work", ".nosuchcommand at all",
+      "just some chatter without a trigger" })
+  public String text;
+
+  private Config config;
+  private CommandRouter router;
+  private final InboundMessage.ReplySender replySender = (reply, replyToPrevious) -> {
+  };
+
+  @Setup
+  public void setup() {
+    final Properties properties = new Properties();
+    properties.setProperty("bots", "1");
+    properties.setProperty("bots.0." + PROP_TRIGGER_PREFIX, ".");
+    config = Config.parse(properties);
+
+    final Handler handler = new HelloHandler();
+    final Map<String, Handler> handlers = new HashMap<>();
+    for (final String trigger : TRIGGERS) {
+      handlers.put(trigger, handler);
+    }
+    final Map<String, String> aliases = new HashMap<>();
+    aliases.put("eightball", "8ball");
+    router = new CommandRouter(handlers, aliases);
+  }
+
+  @Benchmark
+  public ParsedCommand parse() {
+    return router.parse(".", text);
+  }
+
+  @Benchmark
+  public String dispatch() {
+    final String prefix = config.bot(0).get(PROP_TRIGGER_PREFIX);
+    final InboundMessage message = new InboundMessage(0, "bob", "bob", "#catbot", text,
+        replySender);
+    if (!message.text.startsWith(prefix)) {
+      // chatter goes to the filters, see HalbotFilterBenchmark
+      return null;
+    }
+    final ParsedCommand command = router.parse(prefix, message.text);
+    if (null == command) {
+      return null;
+    }
+    return AsyncHandler.adapt(command.getHandler()).handleCommandAsync(message.botId,
+        message.fromName, message.fromId, message.chatId, command.getTrigger(),
+        command.getArguments()).toCompletableFuture().join();
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ajanata.catbot.halbot.Halbot;
+import com.ajanata.catbot.loopback.CorpusGenerator;
+
+
+/**
+ * Learning and talking on a brain trained from a synthetic corpus of each size. Training keeps
+ * adding to the same brain, as it does in the bot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class HalbotBenchmark {
+  private static final int EXTRA_LINES = 100000;
+
+  @Param({ "10000", "100000" })
+  public int lines;
+
+  private Path brain;
+  private Halbot halbot;
+  private String[] extra;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws IOException {
+    final CorpusGenerator generator = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED,
+        CorpusGenerator.DEFAULT_VOCABULARY);
+    brain = generator.write(Files.createTempFile("catbot-bench", ".brain"), lines);
+    halbot = new Halbot();
+    halbot.load(brain, null, 0);
+    // same vocabulary, lines not in the brain yet
+    final List<String> more = generator.lines(EXTRA_LINES);
+    extra = more.toArray(new String[more.size()]);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(brain);
+  }
+
+  private String nextLine() {
+    final String line = extra[next];
+    next = (next + 1) % extra.length;
+    return line;
+  }
+
+  @Benchmark
+  public void train() {
+    halbot.train(nextLine());
+  }
+
+  @Benchmark
+  public String sentence() {
+    return halbot.getSentence();
+  }
+
+  @Benchmark
+  public String promptedSentence() {
+    return halbot.getSentence(nextLine());
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.NullBot;
+import com.ajanata.catbot.filters.Filter;
+import com.ajanata.catbot.filters.Filter.FilterResult;
+import com.ajanata.catbot.filters.HalbotFilterHandler;
+import com.ajanata.catbot.loopback.CorpusGenerator;
+
+
+/**
+ * {@link HalbotFilterHandler#filterMessage} for chatter, which is only counted and queued to be
+ * learned, and for messages which mention the bot and are replied to. Nothing is actually learned
+ * and free speech is off, so every invocation does the same work on the same brain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class HalbotFilterBenchmark {
+  private static final String NICKNAME = "catbot";
+  private static final int MESSAGES = 10000;
+  private static final int CHATS = 100;
+
+  @Param({ "100000" })
+  public int lines;
+
+  @Param({ "16" })
+  public int candidates;
+
+  private Path brain;
+  private CatBot catbot;
+  private Filter filter;
+  private String[] messages;
+  private String[] mentions;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    final CorpusGenerator generator = new CorpusGenerator(CorpusGenerator.DEFAULT_SEED,
+        CorpusGenerator.DEFAULT_VOCABULARY);
+    brain = generator.write(Files.createTempFile("catbot-bench", ".brain"), lines);
+
+    catbot = NullBot.catbot("bots.0." + CatBot.PROP_NICKNAME + "=" + NICKNAME, "filters=1",
+        "filters.0.class=" + HalbotFilterHandler.class.getName(),
+        "filters.0.brain.path=" + brain, "filters.0.brain.snapshot.enabled=false",
+        "filters.0.reply.candidates=" + candidates,
+        // background generation would compete with the benchmark thread
+        "filters.0.reply.pool.size=0",
+        // keep the brain the same size
+        "filters.0.thought.min.length=" + Integer.MAX_VALUE, "filters.0.thought.min.words=3",
+        "filters.0.freespeech.min.interval=" + Integer.MAX_VALUE / 2,
+        "filters.0.freespeech.max.interval=" + Integer.MAX_VALUE,
+        "filters.0.freespeech.blacklist=0", "filters.0.retention.chat.count=10");
+    filter = catbot.getFilters().get(0);
+    filter.init();
+
+    final List<String> lines = generator.lines(MESSAGES);
+    messages = lines.toArray(new String[MESSAGES]);
+    mentions = new String[MESSAGES];
+    for (int i = 0; i < MESSAGES; i++) {
+      mentions[i] = NICKNAME + ", " + messages[i];
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    catbot.shutdown();
+    Files.deleteIfExists(brain);
+  }
+
+  @Benchmark
+  public FilterResult chatter() {
+    final int i = next;
+    next = (next + 1) % MESSAGES;
+    return filter.filterMessage(0, "bob", "bob", "#chat" + i % CHATS, messages[i]);
+  }
+
+  @Benchmark
+  public FilterResult mention() {
+    final int i = next;
+    next = (next + 1) % MESSAGES;
+    return filter.filterMessage(0, "bob", "bob", "#chat" + i % CHATS, mentions[i]);
+  }
+}
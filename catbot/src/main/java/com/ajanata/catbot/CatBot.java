@@ -0,0 +1,402 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.ApiContextInitializer;
+
+import com.ajanata.catbot.filters.Filter;
+import com.ajanata.catbot.handlers.Handler;
+import com.ajanata.catbot.metrics.Metrics;
+
+import sx.blah.discord.util.DiscordException;
+
+
+public class CatBot {
+  private static final Logger LOG = LoggerFactory.getLogger(CatBot.class);
+
+  // config property names
+  public static final String PROP_NICKNAME = "nickname";
+  public static final String PROP_OWNER_ID = "owner.id";
+  public static final String PROP_TOKEN = "token";
+  public static final String PROP_USERNAME = "username";
+
+  public static final String PROP_FILTERS = "filters";
+  public static final String PROP_FILTER_CLASS = "class";
+
+  public static final String PROP_HANDLERS = "handlers";
+  public static final String PROP_HANDLER_TRIGGER = "trigger";
+  public static final String PROP_HANDLER_ALIASES = "aliases";
+  public static final String PROP_HANDLER_CLASS = PROP_FILTER_CLASS;
+
+  public static final String PROP_BOTS = "bots";
+  public static final String PROP_BOT_CLASS = PROP_HANDLER_CLASS;
+
+  public static final String PROP_IO_THREADS = "io.threads";
+  public static final String PROP_IO_QUEUE_CAPACITY = "io.queue.capacity";
+
+  private final Metrics metrics;
+  private final HandlerRegistry registry;
+  private final List<Bot> bots;
+  private volatile Config config;
+  private final List<Consumer<Config>> configListeners = new CopyOnWriteArrayList<>();
+  private ConfigWatcher configWatcher;
+  private final MessagePipeline pipeline;
+  private final RetryScheduler retryScheduler;
+  private final OutboundScheduler outboundScheduler;
+  private final ExecutorService ioExecutor;
+  private final ConcurrentMap<String, CircuitBreaker> circuitBreakers =
+      new ConcurrentSkipListMap<>();
+  private final ConcurrentMap<String, ResultCache> resultCaches = new ConcurrentSkipListMap<>();
+
+  public static void main(final String[] args) throws Exception {
+    // TODO try to find a better place for this... doesn't work in TelegramBot constructor
+    ApiContextInitializer.init();
+
+    // the file is watched and reloaded when it changes, unless it is packaged in the jar
+    final Path configPath = args.length > 0 ? Paths.get(args[0]) : defaultConfigPath();
+    final Properties properties;
+    if (null != configPath) {
+      properties = ConfigWatcher.load(configPath);
+    } else {
+      properties = new Properties();
+      properties.load(CatBot.class.getResourceAsStream("/catbot.properties"));
+    }
+    final CatBot catbot = new CatBot(properties);
+    if (null != configPath) {
+      catbot.watchConfig(configPath);
+    }
+
+    Runtime.getRuntime().addShutdownHook(new Thread("shutdown-hook") {
+      @Override
+      public void run() {
+        catbot.shutdown();
+      }
+    });
+
+    catbot.login();
+
+    while (true) {
+      Thread.sleep(1000);
+    }
+  }
+
+  /**
+   * @return Where {@code catbot.properties} on the classpath is, or {@code null} if it is not a
+   * file of its own, such as when it is packaged in the jar.
+   */
+  private static Path defaultConfigPath() throws URISyntaxException {
+    final URL resource = CatBot.class.getResource("/catbot.properties");
+    if (null == resource || !"file".equals(resource.getProtocol())) {
+      LOG.info("Configuration is not a file of its own, it will not be reloaded when it changes");
+      return null;
+    }
+    return Paths.get(resource.toURI());
+  }
+
+  public CatBot(final Properties properties) throws DiscordException, ClassNotFoundException {
+    this.config = Config.parse(properties);
+
+    metrics = new Metrics(this);
+    registry = new HandlerRegistry(this, config);
+    retryScheduler = new RetryScheduler(this);
+    outboundScheduler = new OutboundScheduler(this);
+    ioExecutor = createIoExecutor();
+    pipeline = new MessagePipeline(this);
+    bots = Collections.unmodifiableList(loadBots(properties));
+    if (bots.isEmpty()) {
+      throw new RuntimeException("No bots configured.");
+    }
+  }
+
+  private ExecutorService createIoExecutor() {
+    final int threads = getIntProperty(PROP_IO_THREADS, 8);
+    final AtomicInteger threadCount = new AtomicInteger();
+    // when the queue is full, the task is rejected; see supplyIo
+    return new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+        new ArrayBlockingQueue<>(getIntProperty(PROP_IO_QUEUE_CAPACITY, 100)), r -> {
+          final Thread thread = new Thread(r, "io-" + threadCount.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  private List<Bot> loadBots(final Properties props) throws ClassNotFoundException {
+    final int numBots = Integer.valueOf(props.getProperty(PROP_BOTS, "0"));
+    final List<Bot> list = new ArrayList<>(numBots);
+    for (int i = 0; i < numBots; i++) {
+      final String className = props.getProperty(PROP_BOTS + "." + i + "." + PROP_BOT_CLASS);
+      @SuppressWarnings("unchecked")
+      final Class<? extends Bot> clazz = (Class<? extends Bot>) Class.forName(className);
+
+      final Bot bot;
+      try {
+        final Constructor<? extends Bot> ctor = clazz.getConstructor(CatBot.class, int.class);
+        bot = ctor.newInstance(this, i);
+      } catch (final IllegalAccessException | InstantiationException | InvocationTargetException
+          | NoSuchMethodException e) {
+        final String msg = String.format("Unable to instantiate bot %d, class %s", i, className);
+        LOG.error(msg);
+        throw new RuntimeException(msg, e);
+      }
+      list.add(bot);
+    }
+    return list;
+  }
+
+  public void login() {
+    registry.init();
+    metrics.start();
+    outboundScheduler.start();
+    pipeline.start();
+
+    LOG.info("Creating bots");
+    for (final Bot bot : bots) {
+      int backoff = 100;
+      while (!bot.login()) {
+        try {
+          Thread.sleep(backoff);
+          backoff *= 2;
+          if (backoff < 0) {
+            backoff = Integer.MAX_VALUE;
+          }
+        } catch (final InterruptedException e) {
+          // pass
+        }
+      }
+    }
+  }
+
+  public void shutdown() {
+    LOG.info("Shutting down.");
+    for (final Bot bot : bots) {
+      bot.shutdown();
+    }
+    pipeline.shutdown();
+    registry.shutdown();
+    ioExecutor.shutdownNow();
+    outboundScheduler.shutdown();
+    retryScheduler.shutdown();
+    if (null != configWatcher) {
+      configWatcher.shutdown();
+    }
+    metrics.shutdown();
+  }
+
+  /**
+   * Reload the configuration whenever the given properties file changes.
+   */
+  public void watchConfig(final Path path) throws IOException {
+    configWatcher = new ConfigWatcher(path, this::reloadConfig);
+    configWatcher.start();
+    LOG.info(String.format("Watching [%s] for configuration changes", path));
+  }
+
+  /**
+   * Swap in a new configuration, reconcile the filters and handlers with it, and tell everything
+   * listening for changes. Settings read when they are used, or by a listener, take effect
+   * immediately; which bots exist, and thread pool sizes, take effect on restart.
+   */
+  public void reloadConfig(final Properties properties) {
+    final Config newConfig = Config.parse(properties);
+    config = newConfig;
+    LOG.info("Configuration reloaded");
+    registry.reload(newConfig);
+    for (final Consumer<Config> listener : configListeners) {
+      try {
+        listener.accept(newConfig);
+      } catch (final RuntimeException e) {
+        LOG.error("Unable to apply reloaded configuration", e);
+      }
+    }
+  }
+
+  /**
+   * @return The current configuration. Hold on to the snapshot, not the values in it, to see
+   * reloads.
+   */
+  public Config getConfig() {
+    return config;
+  }
+
+  /**
+   * Call the listener with each configuration reloaded from now on.
+   */
+  public void addConfigListener(final Consumer<Config> listener) {
+    configListeners.add(listener);
+  }
+
+  public void removeConfigListener(final Consumer<Config> listener) {
+    configListeners.remove(listener);
+  }
+
+  public String getProperty(final String key) {
+    return config.global().get(key);
+  }
+
+  public String getProperty(final String key, final String defaultValue) {
+    return config.global().get(key, defaultValue);
+  }
+
+  public int getIntProperty(final String key, final int defaultValue) {
+    return config.global().getInt(key, defaultValue);
+  }
+
+  public long getLongProperty(final String key, final long defaultValue) {
+    return config.global().getLong(key, defaultValue);
+  }
+
+  public double getDoubleProperty(final String key, final double defaultValue) {
+    return config.global().getDouble(key, defaultValue);
+  }
+
+  public String getHandlerProperty(final int handlerId, final String key) {
+    return config.handler(handlerId).get(key);
+  }
+
+  public String getFilterProperty(final int filterId, final String key) {
+    return config.filter(filterId).get(key);
+  }
+
+  public String getFilterProperty(final int filterId, final String key,
+      final String defaultValue) {
+    return config.filter(filterId).get(key, defaultValue);
+  }
+
+  public String getBotProperty(final int botId, final String key) {
+    return config.bot(botId).get(key);
+  }
+
+  public Map<String, Handler> getHandlers() {
+    return registry.getCurrent().getHandlers();
+  }
+
+  public List<Filter> getFilters() {
+    return registry.getCurrent().getFilters();
+  }
+
+  public CommandRouter getRouter() {
+    return registry.getCurrent().getRouter();
+  }
+
+  /**
+   * @return The filters, handlers and router, which change when the configuration is reloaded.
+   */
+  public HandlerRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * @return The circuit breaker with the given name, creating it if needed. Callers using the same
+   * name share the breaker.
+   */
+  public CircuitBreaker getCircuitBreaker(final String name) {
+    return circuitBreakers.computeIfAbsent(name, k -> new CircuitBreaker(this, k));
+  }
+
+  public Collection<CircuitBreaker> getCircuitBreakers() {
+    return Collections.unmodifiableCollection(circuitBreakers.values());
+  }
+
+  /**
+   * @return The result cache with the given name, creating it if needed. Callers using the same
+   * name share the cache.
+   */
+  public ResultCache getResultCache(final String name) {
+    return resultCaches.computeIfAbsent(name, k -> new ResultCache(this, k));
+  }
+
+  public Collection<ResultCache> getResultCaches() {
+    return Collections.unmodifiableCollection(resultCaches.values());
+  }
+
+  /**
+   * @return A shared pool for asynchronous handlers and filters to run blocking I/O on. When it is
+   * full, it throws {@link RejectedExecutionException}; prefer {@link #supplyIo(Supplier)}.
+   */
+  public Executor getIoExecutor() {
+    return ioExecutor;
+  }
+
+  /**
+   * Run blocking I/O on the shared pool. The caller never runs the task itself.
+   *
+   * @return A stage which completes with the task's result, or fails with
+   * {@link RejectedExecutionException} if the pool is full.
+   */
+  public <T> CompletableFuture<T> supplyIo(final Supplier<T> task) {
+    try {
+      return CompletableFuture.supplyAsync(task, ioExecutor);
+    } catch (final RejectedExecutionException e) {
+      LOG.debug("I/O pool full, rejecting task");
+      final CompletableFuture<T> future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+      return future;
+    }
+  }
+
+  public RetryScheduler getRetryScheduler() {
+    return retryScheduler;
+  }
+
+  public OutboundScheduler getOutboundScheduler() {
+    return outboundScheduler;
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  public MessagePipeline getPipeline() {
+    return pipeline;
+  }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Bounded per-chat state: a message counter and a ring buffer of the most recent retained
+ * strings. Chat IDs are interned to slots in primitive arrays, split over lock stripes by hash.
+ *
+ * <p>
+ * Chats that have not been touched for the idle timeout are evicted lazily as their stripe is
+ * used. A stripe that is full evicts its least recently touched chat, so there are never more
+ * than the configured maximum number of chats, and never more than that many times the ring size
+ * retained strings.
+ */
+public class ChatStateStore {
+  private final Stripe[] stripes;
+  private final int retained;
+  private final long idleNanos;
+
+  /**
+   * @param stripes How many lock stripes, rounded up to a power of two.
+   * @param maxChats The most chats to keep state for.
+   * @param retained How many strings to retain per chat.
+   * @param idleMillis How long a chat can go untouched before it is evicted, or 0 to only evict
+   * when full.
+   */
+  public ChatStateStore(final int stripes, final int maxChats, final int retained,
+      final long idleMillis) {
+    final int stripeCount = Integer.highestOneBit(Math.max(1, stripes * 2 - 1));
+    this.stripes = new Stripe[stripeCount];
+    final int perStripe = Math.max(1, (maxChats + stripeCount - 1) / stripeCount);
+    for (int i = 0; i < stripeCount; i++) {
+      this.stripes[i] = new Stripe(perStripe, retained);
+    }
+    this.retained = retained;
+    this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+  }
+
+  /**
+   * @return The chat's message count after adding one.
+   */
+  public int incrementMessages(final String chatId) {
+    final int hash = hash(chatId);
+    final Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      final int slot = stripe.slot(chatId, hash, idleNanos);
+      return ++stripe.messages[slot];
+    }
+  }
+
+  public void resetMessages(final String chatId) {
+    final int hash = hash(chatId);
+    final Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      stripe.messages[stripe.slot(chatId, hash, idleNanos)] = 0;
+    }
+  }
+
+  /**
+   * Retain a string for the chat, dropping its oldest one if the chat already has as many as it can
+   * retain.
+   */
+  public void retain(final String chatId, final String value) {
+    if (0 == retained) {
+      return;
+    }
+    final int hash = hash(chatId);
+    final Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      final int slot = stripe.slot(chatId, hash, idleNanos);
+      final int head = stripe.ringHeads[slot];
+      stripe.ring[slot * retained + head] = value;
+      stripe.ringHeads[slot] = (head + 1) % retained;
+      if (stripe.ringSizes[slot] < retained) {
+        stripe.ringSizes[slot]++;
+      }
+    }
+  }
+
+  /**
+   * @param index How far back to look, 0 for the newest.
+   * @return The retained string, or {@code null} if the chat does not have that many.
+   */
+  public String retrieve(final String chatId, final int index) {
+    final int hash = hash(chatId);
+    final Stripe stripe = stripe(hash);
+    synchronized (stripe) {
+      final int slot = stripe.find(chatId, hash);
+      if (slot < 0 || index < 0 || index >= stripe.ringSizes[slot]) {
+        return null;
+      }
+      final int position = (stripe.ringHeads[slot] - 1 - index + retained) % retained;
+      return stripe.ring[slot * retained + position];
+    }
+  }
+
+  /**
+   * @return How many chats have state.
+   */
+  public int size() {
+    int size = 0;
+    for (final Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size;
+      }
+    }
+    return size;
+  }
+
+  private Stripe stripe(final int hash) {
+    // the table inside the stripe uses the low bits
+    return stripes[(hash >>> 16) & (stripes.length - 1)];
+  }
+
+  private static int hash(final String chatId) {
+    final int h = chatId.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static final class Stripe {
+    private final int capacity;
+    private final int retained;
+    private final String[] chatIds;
+    private final int[] messages;
+    private final long[] lastTouched;
+    // slot * retained + i
+    private final String[] ring;
+    private final int[] ringHeads;
+    private final int[] ringSizes;
+    // slot + 1, 0 is empty
+    private final int[] table;
+    private final int[] freeSlots;
+    private int size = 0;
+    private long lastSweep = System.nanoTime();
+
+    private Stripe(final int capacity, final int retained) {
+      this.capacity = capacity;
+      this.retained = retained;
+      chatIds = new String[capacity];
+      messages = new int[capacity];
+      lastTouched = new long[capacity];
+      ring = new String[capacity * retained];
+      ringHeads = new int[capacity];
+      ringSizes = new int[capacity];
+      table = new int[Integer.highestOneBit(capacity) * 4];
+      freeSlots = new int[capacity];
+      for (int i = 0; i < capacity; i++) {
+        freeSlots[i] = capacity - 1 - i;
+      }
+    }
+
+    private int find(final String chatId, final int hash) {
+      final int mask = table.length - 1;
+      for (int index = hash & mask;; index = (index + 1) & mask) {
+        final int entry = table[index];
+        if (0 == entry) {
+          return -1;
+        }
+        if (chatId.equals(chatIds[entry - 1])) {
+          return entry - 1;
+        }
+      }
+    }
+
+    /**
+     * @return The chat's slot, adding it if needed. Either way, it is marked as touched now.
+     */
+    private int slot(final String chatId, final int hash, final long idleNanos) {
+      final long now = System.nanoTime();
+      if (idleNanos > 0 && now - lastSweep > idleNanos / 4) {
+        lastSweep = now;
+        for (int slot = 0; slot < capacity; slot++) {
+          if (null != chatIds[slot] && now - lastTouched[slot] > idleNanos) {
+            remove(slot);
+          }
+        }
+      }
+
+      int slot = find(chatId, hash);
+      if (slot < 0) {
+        if (size == capacity) {
+          int oldest = 0;
+          for (int i = 1; i < capacity; i++) {
+            if (lastTouched[i] - lastTouched[oldest] < 0) {
+              oldest = i;
+            }
+          }
+          remove(oldest);
+        }
+        slot = freeSlots[capacity - 1 - size];
+        size++;
+        chatIds[slot] = chatId;
+        final int mask = table.length - 1;
+        int index = hash & mask;
+        while (0 != table[index]) {
+          index = (index + 1) & mask;
+        }
+        table[index] = slot + 1;
+      }
+      lastTouched[slot] = now;
+      return slot;
+    }
+
+    private void remove(final int slot) {
+      final int mask = table.length - 1;
+      int index = hash(chatIds[slot]) & mask;
+      while (table[index] != slot + 1) {
+        index = (index + 1) & mask;
+      }
+      // backward-shift deletion, so lookups never need tombstones
+      int next = index;
+      while (true) {
+        next = (next + 1) & mask;
+        final int entry = table[next];
+        if (0 == entry) {
+          break;
+        }
+        final int home = hash(chatIds[entry - 1]) & mask;
+        // move the entry into the hole unless its home is cyclically in (index, next]
+        if (((next - home) & mask) >= ((next - index) & mask)) {
+          table[index] = entry;
+          index = next;
+        }
+      }
+      table[index] = 0;
+
+      chatIds[slot] = null;
+      messages[slot] = 0;
+      ringHeads[slot] = 0;
+      ringSizes[slot] = 0;
+      Arrays.fill(ring, slot * retained, (slot + 1) * retained, null);
+      size--;
+      freeSlots[capacity - 1 - size] = slot;
+    }
+  }
+}
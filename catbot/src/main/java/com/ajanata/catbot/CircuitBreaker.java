@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Stops calling an external backend once it is clearly broken, so callers can fail fast with a
+ * cheap reply instead of waiting for yet another timeout.
+ *
+ * <p>
+ * The breaker tracks the outcome and latency of the last {@code window.size} calls. While
+ * {@link State#CLOSED CLOSED}, it trips {@link State#OPEN OPEN} when at least
+ * {@code window.min.calls} have been made and either the failure rate reaches
+ * {@code failure.rate} or the {@code slow.percentile} latency reaches {@code slow.call.ms}. After
+ * {@code open.ms} it goes {@link State#HALF_OPEN HALF_OPEN} and lets {@code half.open.calls}
+ * probes through; if they all succeed in time it closes again, otherwise it re-opens.
+ *
+ * <p>
+ * Settings are read from {@code breakers.<name>.*}. Callers must pair every successful
+ * {@link #tryAcquire()} with exactly one {@link #onSuccess(long)} or {@link #onFailure(long)}.
+ */
+public class CircuitBreaker {
+  private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public static final String PROP_BREAKERS = "breakers";
+
+  public enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private final String name;
+  private final int windowSize;
+  private final int minCalls;
+  private final double failureRateThreshold;
+  private final long slowCallNanos;
+  private final double slowPercentile;
+  private final long openNanos;
+  private final int halfOpenCalls;
+
+  private final boolean[] failures;
+  private final long[] latencies;
+  private int windowCount = 0;
+  private int windowIndex = 0;
+  private int windowFailures = 0;
+
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int probesIssued;
+  private int probesSucceeded;
+  private long rejected = 0;
+
+  public CircuitBreaker(final CatBot catbot, final String name) {
+    this(catbot.getConfig().global(), name);
+  }
+
+  /**
+   * @param config All settings, by their full key.
+   */
+  public CircuitBreaker(final Config.Section config, final String name) {
+    this.name = name;
+    final String prefix = PROP_BREAKERS + "." + name + ".";
+    windowSize = config.getInt(prefix + "window.size", 20);
+    minCalls = Math.min(windowSize, config.getInt(prefix + "window.min.calls", 5));
+    failureRateThreshold = config.getDouble(prefix + "failure.rate", 0.5);
+    slowCallNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(prefix + "slow.call.ms", 15000));
+    slowPercentile = config.getDouble(prefix + "slow.percentile", 0.9);
+    openNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(prefix + "open.ms", 60000));
+    halfOpenCalls = Math.max(1, config.getInt(prefix + "half.open.calls", 1));
+    failures = new boolean[windowSize];
+    latencies = new long[windowSize];
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return {@code true} if the call may proceed, {@code false} if the caller should fail fast.
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (System.nanoTime() - openedAt < openNanos) {
+          rejected++;
+          return false;
+        }
+        transition(State.HALF_OPEN);
+        probesIssued = 0;
+        probesSucceeded = 0;
+        return tryProbe();
+      case HALF_OPEN:
+      default:
+        return tryProbe();
+    }
+  }
+
+  /**
+   * @return {@code true} if {@link #tryAcquire()} would fail fast right now. Unlike it, this takes
+   *         no probe, so callers can skip other work before acquiring.
+   */
+  public synchronized boolean isRejecting() {
+    switch (state) {
+      case CLOSED:
+        return false;
+      case OPEN:
+        return System.nanoTime() - openedAt < openNanos;
+      case HALF_OPEN:
+      default:
+        return probesIssued >= halfOpenCalls;
+    }
+  }
+
+  private boolean tryProbe() {
+    if (probesIssued < halfOpenCalls) {
+      probesIssued++;
+      return true;
+    }
+    rejected++;
+    return false;
+  }
+
+  public synchronized void onSuccess(final long latencyNanos) {
+    if (State.HALF_OPEN == state) {
+      if (latencyNanos >= slowCallNanos) {
+        open(String.format("slow probe, %d ms", TimeUnit.NANOSECONDS.toMillis(latencyNanos)));
+      } else if (++probesSucceeded >= halfOpenCalls) {
+        resetWindow();
+        transition(State.CLOSED);
+      }
+      return;
+    }
+    record(false, latencyNanos);
+  }
+
+  public synchronized void onFailure(final long latencyNanos) {
+    if (State.HALF_OPEN == state) {
+      open("failed probe");
+      return;
+    }
+    record(true, latencyNanos);
+  }
+
+  // Must hold lock.
+  private void record(final boolean failed, final long latencyNanos) {
+    if (windowCount == windowSize && failures[windowIndex]) {
+      windowFailures--;
+    }
+    failures[windowIndex] = failed;
+    latencies[windowIndex] = latencyNanos;
+    if (failed) {
+      windowFailures++;
+    }
+    windowIndex = (windowIndex + 1) % windowSize;
+    if (windowCount < windowSize) {
+      windowCount++;
+    }
+
+    if (State.CLOSED != state || windowCount < minCalls) {
+      return;
+    }
+    final double failureRate = (double) windowFailures / windowCount;
+    if (failureRate >= failureRateThreshold) {
+      open(String.format("failure rate %.0f%%", failureRate * 100));
+      return;
+    }
+    final long slow = latencyPercentile(slowPercentile);
+    if (slow >= slowCallNanos) {
+      open(String.format("p%.0f latency %d ms", slowPercentile * 100,
+          TimeUnit.NANOSECONDS.toMillis(slow)));
+    }
+  }
+
+  // Must hold lock.
+  private long latencyPercentile(final double percentile) {
+    if (0 == windowCount) {
+      return 0;
+    }
+    final long[] sorted = Arrays.copyOf(latencies, windowCount);
+    Arrays.sort(sorted);
+    final int index = (int) Math.ceil(percentile * windowCount) - 1;
+    return sorted[Math.max(0, Math.min(windowCount - 1, index))];
+  }
+
+  // Must hold lock.
+  private void open(final String reason) {
+    LOG.warn(String.format("Circuit breaker %s opening: %s", name, reason));
+    openedAt = System.nanoTime();
+    transition(State.OPEN);
+  }
+
+  // Must hold lock.
+  private void resetWindow() {
+    windowCount = 0;
+    windowIndex = 0;
+    windowFailures = 0;
+  }
+
+  // Must hold lock.
+  private void transition(final State newState) {
+    if (state != newState) {
+      LOG.info(String.format("Circuit breaker %s: %s -> %s", name, state, newState));
+      state = newState;
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return A one-line human-readable summary of the breaker, for operators.
+   */
+  public synchronized String describe() {
+    return String.format("%s: %s, %d/%d recent calls failed, p%.0f latency %d ms, %d rejected",
+        name, state, windowFailures, windowCount, slowPercentile * 100,
+        TimeUnit.NANOSECONDS.toMillis(latencyPercentile(slowPercentile)), rejected);
+  }
+}
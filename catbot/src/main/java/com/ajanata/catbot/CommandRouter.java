@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.handlers.Handler;
+
+
+/**
+ * Routes trigger commands to their {@link Handler}. The trigger names, including aliases, are
+ * compiled once into a prefix trie, so routing a message is a single scan over its characters with
+ * no regular expressions and no intermediate arrays.
+ */
+public class CommandRouter {
+  private static final Logger LOG = LoggerFactory.getLogger(CommandRouter.class);
+
+  private final Node root;
+  private final Map<String, Route> routes;
+
+  /**
+   * @param handlers Handlers by trigger name.
+   * @param aliases Canonical trigger names by alias. Aliases for unknown triggers, or which
+   * collide with a trigger name, are ignored.
+   */
+  public CommandRouter(final Map<String, Handler> handlers, final Map<String, String> aliases) {
+    final Map<String, Route> map = new TreeMap<>();
+    for (final Entry<String, Handler> entry : handlers.entrySet()) {
+      map.put(entry.getKey(), new Route(entry.getKey(), entry.getValue()));
+    }
+    for (final Entry<String, String> entry : aliases.entrySet()) {
+      final Route target = map.get(entry.getValue());
+      if (null == target) {
+        LOG.warn(String.format("Ignoring alias %s for unknown trigger %s", entry.getKey(),
+            entry.getValue()));
+      } else if (map.containsKey(entry.getKey())) {
+        LOG.warn(String.format("Ignoring alias %s for trigger %s, it is already a trigger",
+            entry.getKey(), entry.getValue()));
+      } else {
+        map.put(entry.getKey(), target);
+      }
+    }
+    routes = Collections.unmodifiableMap(map);
+
+    final BuildNode builder = new BuildNode();
+    for (final Entry<String, Route> entry : routes.entrySet()) {
+      BuildNode node = builder;
+      for (int i = 0; i < entry.getKey().length(); i++) {
+        node = node.child(entry.getKey().charAt(i));
+      }
+      node.route = entry.getValue();
+    }
+    root = builder.compile();
+  }
+
+  /**
+   * @return Every name a command can be invoked as, including aliases, mapped to its route.
+   */
+  public Map<String, Route> getRoutes() {
+    return routes;
+  }
+
+  /**
+   * Parse a chat message as a trigger command.
+   *
+   * @param triggerPrefix The bot's trigger prefix.
+   * @param text The complete message text.
+   * @return The parsed command, or {@code null} if the message does not start with the prefix
+   * followed by a known trigger.
+   */
+  public ParsedCommand parse(final String triggerPrefix, final String text) {
+    if (!text.startsWith(triggerPrefix)) {
+      return null;
+    }
+    final int start = triggerPrefix.length();
+    final int length = text.length();
+    Node node = root;
+    int i = start;
+    while (i < length && !Character.isWhitespace(text.charAt(i))) {
+      node = node.child(text.charAt(i));
+      if (null == node) {
+        return null;
+      }
+      i++;
+    }
+    if (null == node.route) {
+      return null;
+    }
+    final int triggerEnd = i;
+    while (i < length && Character.isWhitespace(text.charAt(i))) {
+      i++;
+    }
+    int end = length;
+    while (end > i && Character.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    return new ParsedCommand(node.route, text, start, triggerEnd, i, end);
+  }
+
+  /**
+   * Build a command for a platform which parses commands itself.
+   *
+   * @param name The name the command was invoked as.
+   * @param arguments The command's arguments.
+   * @return The command, or {@code null} if there is no such trigger.
+   */
+  public ParsedCommand command(final String name, final String arguments) {
+    final Route route = routes.get(name);
+    if (null == route) {
+      return null;
+    }
+    final String text = name + " " + arguments;
+    return new ParsedCommand(route, text, 0, name.length(), name.length() + 1, text.length());
+  }
+
+  public static class Route {
+    public final String trigger;
+    public final Handler handler;
+
+    Route(final String trigger, final Handler handler) {
+      this.trigger = trigger;
+      this.handler = handler;
+    }
+  }
+
+  /**
+   * A view over a command message. The trigger and arguments are located by offset into the
+   * original text and are only materialized when asked for.
+   */
+  public static class ParsedCommand {
+    public final Route route;
+    private final String text;
+    private final int nameStart;
+    private final int nameEnd;
+    private final int argumentsStart;
+    private final int argumentsEnd;
+    private String arguments;
+
+    ParsedCommand(final Route route, final String text, final int nameStart, final int nameEnd,
+        final int argumentsStart, final int argumentsEnd) {
+      this.route = route;
+      this.text = text;
+      this.nameStart = nameStart;
+      this.nameEnd = nameEnd;
+      this.argumentsStart = argumentsStart;
+      this.argumentsEnd = argumentsEnd;
+    }
+
+    /**
+     * @return The canonical trigger name, even if the command was invoked by an alias.
+     */
+    public String getTrigger() {
+      return route.trigger;
+    }
+
+    public Handler getHandler() {
+      return route.handler;
+    }
+
+    /**
+     * @return The name the command was invoked as, which may be an alias.
+     */
+    public String getInvokedAs() {
+      return text.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * @return Everything after the trigger, with leading and trailing whitespace removed.
+     */
+    public String getArguments() {
+      if (null == arguments) {
+        arguments = text.substring(argumentsStart, argumentsEnd);
+      }
+      return arguments;
+    }
+  }
+
+  private static class Node {
+    private final char[] keys;
+    private final Node[] children;
+    private final Route route;
+
+    Node(final char[] keys, final Node[] children, final Route route) {
+      this.keys = keys;
+      this.children = children;
+      this.route = route;
+    }
+
+    Node child(final char c) {
+      final int index = Arrays.binarySearch(keys, c);
+      return index < 0 ? null : children[index];
+    }
+  }
+
+  // Mutable trie used while building, then compiled into sorted arrays.
+  private static class BuildNode {
+    private final Map<Character, BuildNode> children = new TreeMap<>();
+    private Route route;
+
+    BuildNode child(final char c) {
+      return children.computeIfAbsent(c, k -> new BuildNode());
+    }
+
+    Node compile() {
+      final char[] keys = new char[children.size()];
+      final List<Node> compiled = new ArrayList<>(children.size());
+      int i = 0;
+      for (final Entry<Character, BuildNode> entry : children.entrySet()) {
+        keys[i++] = entry.getKey();
+        compiled.add(entry.getValue().compile());
+      }
+      return new Node(keys, compiled.toArray(new Node[compiled.size()]), route);
+    }
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+
+/**
+ * Immutable snapshot of the configuration. The settings of each bot, filter and handler are split
+ * out into their own {@link Section} when the snapshot is made, so looking one up builds no key and
+ * takes no lock. Numbers are parsed then too, so reading one as a number does not parse it again.
+ */
+public final class Config {
+  private static final Section EMPTY = new Section(Collections.emptyMap());
+
+  private final Section global;
+  private final Section[] bots;
+  private final Section[] filters;
+  private final Section[] handlers;
+
+  private Config(final Section global, final Section[] bots, final Section[] filters,
+      final Section[] handlers) {
+    this.global = global;
+    this.bots = bots;
+    this.filters = filters;
+    this.handlers = handlers;
+  }
+
+  public static Config parse(final Properties properties) {
+    final Map<String, String> global = new HashMap<>();
+    final List<Map<String, String>> bots = new ArrayList<>();
+    final List<Map<String, String>> filters = new ArrayList<>();
+    final List<Map<String, String>> handlers = new ArrayList<>();
+    for (final String key : properties.stringPropertyNames()) {
+      final String value = properties.getProperty(key);
+      global.put(key, value);
+      final int dot = key.indexOf('.');
+      if (dot < 0) {
+        continue;
+      }
+      final List<Map<String, String>> sections;
+      switch (key.substring(0, dot)) {
+        case CatBot.PROP_BOTS:
+          sections = bots;
+          break;
+        case CatBot.PROP_FILTERS:
+          sections = filters;
+          break;
+        case CatBot.PROP_HANDLERS:
+          sections = handlers;
+          break;
+        default:
+          continue;
+      }
+      final int idEnd = key.indexOf('.', dot + 1);
+      if (idEnd < 0) {
+        continue;
+      }
+      final int id;
+      try {
+        id = Integer.parseInt(key.substring(dot + 1, idEnd));
+      } catch (final NumberFormatException e) {
+        continue;
+      }
+      if (id < 0) {
+        continue;
+      }
+      while (sections.size() <= id) {
+        sections.add(new HashMap<>());
+      }
+      sections.get(id).put(key.substring(idEnd + 1), value);
+    }
+    return new Config(new Section(global), sections(bots), sections(filters),
+        sections(handlers));
+  }
+
+  private static Section[] sections(final List<Map<String, String>> maps) {
+    final Section[] sections = new Section[maps.size()];
+    for (int i = 0; i < sections.length; i++) {
+      sections[i] = new Section(maps.get(i));
+    }
+    return sections;
+  }
+
+  /**
+   * @return All settings, by their full key.
+   */
+  public Section global() {
+    return global;
+  }
+
+  /**
+   * @return The settings of a bot, keyed without the {@code bots.<id>.} prefix.
+   */
+  public Section bot(final int botId) {
+    return section(bots, botId);
+  }
+
+  public Section filter(final int filterId) {
+    return section(filters, filterId);
+  }
+
+  public Section handler(final int handlerId) {
+    return section(handlers, handlerId);
+  }
+
+  private static Section section(final Section[] sections, final int id) {
+    return id >= 0 && id < sections.length ? sections[id] : EMPTY;
+  }
+
+  public static final class Section {
+    private final Map<String, String> values;
+    private final Map<String, Long> longs = new HashMap<>();
+    private final Map<String, Double> doubles = new HashMap<>();
+
+    private Section(final Map<String, String> values) {
+      this.values = values;
+      for (final Map.Entry<String, String> entry : values.entrySet()) {
+        final String value = entry.getValue().trim();
+        if (value.isEmpty()) {
+          continue;
+        }
+        try {
+          longs.put(entry.getKey(), Long.parseLong(value));
+        } catch (final NumberFormatException e) {
+          // not an integer
+        }
+        try {
+          doubles.put(entry.getKey(), Double.parseDouble(value));
+        } catch (final NumberFormatException e) {
+          // not a number
+        }
+      }
+    }
+
+    /**
+     * @return The value, or {@code null} if it is not set.
+     */
+    public String get(final String key) {
+      return values.get(key);
+    }
+
+    /**
+     * @return The value, or {@code defaultValue} if it is not set or empty.
+     */
+    public String get(final String key, final String defaultValue) {
+      final String value = values.get(key);
+      if (null == value || value.isEmpty()) {
+        return defaultValue;
+      }
+      return value;
+    }
+
+    /**
+     * @throws NumberFormatException If the value is set and is not an {@code int}.
+     */
+    public int getInt(final String key, final int defaultValue) {
+      final Long parsed = longs.get(key);
+      if (null != parsed && parsed == parsed.intValue()) {
+        return parsed.intValue();
+      }
+      // not set, or throws
+      final String value = get(key, null);
+      return null == value ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * @throws NumberFormatException If the value is set and is not a {@code long}.
+     */
+    public long getLong(final String key, final long defaultValue) {
+      final Long parsed = longs.get(key);
+      if (null != parsed) {
+        return parsed;
+      }
+      final String value = get(key, null);
+      return null == value ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * @throws NumberFormatException If the value is set and is not a number.
+     */
+    public double getDouble(final String key, final double defaultValue) {
+      final Double parsed = doubles.get(key);
+      if (null != parsed) {
+        return parsed;
+      }
+      final String value = get(key, null);
+      return null == value ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+      final String value = get(key, null);
+      return null == value ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * @return Whether both sections hold exactly the same settings.
+     */
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Section && values.equals(((Section) other).values);
+    }
+
+    @Override
+    public int hashCode() {
+      return values.hashCode();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Watches the properties file and hands each new version of it to a callback. Changes are
+ * collected for a short while first, since editors often save a file in several steps.
+ */
+public class ConfigWatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(ConfigWatcher.class);
+
+  private static final long SETTLE_MILLIS = 500;
+
+  private final Path file;
+  private final Consumer<Properties> onChange;
+  private final WatchService watcher;
+  private final Thread thread;
+
+  public ConfigWatcher(final Path file, final Consumer<Properties> onChange) throws IOException {
+    this.file = file.toAbsolutePath();
+    this.onChange = onChange;
+    this.watcher = FileSystems.getDefault().newWatchService();
+    this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::run, "config-watcher");
+    thread.setDaemon(true);
+  }
+
+  public static Properties load(final Path file) throws IOException {
+    final Properties properties = new Properties();
+    try (final InputStream in = Files.newInputStream(file)) {
+      properties.load(in);
+    }
+    return properties;
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  public void shutdown() {
+    try {
+      watcher.close();
+    } catch (final IOException e) {
+      LOG.warn("Unable to close config watcher", e);
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        boolean changed = drain(watcher.take());
+        if (!changed) {
+          continue;
+        }
+        WatchKey key;
+        while (null != (key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS))) {
+          drain(key);
+        }
+        try {
+          onChange.accept(load(file));
+        } catch (final IOException | IllegalArgumentException e) {
+          LOG.error(String.format("Unable to reload configuration from [%s], keeping the old one",
+              file), e);
+        }
+      }
+    } catch (final InterruptedException | ClosedWatchServiceException e) {
+      // shutting down
+    }
+  }
+
+  /**
+   * @return Whether any of the events were for the watched file.
+   */
+  private boolean drain(final WatchKey key) {
+    boolean changed = false;
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      changed |= file.getFileName().equals(event.context());
+    }
+    key.reset();
+    return changed;
+  }
+}
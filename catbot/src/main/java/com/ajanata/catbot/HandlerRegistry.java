@@ -0,0 +1,402 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.filters.Filter;
+import com.ajanata.catbot.handlers.Handler;
+
+
+/**
+ * The filters, handlers and command router in use, as an immutable {@link Lineup} which is swapped
+ * when the configuration is reloaded. Entries whose settings did not change keep their instance,
+ * along with whatever it has loaded. New and changed entries are created and initialized before
+ * the swap, except a changed singleton, which keeps its instance and only warns that a restart is
+ * needed. Messages keep the lineup they started with, and instances dropped from the lineup are
+ * shut down once every message using them has been handled.
+ */
+public class HandlerRegistry {
+  private static final Logger LOG = LoggerFactory.getLogger(HandlerRegistry.class);
+
+  private static final String FACTORY_METHOD_NAME = "createInstance";
+
+  private final CatBot catbot;
+  private final List<Consumer<CommandRouter>> routerListeners = new CopyOnWriteArrayList<>();
+  private final ExecutorService retirer;
+  // filters and handlers dropped from the lineup, waiting for messages still using them
+  private final Set<Object> retiring = Collections.newSetFromMap(new IdentityHashMap<>());
+  private volatile Lineup current;
+  // completes once every lineup replaced so far has no messages left
+  private CompletableFuture<Void> drained = CompletableFuture.completedFuture(null);
+
+  /**
+   * Create the filters and handlers. As with the constructor of {@link CatBot}, nothing is
+   * initialized until {@link #init()}.
+   */
+  public HandlerRegistry(final CatBot catbot, final Config config) throws ClassNotFoundException {
+    this.catbot = catbot;
+    this.current = build(config, null, new ArrayList<>());
+    retirer = Executors.newSingleThreadExecutor(r -> {
+      final Thread thread = new Thread(r, "registry-retirer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * The filters, handlers and router at one point in time.
+   */
+  public static final class Lineup {
+    private final List<Filter> filters;
+    private final List<Config.Section> filterSections;
+    private final List<Handler> handlers;
+    private final List<Config.Section> handlerSections;
+    private final Map<String, Handler> handlersByTrigger;
+    private final CommandRouter router;
+    // one held while the lineup is current, and one by each message using it
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final CompletableFuture<Void> idle = new CompletableFuture<>();
+
+    private Lineup(final List<Filter> filters, final List<Config.Section> filterSections,
+        final List<Handler> handlers, final List<Config.Section> handlerSections,
+        final Map<String, String> aliases) {
+      this.filters = Collections.unmodifiableList(filters);
+      this.filterSections = filterSections;
+      this.handlers = handlers;
+      this.handlerSections = handlerSections;
+      final Map<String, Handler> map = new HashMap<>();
+      for (int i = 0; i < handlers.size(); i++) {
+        map.put(handlerSections.get(i).get(CatBot.PROP_HANDLER_TRIGGER), handlers.get(i));
+      }
+      this.handlersByTrigger = Collections.unmodifiableMap(map);
+      this.router = new CommandRouter(handlersByTrigger, aliases);
+    }
+
+    public List<Filter> getFilters() {
+      return filters;
+    }
+
+    /**
+     * @return Handlers by trigger name.
+     */
+    public Map<String, Handler> getHandlers() {
+      return handlersByTrigger;
+    }
+
+    public CommandRouter getRouter() {
+      return router;
+    }
+
+    private boolean tryAcquire() {
+      while (true) {
+        final int count = references.get();
+        if (0 == count) {
+          return false;
+        }
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Stop using the lineup. Call exactly once for each {@link HandlerRegistry#acquire()}, even if
+     * the message is dropped, or what the lineup uses is never shut down.
+     */
+    public void release() {
+      if (0 == references.decrementAndGet()) {
+        idle.complete(null);
+      }
+    }
+  }
+
+  /**
+   * @return The current lineup, which is kept from being shut down until it is
+   * {@link Lineup#release() released}.
+   */
+  public Lineup acquire() {
+    while (true) {
+      final Lineup lineup = current;
+      if (lineup.tryAcquire()) {
+        return lineup;
+      }
+    }
+  }
+
+  /**
+   * @return The current lineup, for a quick look. Use {@link #acquire()} to hold on to it.
+   */
+  public Lineup getCurrent() {
+    return current;
+  }
+
+  /**
+   * Call the listener with the router of each lineup swapped in from now on.
+   */
+  public void addRouterListener(final Consumer<CommandRouter> listener) {
+    routerListeners.add(listener);
+  }
+
+  /**
+   * Initialize the filters, then the handlers, of the first lineup.
+   */
+  public void init() {
+    LOG.info("Initializing filters");
+    for (final Filter filter : current.filters) {
+      filter.init();
+    }
+    LOG.info("Initializing handlers");
+    for (final Handler handler : current.handlers) {
+      handler.init();
+    }
+  }
+
+  /**
+   * Reconcile the lineup with a reloaded configuration. If anything cannot be created or
+   * initialized, the current lineup is kept.
+   */
+  public synchronized void reload(final Config config) {
+    final Lineup old = current;
+    final List<Object> created = new ArrayList<>();
+    final Lineup lineup;
+    try {
+      lineup = build(config, old, created);
+      if (created.isEmpty() && lineup.filters.size() == old.filters.size()
+          && lineup.handlers.size() == old.handlers.size()) {
+        return;
+      }
+      // filters MUST be done before handlers
+      for (final Filter filter : lineup.filters) {
+        if (created.contains(filter)) {
+          filter.init();
+        }
+      }
+      for (final Handler handler : lineup.handlers) {
+        if (created.contains(handler)) {
+          handler.init();
+        }
+      }
+    } catch (final ClassNotFoundException | RuntimeException e) {
+      LOG.error("Unable to reload filters and handlers, keeping the current ones", e);
+      final Set<Object> kept = instances(old);
+      for (final Object instance : created) {
+        if (!kept.contains(instance)) {
+          shutdown(instance);
+        }
+      }
+      return;
+    }
+
+    current = lineup;
+    LOG.info(String.format("Swapped in %d filters and %d handlers, %d of them new",
+        lineup.filters.size(), lineup.handlers.size(), created.size()));
+    for (final Consumer<CommandRouter> listener : routerListeners) {
+      try {
+        listener.accept(lineup.router);
+      } catch (final RuntimeException e) {
+        LOG.error("Unable to apply new commands", e);
+      }
+    }
+    retire(old, lineup);
+  }
+
+  // Shut down what the old lineup used and the new one does not, once no message uses it, or any
+  // lineup before it, any more.
+  private void retire(final Lineup old, final Lineup lineup) {
+    final Set<Object> kept = instances(lineup);
+    final List<Object> removed = new ArrayList<>();
+    for (final Object instance : instances(old)) {
+      if (!kept.contains(instance)) {
+        removed.add(instance);
+      }
+    }
+    final CompletableFuture<Void> retired = old.idle.thenCombine(drained, (a, b) -> null);
+    drained = retired;
+    old.release();
+    if (removed.isEmpty()) {
+      return;
+    }
+    retiring.addAll(removed);
+    retired.thenRunAsync(() -> {
+      for (final Object instance : removed) {
+        final boolean pending;
+        synchronized (this) {
+          pending = retiring.remove(instance);
+        }
+        if (pending) {
+          shutdown(instance);
+        }
+      }
+    }, retirer);
+  }
+
+  /**
+   * Shut down the filters and handlers, including any still waiting to be retired.
+   */
+  public void shutdown() {
+    retirer.shutdownNow();
+    final Set<Object> instances;
+    synchronized (this) {
+      instances = instances(current);
+      instances.addAll(retiring);
+      retiring.clear();
+    }
+    for (final Object instance : instances) {
+      shutdown(instance);
+    }
+  }
+
+  // an instance that is both a filter and a handler is only shut down once
+  private static void shutdown(final Object instance) {
+    try {
+      if (instance instanceof Filter) {
+        ((Filter) instance).shutdown();
+      } else {
+        ((Handler) instance).shutdown();
+      }
+    } catch (final RuntimeException e) {
+      LOG.error(String.format("Unable to shut down %s", instance.getClass().getSimpleName()), e);
+    }
+  }
+
+  private static Set<Object> instances(final Lineup lineup) {
+    final Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<>());
+    set.addAll(lineup.filters);
+    set.addAll(lineup.handlers);
+    return set;
+  }
+
+  // Entries with the same id and settings as in the previous lineup keep their instance.
+  private Lineup build(final Config config, final Lineup previous, final List<Object> created)
+      throws ClassNotFoundException {
+    final int numFilters = config.global().getInt(CatBot.PROP_FILTERS, 0);
+    final List<Filter> filters = new ArrayList<>(numFilters);
+    final List<Config.Section> filterSections = new ArrayList<>(numFilters);
+    for (int i = 0; i < numFilters; i++) {
+      final Config.Section section = config.filter(i);
+      Filter filter;
+      if (null != previous && i < previous.filters.size()
+          && section.equals(previous.filterSections.get(i))) {
+        filter = previous.filters.get(i);
+      } else {
+        filter = create(Filter.class, "filter", i, section.get(CatBot.PROP_FILTER_CLASS));
+        if (!reused(previous, filter, "filter", i)) {
+          created.add(filter);
+        }
+      }
+      filters.add(filter);
+      filterSections.add(section);
+    }
+
+    final int numHandlers = config.global().getInt(CatBot.PROP_HANDLERS, 0);
+    final List<Handler> handlers = new ArrayList<>(numHandlers);
+    final List<Config.Section> handlerSections = new ArrayList<>(numHandlers);
+    final Map<String, String> aliases = new HashMap<>();
+    for (int i = 0; i < numHandlers; i++) {
+      final Config.Section section = config.handler(i);
+      Handler handler;
+      if (null != previous && i < previous.handlers.size()
+          && section.equals(previous.handlerSections.get(i))) {
+        handler = previous.handlers.get(i);
+      } else {
+        handler = create(Handler.class, "handler", i, section.get(CatBot.PROP_HANDLER_CLASS));
+        if (!reused(previous, handler, "handler", i)) {
+          created.add(handler);
+        }
+      }
+      handlers.add(handler);
+      handlerSections.add(section);
+
+      final String trigger = section.get(CatBot.PROP_HANDLER_TRIGGER);
+      final int numAliases = section.getInt(CatBot.PROP_HANDLER_ALIASES, 0);
+      for (int j = 0; j < numAliases; j++) {
+        aliases.put(section.get(CatBot.PROP_HANDLER_ALIASES + "." + j), trigger);
+      }
+    }
+
+    return new Lineup(filters, filterSections, handlers, handlerSections, aliases);
+  }
+
+  // A singleton hands back the instance it already has, which was initialized with the old
+  // settings and is not initialized again.
+  private static boolean reused(final Lineup previous, final Object instance, final String kind,
+      final int id) {
+    if (null == previous || !instances(previous).contains(instance)) {
+      return false;
+    }
+    LOG.warn(String.format("Settings for %s %d (%s) changed, but it keeps its existing instance. "
+        + "Settings it only reads when initialized need a restart.", kind, id,
+        instance.getClass().getSimpleName()));
+    return true;
+  }
+
+  private <T> T create(final Class<T> type, final String kind, final int id,
+      final String className) throws ClassNotFoundException {
+    final Class<? extends T> clazz = Class.forName(className).asSubclass(type);
+
+    T instance = null;
+    try {
+      final Method factoryMethod = clazz.getMethod(FACTORY_METHOD_NAME, CatBot.class, int.class);
+      instance = type.cast(factoryMethod.invoke(null, catbot, id));
+    } catch (final NoSuchMethodException e) {
+      // don't care, this method is optional and we'll use the default constructor instead
+    } catch (final IllegalAccessException | IllegalArgumentException
+        | InvocationTargetException e) {
+      final String msg = String.format("Unable to initialize %s %d, class %s, via %s method",
+          kind, id, className, FACTORY_METHOD_NAME);
+      LOG.error(msg, e);
+      throw new RuntimeException(msg, e);
+    }
+
+    if (null == instance) {
+      try {
+        instance = clazz.newInstance();
+      } catch (InstantiationException | IllegalAccessException e) {
+        final String msg = String.format("Unable to initialize %s %d, class %s, via <init> method",
+            kind, id, className);
+        LOG.error(msg, e);
+        throw new RuntimeException(msg, e);
+      }
+    }
+    return instance;
+  }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+/**
+ * A chat message received by a {@link Bot}, along with the means to reply to it. Instances are
+ * handed to the {@link MessagePipeline} by the platform listener threads.
+ */
+public class InboundMessage {
+  public final int botId;
+  public final String fromName;
+  public final String fromId;
+  public final String chatId;
+  public final String text;
+  public final ReplySender replySender;
+
+  public InboundMessage(final int botId, final String fromName, final String fromId,
+      final String chatId, final String text, final ReplySender replySender) {
+    this.botId = botId;
+    this.fromName = fromName;
+    this.fromId = fromId;
+    this.chatId = chatId;
+    this.text = text;
+    this.replySender = replySender;
+  }
+
+  @FunctionalInterface
+  public interface ReplySender {
+    /**
+     * Send a reply to the chat the message came from. This is called from the pipeline's egress
+     * stage, never from the platform's listener thread.
+     *
+     * @param message The reply text.
+     * @param replyToPrevious Whether the reply should be addressed to the sender of the original
+     * message, in whatever way the platform supports that.
+     */
+    void send(String message, boolean replyToPrevious);
+  }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.MessagePipeline.Priority;
+
+
+/**
+ * A bounded queue with one FIFO lane per {@link Priority}. When the queue is full, offering an
+ * item evicts the oldest item of a less important priority to make room; if there is nothing less
+ * important queued, the offered item is dropped instead. Items are taken most important first.
+ * Every item shed, whether evicted or refused, is passed to the queue's shed callback, outside of
+ * the queue's lock.
+ */
+public class LoadSheddingQueue<E> {
+  private static final Logger LOG = LoggerFactory.getLogger(LoadSheddingQueue.class);
+
+  private static final Priority[] PRIORITIES = Priority.values();
+
+  private final String name;
+  private final int capacity;
+  private final ArrayDeque<E>[] lanes;
+  private final Consumer<? super E> onShed;
+  private final AtomicLongArray dropped = new AtomicLongArray(PRIORITIES.length);
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private int size = 0;
+
+  public LoadSheddingQueue(final String name, final int capacity) {
+    this(name, capacity, item -> {
+    });
+  }
+
+  /**
+   * @param onShed Called with each item shed from the queue.
+   */
+  @SuppressWarnings("unchecked")
+  public LoadSheddingQueue(final String name, final int capacity,
+      final Consumer<? super E> onShed) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+    }
+    this.name = name;
+    this.capacity = capacity;
+    this.onShed = onShed;
+    lanes = (ArrayDeque<E>[]) new ArrayDeque<?>[PRIORITIES.length];
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new ArrayDeque<>();
+    }
+  }
+
+  /**
+   * @return {@code true} if the item was queued, {@code false} if it was shed.
+   */
+  public boolean offer(final E item, final Priority priority) {
+    final boolean queued;
+    E shed = null;
+    lock.lock();
+    try {
+      if (size >= capacity) {
+        shed = shedBelow(priority);
+      }
+      queued = size < capacity;
+      if (queued) {
+        lanes[priority.ordinal()].addLast(item);
+        size++;
+        notEmpty.signal();
+      } else {
+        shed = item;
+        dropped.incrementAndGet(priority.ordinal());
+        LOG.debug(String.format("%s queue full, shedding new %s item", name, priority));
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (null != shed) {
+      onShed.accept(shed);
+    }
+    return queued;
+  }
+
+  // Must hold lock.
+  private E shedBelow(final Priority priority) {
+    for (int i = lanes.length - 1; i > priority.ordinal(); i--) {
+      final E item = lanes[i].pollFirst();
+      if (null != item) {
+        size--;
+        dropped.incrementAndGet(i);
+        LOG.debug(String.format("%s queue full, shedding queued %s item for %s item", name,
+            PRIORITIES[i], priority));
+        return item;
+      }
+    }
+    return null;
+  }
+
+  public E take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (0 == size) {
+        notEmpty.await();
+      }
+      for (final ArrayDeque<E> lane : lanes) {
+        final E item = lane.pollFirst();
+        if (null != item) {
+          size--;
+          return item;
+        }
+      }
+      throw new IllegalStateException("Queue size is non-zero but all lanes are empty");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getDropped(final Priority priority) {
+    return dropped.get(priority.ordinal());
+  }
+
+  public String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CommandRouter.ParsedCommand;
+import com.ajanata.catbot.HandlerRegistry.Lineup;
+import com.ajanata.catbot.filters.AsyncFilter;
+import com.ajanata.catbot.filters.Filter;
+import com.ajanata.catbot.filters.Filter.FilterResult;
+import com.ajanata.catbot.handlers.AsyncHandler;
+import com.ajanata.catbot.metrics.Timer;
+
+
+/**
+ * Moves inbound messages off of the platform listener threads. Work flows through three stages,
+ * each fed by a bounded {@link LoadSheddingQueue}:
+ * <ul>
+ * <li>ingress: classifies the message as a trigger command or chatter and routes the trigger
+ * through the {@link CommandRouter}.</li>
+ * <li>execute: runs the handler for a command, or the {@link Filter} chain for chatter.</li>
+ * <li>egress: sends any reply back to the platform.</li>
+ * </ul>
+ * Handlers and filters may be asynchronous ({@link AsyncHandler}, {@link AsyncFilter}); replies are
+ * passed to egress from their completion callbacks, so nothing waits on them.
+ * When a stage falls behind, chatter (free speech and learning) is shed before commands are.
+ * Each message holds on to the {@link HandlerRegistry.Lineup} current when it was classified until
+ * it has been handled, so filters and handlers swapped out meanwhile finish what they started.
+ * Work shed from a queue releases the lineup it holds.
+ */
+public class MessagePipeline {
+  private static final Logger LOG = LoggerFactory.getLogger(MessagePipeline.class);
+
+  // config property names
+  public static final String PROP_INGRESS_CAPACITY = "pipeline.ingress.capacity";
+  public static final String PROP_EXECUTE_CAPACITY = "pipeline.execute.capacity";
+  public static final String PROP_EXECUTE_THREADS = "pipeline.execute.threads";
+  public static final String PROP_EGRESS_CAPACITY = "pipeline.egress.capacity";
+  public static final String PROP_EGRESS_THREADS = "pipeline.egress.threads";
+
+  /**
+   * Work priority, most important first. When a queue is full, work of a later priority is shed
+   * to make room for work of an earlier one.
+   */
+  public enum Priority {
+    COMMAND, CHATTER
+  }
+
+  private final CatBot catbot;
+  private final LoadSheddingQueue<Task> ingress;
+  private final LoadSheddingQueue<Task> execute;
+  private final LoadSheddingQueue<Task> egress;
+  private final int executeThreads;
+  private final int egressThreads;
+  private final List<Thread> workers = new ArrayList<>();
+
+  public MessagePipeline(final CatBot catbot) {
+    this.catbot = catbot;
+    ingress = new LoadSheddingQueue<>("ingress",
+        catbot.getIntProperty(PROP_INGRESS_CAPACITY, 1000), Task::shed);
+    execute = new LoadSheddingQueue<>("execute",
+        catbot.getIntProperty(PROP_EXECUTE_CAPACITY, 500), Task::shed);
+    egress = new LoadSheddingQueue<>("egress", catbot.getIntProperty(PROP_EGRESS_CAPACITY, 500),
+        Task::shed);
+    executeThreads = catbot.getIntProperty(PROP_EXECUTE_THREADS, 4);
+    egressThreads = catbot.getIntProperty(PROP_EGRESS_THREADS, 2);
+  }
+
+  /**
+   * Work for a stage, and what to do instead if it is shed.
+   */
+  private static final class Task implements Runnable {
+    private final Runnable work;
+    private final Runnable onShed;
+
+    Task(final Runnable work, final Runnable onShed) {
+      this.work = work;
+      this.onShed = onShed;
+    }
+
+    @Override
+    public void run() {
+      work.run();
+    }
+
+    void shed() {
+      onShed.run();
+    }
+  }
+
+  private static final Runnable NOTHING = () -> {
+  };
+
+  public synchronized void start() {
+    if (!workers.isEmpty()) {
+      return;
+    }
+    LOG.info(String.format("Starting message pipeline with %d execute and %d egress threads",
+        executeThreads, egressThreads));
+    startWorker(ingress, "pipeline-ingress");
+    for (int i = 0; i < executeThreads; i++) {
+      startWorker(execute, "pipeline-execute-" + i);
+    }
+    for (int i = 0; i < egressThreads; i++) {
+      startWorker(egress, "pipeline-egress-" + i);
+    }
+  }
+
+  private void startWorker(final LoadSheddingQueue<Task> queue, final String name) {
+    final Thread thread = new Thread(() -> {
+      while (!Thread.currentThread().isInterrupted()) {
+        final Task task;
+        try {
+          task = queue.take();
+        } catch (final InterruptedException e) {
+          break;
+        }
+        try {
+          task.run();
+        } catch (final RuntimeException e) {
+          LOG.error(String.format("Unhandled exception in %s stage", queue.getName()), e);
+        }
+      }
+    }, name);
+    thread.setDaemon(true);
+    thread.start();
+    workers.add(thread);
+  }
+
+  public synchronized void shutdown() {
+    LOG.info("Stopping message pipeline.");
+    for (final Thread thread : workers) {
+      thread.interrupt();
+    }
+    workers.clear();
+  }
+
+  /**
+   * Submit a message from a platform listener thread. This never blocks.
+   *
+   * @param message The received message.
+   * @param triggerPrefix The bot's trigger prefix, or {@code null} if the platform delivers
+   * commands some other way and every message should go to the filters.
+   * @return {@code false} if the message was shed.
+   */
+  public boolean submit(final InboundMessage message, final String triggerPrefix) {
+    if (null != triggerPrefix && message.text.startsWith(triggerPrefix)) {
+      return ingress.offer(new Task(() -> parseCommand(message, triggerPrefix), NOTHING),
+          Priority.COMMAND);
+    } else {
+      return ingress.offer(new Task(() -> enqueueFilters(message), NOTHING), Priority.CHATTER);
+    }
+  }
+
+  /**
+   * Submit a command the platform has already parsed. This never blocks.
+   *
+   * @param name The name the command was invoked as.
+   * @param arguments The command's arguments.
+   * @return {@code false} if the command was shed.
+   */
+  public boolean submitCommand(final InboundMessage message, final String name,
+      final String arguments) {
+    return ingress.offer(new Task(() -> {
+      final Lineup lineup = catbot.getRegistry().acquire();
+      final ParsedCommand command = lineup.getRouter().command(name, arguments);
+      if (null == command) {
+        lineup.release();
+      } else {
+        enqueueCommand(message, command, lineup);
+      }
+    }, NOTHING), Priority.COMMAND);
+  }
+
+  private void parseCommand(final InboundMessage message, final String triggerPrefix) {
+    LOG.trace(String.format("Message with trigger prefix from %s in %s: %s", message.fromName,
+        message.chatId, message.text));
+
+    final Lineup lineup = catbot.getRegistry().acquire();
+    final ParsedCommand command = lineup.getRouter().parse(triggerPrefix, message.text);
+    if (null == command) {
+      lineup.release();
+    } else {
+      enqueueCommand(message, command, lineup);
+    }
+  }
+
+  private void enqueueCommand(final InboundMessage message, final ParsedCommand command,
+      final Lineup lineup) {
+    execute.offer(new Task(() -> {
+      final Timer timer = catbot.getMetrics().timer("handler." + command.getTrigger());
+      final long start = System.nanoTime();
+      CompletionStage<String> result;
+      try {
+        result = AsyncHandler.adapt(command.getHandler()).handleCommandAsync(message.botId,
+            message.fromName, message.fromId, message.chatId, command.getTrigger(),
+            command.getArguments());
+      } catch (final RuntimeException e) {
+        result = failed(e);
+      }
+      result.whenComplete((response, error) -> {
+        timer.recordSince(start, null != error);
+        lineup.release();
+        if (null != error) {
+          LOG.error(String.format("Handler for %s failed on: %s", command.getTrigger(),
+              message.text), error);
+        } else if (null != response) {
+          reply(message, response, false, Priority.COMMAND);
+        }
+      });
+    }, lineup::release), Priority.COMMAND);
+  }
+
+  private void enqueueFilters(final InboundMessage message) {
+    final Lineup lineup = catbot.getRegistry().acquire();
+    execute.offer(new Task(() -> runFilters(message, lineup, lineup.getFilters().iterator()),
+        lineup::release), Priority.CHATTER);
+  }
+
+  private void reply(final InboundMessage message, final String reply,
+      final boolean replyToPrevious, final Priority priority) {
+    egress.offer(new Task(() -> message.replySender.send(reply, replyToPrevious),
+        () -> LOG.debug(String.format("Shed reply to %s in %s", message.fromName,
+            message.chatId))), priority);
+  }
+
+  private static <T> CompletionStage<T> failed(final Throwable error) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(error);
+    return future;
+  }
+
+  // Runs the remaining filters in order until one of them replies. A filter which completes
+  // asynchronously has the rest of the chain resumed back on the execute stage.
+  private void runFilters(final InboundMessage message, final Lineup lineup,
+      final Iterator<Filter> filters) {
+    if (!filters.hasNext()) {
+      lineup.release();
+      return;
+    }
+    final Filter filter = filters.next();
+    final Timer timer = catbot.getMetrics().timer("filter." + filter.getClass().getSimpleName());
+    final long start = System.nanoTime();
+    CompletableFuture<FilterResult> result;
+    try {
+      result = AsyncFilter.adapt(filter).filterMessageAsync(message.botId, message.fromName,
+          message.fromId, message.chatId, message.text).toCompletableFuture();
+    } catch (final RuntimeException e) {
+      result = MessagePipeline.<FilterResult> failed(e).toCompletableFuture();
+    }
+    if (result.isDone()) {
+      timer.recordSince(start, result.isCompletedExceptionally());
+      filterComplete(message, lineup, filters, filter, result);
+    } else {
+      final CompletableFuture<FilterResult> pending = result;
+      pending.whenComplete((reply, error) -> {
+        timer.recordSince(start, null != error);
+        execute.offer(new Task(() -> filterComplete(message, lineup, filters, filter, pending),
+            lineup::release), Priority.CHATTER);
+      });
+    }
+  }
+
+  private void filterComplete(final InboundMessage message, final Lineup lineup,
+      final Iterator<Filter> filters, final Filter filter,
+      final CompletableFuture<FilterResult> result) {
+    final FilterResult reply;
+    try {
+      reply = result.join();
+    } catch (final CompletionException | CancellationException e) {
+      LOG.error(String.format("Filter %s failed on: %s", filter.getClass().getSimpleName(),
+          message.text), e);
+      runFilters(message, lineup, filters);
+      return;
+    }
+    if (null != reply) {
+      lineup.release();
+      reply(message, reply.message, reply.replyToPrevious, Priority.CHATTER);
+    } else {
+      runFilters(message, lineup, filters);
+    }
+  }
+
+  public long getDropped(final Priority priority) {
+    return ingress.getDropped(priority) + execute.getDropped(priority)
+        + egress.getDropped(priority);
+  }
+}
@@ -0,0 +1,580 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.metrics.Timer;
+
+
+/**
+ * Sends outbound messages as fast as each platform allows. Every destination (a channel or chat)
+ * has its own queue, and sends one message at a time, in order. A message is sent once token
+ * buckets for its destination, and for the whole bot, all have a token, so a platform's published
+ * limits are never exceeded. Destinations with a message ready take turns, one message each, so a
+ * busy channel cannot starve the others. A retry of a failed send also waits for a token, and
+ * takes its turn like a new message.
+ * <p>
+ * Text messages that pile up for a destination while it waits its turn are sent as one, where the
+ * platform allows it, within its length limit; see {@link Coalescing}.
+ */
+public class OutboundScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(OutboundScheduler.class);
+
+  // config property names
+  public static final String PROP_THREADS = "outbound.threads";
+  public static final String PROP_QUEUE_CAPACITY = "outbound.queue.capacity";
+  public static final String PROP_BOT_LIMIT_DESTINATION = "send.limit.destination";
+  public static final String PROP_BOT_LIMIT_SHARED = "send.limit.shared";
+  public static final String PROP_BOT_COALESCE_WINDOW = "send.coalesce.window.ms";
+  public static final String PROP_BOT_COALESCE_MAX_LENGTH = "send.coalesce.max.length";
+
+  /** How often destinations with nothing to send, and full buckets, are forgotten. */
+  private static final long SWEEP_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final CatBot catbot;
+  private final int queueCapacity;
+  private final ExecutorService senders;
+  private final Thread dispatcher;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  // everything below is guarded by the lock
+  private final Map<String, Destination> destinations = new HashMap<>();
+  private final Map<String, TokenBucket[]> shared = new HashMap<>();
+  // destinations with a message queued and none being sent, in turn order
+  private final ArrayDeque<Destination> ready = new ArrayDeque<>();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private volatile boolean running = true;
+
+  public OutboundScheduler(final CatBot catbot) {
+    this.catbot = catbot;
+    queueCapacity = catbot.getIntProperty(PROP_QUEUE_CAPACITY, 50);
+    final AtomicInteger threadCount = new AtomicInteger();
+    senders = Executors.newFixedThreadPool(catbot.getIntProperty(PROP_THREADS, 4), r -> {
+      final Thread thread = new Thread(r, "outbound-" + threadCount.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    dispatcher = new Thread(this::dispatch, "outbound-dispatcher");
+    dispatcher.setDaemon(true);
+  }
+
+  /**
+   * Limits for a platform, as lists of {@code count/seconds}: at most {@code count} messages in
+   * any {@code seconds}, with bursts of up to {@code count}.
+   */
+  public static final class Limits {
+    private final double[][] destination;
+    private final double[][] shared;
+
+    /**
+     * @param destination Limits for each destination, such as {@code 5/5,20/60}. Empty for none.
+     * @param shared Limits for all of the bot's destinations together.
+     */
+    public Limits(final String destination, final String shared) {
+      this.destination = parse(destination);
+      this.shared = parse(shared);
+    }
+
+    /**
+     * Limits from a bot's configuration, or the platform's defaults.
+     */
+    public static Limits forBot(final Config.Section bot, final String destination,
+        final String shared) {
+      return new Limits(bot.get(PROP_BOT_LIMIT_DESTINATION, destination),
+          bot.get(PROP_BOT_LIMIT_SHARED, shared));
+    }
+
+    private static double[][] parse(final String spec) {
+      final List<double[]> limits = new ArrayList<>();
+      if (null != spec) {
+        for (final String limit : spec.split(",")) {
+          if (limit.trim().isEmpty()) {
+            continue;
+          }
+          final String[] parts = limit.split("/");
+          if (2 != parts.length) {
+            throw new IllegalArgumentException("Limit must be count/seconds: " + limit);
+          }
+          final double count = Double.parseDouble(parts[0].trim());
+          final double seconds = Double.parseDouble(parts[1].trim());
+          limits.add(new double[] { count, count / seconds });
+        }
+      }
+      return limits.toArray(new double[limits.size()][]);
+    }
+
+    private static TokenBucket[] buckets(final double[][] limits, final long now) {
+      final TokenBucket[] buckets = new TokenBucket[limits.length];
+      for (int i = 0; i < limits.length; i++) {
+        buckets[i] = new TokenBucket(limits[i][0], limits[i][1], now);
+      }
+      return buckets;
+    }
+  }
+
+  /**
+   * How a platform's text messages are merged: joined with a separator, up to a maximum length. A
+   * message is held for the window after it is queued, so that replies following closely behind
+   * can join it; with no window, only messages that queued up behind the rate limits are merged.
+   * Lengths are in chars unless measured another way; see {@link #measuredBy}.
+   */
+  public static final class Coalescing {
+    public static final Coalescing NONE = new Coalescing(0, 0, "");
+
+    private final long windowNanos;
+    private final int maxLength;
+    private final String separator;
+    private final ToIntFunction<String> length;
+    private final int overhead;
+
+    /**
+     * @param maxLength Longest merged message, 0 to never merge.
+     */
+    public Coalescing(final long windowMillis, final int maxLength, final String separator) {
+      this(TimeUnit.MILLISECONDS.toNanos(windowMillis), maxLength, separator, String::length, 0);
+    }
+
+    private Coalescing(final long windowNanos, final int maxLength, final String separator,
+        final ToIntFunction<String> length, final int overhead) {
+      this.windowNanos = windowNanos;
+      this.maxLength = maxLength;
+      this.separator = separator;
+      this.length = length;
+      this.overhead = overhead;
+    }
+
+    /**
+     * The same coalescing, with lengths measured another way, such as in encoded bytes.
+     *
+     * @param overhead Length the message is sent with, such as the command and target, counted
+     * against the maximum length.
+     */
+    public Coalescing measuredBy(final ToIntFunction<String> length, final int overhead) {
+      return new Coalescing(windowNanos, maxLength, separator, length, overhead);
+    }
+
+    /**
+     * Coalescing from a bot's configuration, or the platform's defaults.
+     */
+    public static Coalescing forBot(final Config.Section bot, final int maxLength,
+        final String separator) {
+      return new Coalescing(bot.getLong(PROP_BOT_COALESCE_WINDOW, 0),
+          bot.getInt(PROP_BOT_COALESCE_MAX_LENGTH, maxLength), separator);
+    }
+  }
+
+  private static final class TokenBucket {
+    private final double capacity;
+    private final double perNano;
+    private double tokens;
+    private long refilledAt;
+
+    TokenBucket(final double capacity, final double perSecond, final long now) {
+      this.capacity = capacity;
+      this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+      this.tokens = capacity;
+      this.refilledAt = now;
+    }
+
+    private void refill(final long now) {
+      tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+      refilledAt = now;
+    }
+
+    /**
+     * @return How long until a token is available, 0 if one is now.
+     */
+    long nanosUntilToken(final long now) {
+      refill(now);
+      return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano);
+    }
+
+    void take() {
+      tokens -= 1;
+    }
+
+    boolean isFull(final long now) {
+      refill(now);
+      return tokens >= capacity;
+    }
+  }
+
+  private final class Destination {
+    private final String name;
+    private final TokenBucket[] buckets;
+    private final TokenBucket[] sharedBuckets;
+    private final Timer waitTimer;
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private boolean sending = false;
+    // retry of the message being sent, waiting for a token
+    private Runnable retry;
+    // where that message's retries are run
+    private final Executor retries = this::resume;
+
+    Destination(final String name, final TokenBucket[] buckets,
+        final TokenBucket[] sharedBuckets, final Timer waitTimer) {
+      this.name = name;
+      this.buckets = buckets;
+      this.sharedBuckets = sharedBuckets;
+      this.waitTimer = waitTimer;
+    }
+
+    long nanosUntilToken(final long now) {
+      long wait = 0;
+      for (final TokenBucket bucket : buckets) {
+        wait = Math.max(wait, bucket.nanosUntilToken(now));
+      }
+      for (final TokenBucket bucket : sharedBuckets) {
+        wait = Math.max(wait, bucket.nanosUntilToken(now));
+      }
+      return wait;
+    }
+
+    void take() {
+      for (final TokenBucket bucket : buckets) {
+        bucket.take();
+      }
+      for (final TokenBucket bucket : sharedBuckets) {
+        bucket.take();
+      }
+    }
+
+    private void resume(final Runnable attempt) {
+      lock.lock();
+      try {
+        if (!running) {
+          throw new RejectedExecutionException("Outbound scheduler is shut down");
+        }
+        retry = attempt;
+        ready.add(this);
+        changed.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean isIdle(final long now) {
+      if (sending || !queue.isEmpty()) {
+        return false;
+      }
+      for (final TokenBucket bucket : buckets) {
+        if (!bucket.isFull(now)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Pending {
+    // null for messages which are not text
+    private final String text;
+    private final boolean mergeable;
+    private final Coalescing coalescing;
+    private final BiFunction<String, Executor, ? extends CompletionStage<?>> send;
+    private final long queuedAt = System.nanoTime();
+
+    Pending(final String text, final boolean mergeable, final Coalescing coalescing,
+        final BiFunction<String, Executor, ? extends CompletionStage<?>> send) {
+      this.text = text;
+      this.mergeable = mergeable && null != text;
+      this.coalescing = coalescing;
+      this.send = send;
+    }
+
+    boolean isMergeable() {
+      return mergeable && coalescing.maxLength > 0;
+    }
+
+    long nanosUntilDue(final long now) {
+      return isMergeable() ? Math.max(0, queuedAt + coalescing.windowNanos - now) : 0;
+    }
+
+    /**
+     * @param length Measured length of the message so far, with its overhead.
+     * @return The length with the next message merged, or -1 if it cannot be.
+     */
+    int merged(final Pending next, final int length) {
+      if (null == next || !next.mergeable) {
+        return -1;
+      }
+      final int merged = length + coalescing.length.applyAsInt(coalescing.separator)
+          + coalescing.length.applyAsInt(next.text);
+      return merged <= coalescing.maxLength ? merged : -1;
+    }
+  }
+
+  public void start() {
+    dispatcher.start();
+  }
+
+  public void shutdown() {
+    running = false;
+    dispatcher.interrupt();
+    senders.shutdownNow();
+  }
+
+  /**
+   * Queue a message. This never blocks.
+   *
+   * @param destination Key for the channel or chat the message goes to.
+   * @param bot Key for the bot, whose destinations share its {@link Limits#shared} limits. Only
+   * the limits given with the first message for a key are used.
+   * @param limits The platform's limits.
+   * @param send Sends the message, usually through
+   * {@link Retryable#retry(Executor, String, Runnable, Class...)}, given the executor to run its
+   * retries on. The destination's next message waits until the returned stage completes.
+   * @return {@code false} if the destination's queue is full and the message was dropped.
+   */
+  public boolean send(final String destination, final String bot, final Limits limits,
+      final Function<Executor, ? extends CompletionStage<?>> send) {
+    return enqueue(destination, bot, limits, new Pending(null, false, Coalescing.NONE,
+        (text, retries) -> send.apply(retries)));
+  }
+
+  /**
+   * Queue a text message, which may be merged with others queued for the same destination. This
+   * never blocks.
+   *
+   * @param mergeable Whether the message may be merged, such as when it is not a reply to a
+   * particular message.
+   * @param send Sends the text, which may be several messages merged. Only the first merged
+   * message's is called.
+   * @see #send(String, String, Limits, Function)
+   */
+  public boolean send(final String destination, final String bot, final Limits limits,
+      final Coalescing coalescing, final String text, final boolean mergeable,
+      final BiFunction<String, Executor, ? extends CompletionStage<?>> send) {
+    return enqueue(destination, bot, limits, new Pending(text, mergeable, coalescing, send));
+  }
+
+  private boolean enqueue(final String destination, final String bot, final Limits limits,
+      final Pending pending) {
+    lock.lock();
+    try {
+      Destination dest = destinations.get(destination);
+      if (null == dest) {
+        final long now = System.nanoTime();
+        final TokenBucket[] sharedBuckets = shared.computeIfAbsent(bot,
+            k -> Limits.buckets(limits.shared, now));
+        dest = new Destination(destination, Limits.buckets(limits.destination, now),
+            sharedBuckets, catbot.getMetrics().timer("outbound.wait." + bot));
+        destinations.put(destination, dest);
+      }
+      if (dest.queue.size() >= queueCapacity) {
+        dropped.incrementAndGet();
+        LOG.warn(String.format("Outbound queue for %s full, dropping message", destination));
+        return false;
+      }
+      dest.queue.add(pending);
+      if (!dest.sending && 1 == dest.queue.size()) {
+        ready.add(dest);
+        changed.signal();
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return How many messages were sent merged into an earlier one.
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  private void dispatch() {
+    long sweepAt = System.nanoTime() + SWEEP_NANOS;
+    lock.lock();
+    try {
+      while (running) {
+        final long now = System.nanoTime();
+        long sleep = Long.MAX_VALUE;
+        // one turn for each destination that is ready, in order
+        for (int i = ready.size(); i > 0; i--) {
+          final Destination dest = ready.poll();
+          try {
+            final long wait = turn(dest, now);
+            if (wait > 0) {
+              ready.add(dest);
+              sleep = Math.min(sleep, wait);
+            }
+          } catch (final RuntimeException e) {
+            if (running) {
+              LOG.error(String.format("Unable to dispatch to %s, dropping message", dest.name),
+                  e);
+            }
+            dest.retry = null;
+            done(dest);
+            // its next message may be ready now
+            sleep = 0;
+          }
+        }
+        if (now - sweepAt >= 0) {
+          sweep(now);
+          sweepAt = now + SWEEP_NANOS;
+        }
+        try {
+          changed.awaitNanos(Math.min(sleep, SWEEP_NANOS));
+        } catch (final InterruptedException e) {
+          break;
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Send the destination's retry or next message, if it is due and has a token.
+   *
+   * @return How long until it can, 0 if it was sent.
+   */
+  private long turn(final Destination dest, final long now) {
+    final Runnable retry = dest.retry;
+    final long due = null == retry ? dest.queue.peek().nanosUntilDue(now) : 0;
+    final long wait = Math.max(due, dest.nanosUntilToken(now));
+    if (wait > 0) {
+      return wait;
+    }
+    dest.take();
+    if (null != retry) {
+      dest.retry = null;
+      senders.execute(retry);
+      return 0;
+    }
+    dest.sending = true;
+    final Pending pending = dest.queue.poll();
+    dest.waitTimer.recordSince(pending.queuedAt, false);
+    final String text = pending.isMergeable() ? merge(dest, pending) : pending.text;
+    senders.execute(() -> sendNow(dest, pending, text));
+    return 0;
+  }
+
+  // Append the messages queued behind the first that fit, in order.
+  private String merge(final Destination dest, final Pending first) {
+    final Coalescing coalescing = first.coalescing;
+    int length = first.merged(dest.queue.peek(),
+        coalescing.overhead + coalescing.length.applyAsInt(first.text));
+    if (length < 0) {
+      return first.text;
+    }
+    final StringBuilder merged = new StringBuilder(first.text);
+    do {
+      final Pending next = dest.queue.poll();
+      dest.waitTimer.recordSince(next.queuedAt, false);
+      merged.append(coalescing.separator).append(next.text);
+      coalesced.incrementAndGet();
+      length = first.merged(dest.queue.peek(), length);
+    } while (length >= 0);
+    return merged.toString();
+  }
+
+  private void sendNow(final Destination dest, final Pending pending, final String text) {
+    CompletionStage<?> stage;
+    try {
+      stage = pending.send.apply(text, dest.retries);
+    } catch (final RuntimeException e) {
+      LOG.error(String.format("Unable to send to %s", dest.name), e);
+      stage = null;
+    }
+    if (null == stage) {
+      sent(dest);
+    } else {
+      stage.whenComplete((result, error) -> sent(dest));
+    }
+  }
+
+  private void sent(final Destination dest) {
+    lock.lock();
+    try {
+      done(dest);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void done(final Destination dest) {
+    dest.sending = false;
+    if (!dest.queue.isEmpty()) {
+      ready.add(dest);
+      changed.signal();
+    }
+  }
+
+  private void sweep(final long now) {
+    for (final Iterator<Destination> iter = destinations.values().iterator(); iter.hasNext();) {
+      if (iter.next().isIdle(now)) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * @return How many messages are queued for each destination with any.
+   */
+  public Map<String, Integer> getQueued() {
+    lock.lock();
+    try {
+      final Map<String, Integer> queued = new HashMap<>();
+      for (final Destination dest : destinations.values()) {
+        if (!dest.queue.isEmpty()) {
+          queued.put(dest.name, dest.queue.size());
+        }
+      }
+      return Collections.unmodifiableMap(queued);
+    } finally {
+      lock.unlock();
+    }
+  }
+}
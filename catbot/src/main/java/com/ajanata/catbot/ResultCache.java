@@ -0,0 +1,361 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cache of string results, such as formatted replies from an external service.
+ *
+ * <p>
+ * The first tier is a size-bounded LRU map in memory. If {@code caches.<name>.disk.path} is set,
+ * entries are also written to one file each in that directory, and memory misses fall back to it,
+ * so the cache survives restarts. Every entry carries its own expiration time. When the directory
+ * holds more than {@code disk.max.entries}, expired entries and then the oldest are removed until
+ * it is back under nine tenths of the limit.
+ */
+public class ResultCache {
+  private static final Logger LOG = LoggerFactory.getLogger(ResultCache.class);
+
+  public static final String PROP_CACHES = "caches";
+
+  private static final int DISK_FORMAT_VERSION = 1;
+  private static final String DISK_SUFFIX = ".entry";
+
+  private final String name;
+  private final long defaultTtl;
+  private final File diskDir;
+  private final int maxDiskEntries;
+  private final Map<String, Entry> memory;
+  private final AtomicInteger diskEntries = new AtomicInteger();
+  private final Object pruneLock = new Object();
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public ResultCache(final CatBot catbot, final String name) {
+    this(catbot.getConfig().global(), name);
+  }
+
+  /**
+   * @param config All settings, by their full key.
+   */
+  public ResultCache(final Config.Section config, final String name) {
+    this.name = name;
+    final String prefix = PROP_CACHES + "." + name + ".";
+    final int maxEntries = config.getInt(prefix + "max.entries", 1000);
+    defaultTtl = TimeUnit.SECONDS.toMillis(config.getLong(prefix + "ttl.seconds",
+        TimeUnit.DAYS.toSeconds(1)));
+    maxDiskEntries = config.getInt(prefix + "disk.max.entries", 10000);
+    memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+
+    final String diskPath = config.get(prefix + "disk.path", null);
+    if (null != diskPath) {
+      final File dir = new File(diskPath);
+      if (dir.isDirectory() || dir.mkdirs()) {
+        diskDir = dir;
+        LOG.info(String.format("Cache %s persisting to [%s]", name, diskPath));
+        pruneDisk(maxDiskEntries);
+        LOG.info(String.format("Cache %s has %d entries on disk", name, diskEntries.get()));
+      } else {
+        LOG.error(String.format("Unable to create cache directory [%s], cache %s is memory-only",
+            diskPath, name));
+        diskDir = null;
+      }
+    } else {
+      diskDir = null;
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Look the key up in memory only, so the caller never waits on the disk. A miss here is not
+   * counted; follow it with {@link #get(String)} where blocking is fine.
+   *
+   * @return The cached value, or {@code null} if it is not in memory or it has expired.
+   */
+  public String getFromMemory(final String key) {
+    return getFromMemory(key, System.currentTimeMillis());
+  }
+
+  private String getFromMemory(final String key, final long now) {
+    synchronized (memory) {
+      final Entry entry = memory.get(key);
+      if (null != entry) {
+        if (entry.expiresAt > now) {
+          memoryHits.incrementAndGet();
+          return entry.value;
+        }
+        memory.remove(key);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Look the key up in memory, then on disk. This may block on disk I/O.
+   *
+   * @return The cached value, or {@code null} if there is none or it has expired.
+   */
+  public String get(final String key) {
+    final long now = System.currentTimeMillis();
+    final String value = getFromMemory(key, now);
+    if (null != value) {
+      return value;
+    }
+
+    if (null != diskDir) {
+      final Entry entry = readDisk(key, now);
+      if (null != entry) {
+        diskHits.incrementAndGet();
+        synchronized (memory) {
+          memory.put(key, entry);
+        }
+        return entry.value;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(final String key, final String value) {
+    put(key, value, defaultTtl);
+  }
+
+  public void put(final String key, final String value, final long ttlMillis) {
+    final Entry entry = new Entry(value, System.currentTimeMillis() + ttlMillis);
+    synchronized (memory) {
+      memory.put(key, entry);
+    }
+    if (null != diskDir) {
+      writeDisk(key, entry);
+    }
+  }
+
+  public long getDefaultTtl() {
+    return defaultTtl;
+  }
+
+  private File diskFile(final String key) {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+          key.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder builder = new StringBuilder(digest.length * 2 + DISK_SUFFIX.length());
+      for (final byte b : digest) {
+        builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+        builder.append(Character.forDigit(b & 0xf, 16));
+      }
+      return new File(diskDir, builder.append(DISK_SUFFIX).toString());
+    } catch (final NoSuchAlgorithmException e) {
+      // every JRE is required to have SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Entry readDisk(final String key, final long now) {
+    final File file = diskFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (final DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      if (DISK_FORMAT_VERSION != in.readInt()) {
+        return null;
+      }
+      final long expiresAt = in.readLong();
+      final String storedKey = readString(in);
+      if (expiresAt > now) {
+        return key.equals(storedKey) ? new Entry(readString(in), expiresAt) : null;
+      }
+    } catch (final IOException e) {
+      LOG.warn(String.format("Unable to read cache entry [%s]", file), e);
+      return null;
+    }
+    // expired, and closed so it can be deleted
+    if (file.delete()) {
+      diskEntries.decrementAndGet();
+    }
+    return null;
+  }
+
+  private void writeDisk(final String key, final Entry entry) {
+    final File file = diskFile(key);
+    File temp = null;
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(DISK_FORMAT_VERSION);
+      out.writeLong(entry.expiresAt);
+      writeString(out, key);
+      writeString(out, entry.value);
+      out.flush();
+
+      temp = File.createTempFile("cache", ".tmp", diskDir);
+      try (final FileOutputStream fos = new FileOutputStream(temp)) {
+        bytes.writeTo(fos);
+      }
+      final boolean replacing = file.exists();
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+      if (!replacing && diskEntries.incrementAndGet() > maxDiskEntries) {
+        synchronized (pruneLock) {
+          // another writer may have pruned already
+          if (diskEntries.get() > maxDiskEntries) {
+            pruneDisk(maxDiskEntries - maxDiskEntries / 10);
+          }
+        }
+      }
+    } catch (final IOException e) {
+      LOG.warn(String.format("Unable to write cache entry [%s]", file), e);
+    } finally {
+      if (null != temp && !temp.delete()) {
+        LOG.warn(String.format("Unable to delete temporary cache file [%s]", temp));
+      }
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeString(final DataOutputStream out, final String str)
+      throws IOException {
+    final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  // Remove expired entries, then the oldest entries until at most the target are left.
+  private void pruneDisk(final int target) {
+    synchronized (pruneLock) {
+      diskEntries.set(pruneFiles(target));
+    }
+  }
+
+  private int pruneFiles(final int target) {
+    final File[] files = diskDir.listFiles((dir, fileName) -> fileName.endsWith(DISK_SUFFIX));
+    if (null == files) {
+      return 0;
+    }
+    final long now = System.currentTimeMillis();
+    int remaining = files.length;
+    for (int i = 0; i < files.length; i++) {
+      try (final DataInputStream in = new DataInputStream(new FileInputStream(files[i]))) {
+        if (DISK_FORMAT_VERSION == in.readInt() && in.readLong() > now) {
+          continue;
+        }
+      } catch (final IOException e) {
+        // unreadable, remove it
+      }
+      files[i].delete();
+      files[i] = null;
+      remaining--;
+    }
+    if (remaining > target) {
+      final File[] live = Arrays.stream(files).filter(f -> null != f)
+          .sorted(Comparator.comparingLong(File::lastModified)).toArray(File[]::new);
+      for (int i = 0; i < live.length - target; i++) {
+        live[i].delete();
+      }
+      remaining = target;
+    }
+    return remaining;
+  }
+
+  /**
+   * @return How many entries are on disk, counting expired ones not yet removed.
+   */
+  public int getDiskEntries() {
+    return diskEntries.get();
+  }
+
+  public long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return A one-line human-readable summary of the cache, for operators.
+   */
+  public String describe() {
+    final int size;
+    synchronized (memory) {
+      size = memory.size();
+    }
+    return String.format("%s cache: %d entries in memory, %d memory hits, %d disk hits, %d misses",
+        name, size, memoryHits.get(), diskHits.get(), misses.get());
+  }
+
+  private static class Entry {
+    final String value;
+    final long expiresAt;
+
+    Entry(final String value, final long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.metrics.Metrics;
+import com.ajanata.catbot.metrics.Timer;
+
+
+/**
+ * Retries failed tasks without blocking the caller. The first attempt runs on the calling thread;
+ * later attempts are scheduled with jittered exponential backoff on a shared
+ * {@link ScheduledExecutorService}.
+ *
+ * <p>
+ * Only a limited number of tasks may be waiting for a retry at once, both overall and per
+ * destination, so one unreachable channel cannot use up all of the retry capacity. A task which
+ * fails when its destination's budget is exhausted is not retried.
+ *
+ * <p>
+ * Every attempt, and every wait before a retry, is timed under the first two parts of the
+ * destination, which the bots make their platform and bot id: {@code send.irc.2} and
+ * {@code retry.wait.irc.2}.
+ */
+public class RetryScheduler {
+  private static final Logger LOG = LoggerFactory.getLogger(RetryScheduler.class);
+
+  // config property names
+  public static final String PROP_THREADS = "retry.threads";
+  public static final String PROP_MAX_ATTEMPTS = "retry.max.attempts";
+  public static final String PROP_INITIAL_BACKOFF = "retry.backoff.initial.ms";
+  public static final String PROP_MAX_BACKOFF = "retry.backoff.max.ms";
+  public static final String PROP_JITTER = "retry.jitter";
+  public static final String PROP_DEADLINE = "retry.deadline.ms";
+  public static final String PROP_CAPACITY = "retry.capacity";
+  public static final String PROP_DESTINATION_BUDGET = "retry.budget.per.destination";
+
+  private final ScheduledExecutorService executor;
+  private final int maxAttempts;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private final double jitter;
+  private final long deadline;
+  private final int capacity;
+  private final int destinationBudget;
+  private final Metrics metrics;
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final ConcurrentHashMap<String, Integer> pendingPerDestination =
+      new ConcurrentHashMap<>();
+
+  public RetryScheduler(final CatBot catbot) {
+    maxAttempts = catbot.getIntProperty(PROP_MAX_ATTEMPTS, 10);
+    initialBackoff = catbot.getLongProperty(PROP_INITIAL_BACKOFF, 500);
+    maxBackoff = catbot.getLongProperty(PROP_MAX_BACKOFF, TimeUnit.MINUTES.toMillis(1));
+    jitter = catbot.getDoubleProperty(PROP_JITTER, 0.5);
+    deadline = catbot.getLongProperty(PROP_DEADLINE, TimeUnit.MINUTES.toMillis(5));
+    capacity = catbot.getIntProperty(PROP_CAPACITY, 100);
+    destinationBudget = catbot.getIntProperty(PROP_DESTINATION_BUDGET, 5);
+    metrics = catbot.getMetrics();
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    final ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(
+        catbot.getIntProperty(PROP_THREADS, 2), r -> {
+          final Thread thread = new Thread(r, "retry-" + threadCount.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+    stpe.setRemoveOnCancelPolicy(true);
+    executor = stpe;
+  }
+
+  /**
+   * Run a task, retrying it in the background if it fails.
+   *
+   * @param destination Key for the destination the task talks to, such as a chat channel. Retry
+   * budgets are tracked per destination.
+   * @param task The task. Failures are detected by it throwing an unchecked exception, which is
+   * expected to wrap the real cause.
+   * @param logger Logger of the caller, used to report retries.
+   * @param bailOn Throwable classes which, if they are the cause of a failure, should not be
+   * retried.
+   * @return A future which completes when the task succeeds, or completes exceptionally when it is
+   * given up on.
+   */
+  public CompletableFuture<Void> submit(final String destination, final Runnable task,
+      final Logger logger, final List<Class<? extends Throwable>> bailOn) {
+    return submit(destination, task, logger, bailOn, Runnable::run);
+  }
+
+  /**
+   * Run a task, retrying it in the background if it fails.
+   *
+   * @param retries Runs each retry once its backoff has passed, such as after waiting for the
+   * destination's rate limits.
+   * @see #submit(String, Runnable, Logger, List)
+   */
+  public CompletableFuture<Void> submit(final String destination, final Runnable task,
+      final Logger logger, final List<Class<? extends Throwable>> bailOn,
+      final Executor retries) {
+    final Attempt attempt = new Attempt(destination, task, logger, bailOn, retries);
+    attempt.run();
+    return attempt.future;
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return The shared executor, for other components which need to schedule work.
+   */
+  public ScheduledExecutorService getExecutor() {
+    return executor;
+  }
+
+  private boolean acquire(final String destination) {
+    if (pending.incrementAndGet() > capacity) {
+      pending.decrementAndGet();
+      return false;
+    }
+    final Integer count = pendingPerDestination.merge(destination, 1, Integer::sum);
+    if (count > destinationBudget) {
+      release(destination);
+      return false;
+    }
+    return true;
+  }
+
+  private void release(final String destination) {
+    pendingPerDestination.computeIfPresent(destination, (k, v) -> v > 1 ? v - 1 : null);
+    pending.decrementAndGet();
+  }
+
+  // platform and bot id, from destinations like irc.2.#channel
+  private static String metricKey(final String destination) {
+    final int first = destination.indexOf('.');
+    final int second = first < 0 ? -1 : destination.indexOf('.', first + 1);
+    return second < 0 ? destination : destination.substring(0, second);
+  }
+
+  private class Attempt implements Runnable {
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final String destination;
+    private final Runnable task;
+    private final Logger logger;
+    private final List<Class<? extends Throwable>> bailOn;
+    private final Executor retries;
+    private final long giveUpAt;
+    private final Timer sendTimer;
+    private final Timer waitTimer;
+    private long scheduledAt;
+    private long backoff = initialBackoff;
+    private int attempts = 0;
+    private boolean holdsBudget = false;
+    private Throwable lastFailure;
+
+    Attempt(final String destination, final Runnable task, final Logger logger,
+        final List<Class<? extends Throwable>> bailOn, final Executor retries) {
+      this.destination = destination;
+      this.task = task;
+      this.logger = logger;
+      this.bailOn = bailOn;
+      this.retries = retries;
+      giveUpAt = System.currentTimeMillis() + deadline;
+      final String key = metricKey(destination);
+      sendTimer = metrics.timer("send." + key);
+      waitTimer = metrics.timer("retry.wait." + key);
+    }
+
+    @Override
+    public void run() {
+      final long start = System.nanoTime();
+      if (attempts > 0) {
+        waitTimer.record(start - scheduledAt, false);
+      }
+      attempts++;
+      try {
+        task.run();
+        sendTimer.recordSince(start, false);
+        finish(null);
+        return;
+      } catch (final RuntimeException e) {
+        sendTimer.recordSince(start, true);
+        // guaranteed to have a cause since it's wrapped... but whatever
+        final Throwable cause = null != e.getCause() ? e.getCause() : e;
+        if (bailOn.contains(cause.getClass())) {
+          logger.info(String.format("Not retrying task for %s, received a bailOn throwable",
+              destination), e);
+          finish(cause);
+          return;
+        }
+        if (attempts >= maxAttempts) {
+          logger.warn(String.format("Giving up on task for %s after %d attempts", destination,
+              attempts), e);
+          finish(cause);
+          return;
+        }
+
+        final long delay = backoff - (long) (backoff * jitter
+            * ThreadLocalRandom.current().nextDouble());
+        backoff = Math.min(maxBackoff, backoff * 2);
+        if (System.currentTimeMillis() + delay > giveUpAt) {
+          logger.warn(String.format("Giving up on task for %s, retry deadline passed",
+              destination), e);
+          finish(cause);
+          return;
+        }
+        if (!holdsBudget) {
+          if (!acquire(destination)) {
+            logger.warn(String.format("Not retrying task for %s, retry budget exhausted",
+                destination), e);
+            finish(cause);
+            return;
+          }
+          holdsBudget = true;
+        }
+
+        logger.trace(String.format("Command for %s failed in retry, backing off %d ms",
+            destination, delay), e);
+        try {
+          scheduledAt = System.nanoTime();
+          lastFailure = cause;
+          executor.schedule(this::resume, delay, TimeUnit.MILLISECONDS);
+        } catch (final RuntimeException ee) {
+          LOG.warn("Unable to schedule retry, probably shutting down", ee);
+          finish(cause);
+        }
+      }
+    }
+
+    private void resume() {
+      try {
+        retries.execute(this);
+      } catch (final RuntimeException e) {
+        LOG.warn("Unable to run retry, probably shutting down", e);
+        finish(lastFailure);
+      }
+    }
+
+    private void finish(final Throwable failure) {
+      if (holdsBudget) {
+        release(destination);
+        holdsBudget = false;
+      }
+      if (null == failure) {
+        future.complete(null);
+      } else {
+        future.completeExceptionally(failure);
+      }
+    }
+  }
+
+}
@@ -25,6 +25,8 @@ package com.ajanata.catbot;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 
@@ -32,31 +34,31 @@ import org.slf4j.Logger;
 public interface Retryable {
   Logger logger();
 
-  default void retry(final Runnable task, @SuppressWarnings("rawtypes") final Class... bailOn) {
+  RetryScheduler retryScheduler();
+
+  /**
+   * Run a task, retrying it in the background on failure. This never sleeps on the calling thread.
+   *
+   * @param destination Key for the destination the task talks to; see
+   * {@link RetryScheduler#submit}.
+   */
+  default CompletableFuture<Void> retry(final String destination, final Runnable task,
+      @SuppressWarnings("rawtypes") final Class... bailOn) {
+    @SuppressWarnings("unchecked")
+    final List<Class<? extends Throwable>> bailOnList = Arrays.asList(bailOn);
+    return retryScheduler().submit(destination, task, logger(), bailOnList);
+  }
+
+  /**
+   * Run a task, retrying it in the background on failure, with each retry run by an executor.
+   *
+   * @param retries Runs each retry once its backoff has passed, such as the one
+   * {@link OutboundScheduler} gives a send, so that retries wait for the rate limits too.
+   */
+  default CompletableFuture<Void> retry(final Executor retries, final String destination,
+      final Runnable task, @SuppressWarnings("rawtypes") final Class... bailOn) {
     @SuppressWarnings("unchecked")
     final List<Class<? extends Throwable>> bailOnList = Arrays.asList(bailOn);
-    int backoff = 500;
-    while (true) {
-      try {
-        task.run();
-        break;
-      } catch (final Exception e) {
-        // guaranteed to have a cause since it's wrapped... but whatever
-        if (null != e.getCause() && bailOnList.contains(e.getCause().getClass())) {
-          logger().info("Not retrying task, received a bailOn throwable", e);
-          return;
-        }
-        logger().trace(String.format("Command failed in retry, backing off %d ms", backoff), e);
-        try {
-          Thread.sleep(backoff);
-          backoff *= 2;
-          if (backoff < 0) {
-            backoff = Integer.MAX_VALUE;
-          }
-        } catch (final InterruptedException ee) {
-          // pass
-        }
-      }
-    }
+    return retryScheduler().submit(destination, task, logger(), bailOnList, retries);
   }
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+/**
+ * Coalesces concurrent requests for the same key into one. The first caller for a key (the leader)
+ * runs the loader; callers that arrive while it is still running wait for, and receive, the
+ * leader's result or exception instead of issuing their own request. Once the leader finishes, the
+ * next caller for that key starts a new request.
+ *
+ * <p>
+ * Share one instance between everything that issues the same kind of request, such as every
+ * instance of a handler.
+ */
+public class SingleFlight<K, V> {
+  private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * @param key The request key. Requests with equal keys are coalesced.
+   * @param loader Performs the request. Only called by the leader, on the leader's thread.
+   * @return The result of the leader's request.
+   * @throws RuntimeException Whatever the leader's loader threw.
+   */
+  public V execute(final K key, final Supplier<V> loader) {
+    final CompletableFuture<V> mine = new CompletableFuture<>();
+    final CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+    if (null != existing) {
+      try {
+        return existing.join();
+      } catch (final CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        } else if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    try {
+      final V value = loader.get();
+      mine.complete(value);
+      return value;
+    } catch (final RuntimeException | Error e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Asynchronous form of {@link #execute}.
+   *
+   * @param key The request key. Requests with equal keys are coalesced.
+   * @param loader Starts the request. Only called by the leader, on the leader's thread.
+   * @return A stage which completes with the result of the leader's request.
+   */
+  public CompletableFuture<V> executeAsync(final K key,
+      final Supplier<? extends CompletionStage<V>> loader) {
+    final CompletableFuture<V> mine = new CompletableFuture<>();
+    final CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+    if (null != existing) {
+      // don't let callers complete the shared future
+      return existing.thenApply(Function.identity());
+    }
+
+    try {
+      loader.get().whenComplete((value, error) -> {
+        inFlight.remove(key, mine);
+        if (null != error) {
+          mine.completeExceptionally(error);
+        } else {
+          mine.complete(value);
+        }
+      });
+    } catch (final RuntimeException | Error e) {
+      inFlight.remove(key, mine);
+      mine.completeExceptionally(e);
+    }
+    return mine.thenApply(Function.identity());
+  }
+
+  /**
+   * @return How many distinct requests are currently in flight.
+   */
+  public int size() {
+    return inFlight.size();
+  }
+}
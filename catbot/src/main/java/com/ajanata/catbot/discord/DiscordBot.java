@@ -28,9 +28,9 @@ import org.slf4j.LoggerFactory;
 
 import com.ajanata.catbot.Bot;
 import com.ajanata.catbot.CatBot;
-import com.ajanata.catbot.filters.Filter;
-import com.ajanata.catbot.filters.Filter.FilterResult;
-import com.ajanata.catbot.handlers.Handler;
+import com.ajanata.catbot.InboundMessage;
+import com.ajanata.catbot.OutboundScheduler;
+import com.ajanata.catbot.RetryScheduler;
 import com.diffplug.common.base.Errors;
 
 import sx.blah.discord.api.ClientBuilder;
@@ -54,13 +54,27 @@ public class DiscordBot implements Bot {
 
   private static final Logger LOG = LoggerFactory.getLogger(DiscordBot.class);
 
+  // Discord's limits: 5 messages per 5 seconds per channel, 50 requests per second globally
+  private static final String DEFAULT_LIMIT_DESTINATION = "5/5";
+  private static final String DEFAULT_LIMIT_SHARED = "50/1";
+  private static final int MAX_MESSAGE_LENGTH = 2000;
+
   private IDiscordClient client;
   private final CatBot catbot;
   private final int botId;
+  private final OutboundScheduler.Limits limits;
+  private final OutboundScheduler.Coalescing coalescing;
+  private volatile String triggerPrefix;
 
   public DiscordBot(final CatBot catbot, final int botId) throws DiscordException {
     this.catbot = catbot;
     this.botId = botId;
+    this.limits = OutboundScheduler.Limits.forBot(catbot.getConfig().bot(botId),
+        DEFAULT_LIMIT_DESTINATION, DEFAULT_LIMIT_SHARED);
+    this.coalescing = OutboundScheduler.Coalescing.forBot(catbot.getConfig().bot(botId),
+        MAX_MESSAGE_LENGTH, "\n");
+    this.triggerPrefix = catbot.getConfig().bot(botId).get(PROP_TRIGGER_PREFIX);
+    catbot.addConfigListener(config -> triggerPrefix = config.bot(botId).get(PROP_TRIGGER_PREFIX));
   }
 
   @Override
@@ -68,6 +82,11 @@ public class DiscordBot implements Bot {
     return LOG;
   }
 
+  @Override
+  public RetryScheduler retryScheduler() {
+    return catbot.getRetryScheduler();
+  }
+
   @Override
   public boolean login() {
     LOG.info("Logging into Discord...");
@@ -105,56 +124,22 @@ public class DiscordBot implements Bot {
     final String nick = catbot.getBotProperty(botId, CatBot.PROP_NICKNAME);
     for (final IGuild guild : event.getClient().getGuilds()) {
       LOG.trace(String.format("Changing nickname for server %s", guild.getName()));
-      retry(Errors.rethrow().wrap(
+      send("discord." + botId + ".guild." + guild.getName(), Errors.rethrow().wrap(
           () -> {
             guild.setUserNickname(event.getClient().getOurUser(), nick);
           }));
-      rateLimited();
     }
   }
 
   @EventSubscriber
   public void onMessageReceivedEvent(final MessageReceivedEvent event) {
     final IMessage message = event.getMessage();
-    final String text = message.getContent();
     final IChannel channel = message.getChannel();
     final IUser author = message.getAuthor();
-    final String fromName = getUserName(message);
-    if (text.startsWith(catbot.getBotProperty(botId, PROP_TRIGGER_PREFIX))) {
-      LOG.trace(String.format("Message with trigger prefix from %s in %s: %s", fromName,
-          channel.getName(), text));
-
-      final String[] parts = text.split("\\s+");
-      if (parts.length > 0) {
-        final String trigger = parts[0].substring(1);
-        final String[] params = new String[parts.length - 1];
-        System.arraycopy(parts, 1, params, 0, params.length);
-
-        final Handler handler = catbot.getHandlers().get(trigger);
-        if (null != handler) {
-          final String response = handler.handleCommand(botId, fromName,
-              String.valueOf(author.getLongID()), channel.getName(), trigger,
-              String.join(" ", params));
-          if (null != response) {
-            retry(Errors.rethrow().wrap(() -> {
-              channel.sendMessage(response);
-            }), MissingPermissionsException.class);
-          }
-        }
-      }
-    } else {
-      // check filters
-      for (final Filter filter : catbot.getFilters()) {
-        final FilterResult reply = filter.filterMessage(botId, fromName,
-            String.valueOf(author.getLongID()), channel.getName(), text);
-        if (null != reply) {
-          retry(Errors.rethrow().wrap(() -> {
-            channel.sendMessage(reply.message);
-          }), MissingPermissionsException.class);
-          break;
-        }
-      }
-    }
+    final InboundMessage inbound = new InboundMessage(botId, getUserName(message),
+        String.valueOf(author.getLongID()), channel.getName(), message.getContent(),
+        (reply, replyToPrevious) -> sendMessage(channel, reply));
+    catbot.getPipeline().submit(inbound, triggerPrefix);
   }
 
   @EventSubscriber
@@ -173,9 +158,31 @@ public class DiscordBot implements Bot {
     LOG.trace(String.format("onMentionEvent from %s (%s) in %s: %s", from, author.getLongID(),
         chatName, message.getContent()));
 
-    retry(Errors.rethrow().wrap(() -> {
-      channel.sendMessage("Hey why did you poke me, " + from + "?!");
-    }));
+    sendMessage(channel, "Hey why did you poke me, " + from + "?!");
+  }
+
+  /**
+   * Queue a request to Discord, sent when its rate limits allow and retried on failure.
+   */
+  private void send(final String destination, final Runnable task,
+      @SuppressWarnings("rawtypes") final Class... bailOn) {
+    catbot.getOutboundScheduler().send(destination, "discord." + botId, limits,
+        retries -> retry(retries, destination, task, bailOn));
+  }
+
+  /**
+   * Queue a message to a channel, which may be merged with others queued for it.
+   */
+  private void sendMessage(final IChannel channel, final String message) {
+    final String destination = destination(channel);
+    catbot.getOutboundScheduler().send(destination, "discord." + botId, limits, coalescing,
+        message, true, (text, retries) -> retry(retries, destination, Errors.rethrow().wrap(() -> {
+          channel.sendMessage(text);
+        }), MissingPermissionsException.class));
+  }
+
+  private String destination(final IChannel channel) {
+    return "discord." + botId + "." + channel.getLongID();
   }
 
   private String getUserName(final IMessage message) {
@@ -185,12 +192,4 @@ public class DiscordBot implements Bot {
       return message.getAuthor().getDisplayName(message.getGuild());
     }
   }
-
-  private void rateLimited() {
-    try {
-      Thread.sleep(1000);
-    } catch (final InterruptedException e) {
-      // pass
-    }
-  }
 }
@@ -23,24 +23,47 @@
 
 package com.ajanata.catbot.filters;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CircuitBreaker;
 import com.google.code.chatterbotapi.ChatterBot;
 import com.google.code.chatterbotapi.ChatterBotFactory;
 import com.google.code.chatterbotapi.ChatterBotSession;
 import com.google.code.chatterbotapi.ChatterBotType;
 
 
-public class CleverbotFilter implements Filter {
+public class CleverbotFilter implements AsyncFilter {
   private static final Logger LOG = LoggerFactory.getLogger(CleverbotFilter.class);
 
+  private static final String BREAKER_NAME = "cleverbot";
+  private static final String UNAVAILABLE = "Cleverbot isn't talking to me right now.";
+  private static final String BUSY = "I'm too busy to ask Cleverbot right now.";
+
+  private final CatBot catbot;
   private final ChatterBotFactory factory = new ChatterBotFactory();
+  private CircuitBreaker breaker;
   private ChatterBot bot;
   private ChatterBotSession session;
 
+  public CleverbotFilter(final CatBot catbot) {
+    this.catbot = catbot;
+  }
+
+  public static Filter createInstance(final CatBot catbot, final int filterId) {
+    LOG.trace(String.format("createInstance(%d)", filterId));
+    return new CleverbotFilter(catbot);
+  }
+
   @Override
   public void init() {
+    breaker = catbot.getCircuitBreaker(BREAKER_NAME);
     canUse();
   }
 
@@ -61,10 +84,35 @@ public class CleverbotFilter implements Filter {
 
   private String think(final String thought) {
     LOG.trace(String.format("think(%s)", thought));
-    return think(thought, true);
+    if (!breaker.tryAcquire()) {
+      LOG.trace("Circuit breaker open, not thinking.");
+      return UNAVAILABLE;
+    }
+    final String reply = thinkTimed(thought);
+    return null != reply ? reply : UNAVAILABLE;
+  }
+
+  // Timed inside the lock, so waiting behind other thoughts doesn't count as a slow call.
+  private synchronized String thinkTimed(final String thought) {
+    final long start = System.nanoTime();
+    final String reply;
+    try {
+      reply = think(thought, true);
+    } catch (final RuntimeException e) {
+      // every acquired call must be reported, or a half-open probe is never given back
+      breaker.onFailure(System.nanoTime() - start);
+      throw e;
+    }
+    if (null == reply) {
+      breaker.onFailure(System.nanoTime() - start);
+    } else {
+      breaker.onSuccess(System.nanoTime() - start);
+    }
+    return reply;
   }
 
-  private String think(final String thought, final boolean canRetry) {
+  // The session is shared, so only one thought at a time.
+  private synchronized String think(final String thought, final boolean canRetry) {
     if (canUse()) {
       try {
         return session.think(thought);
@@ -81,14 +129,20 @@ public class CleverbotFilter implements Filter {
   }
 
   @Override
-  public FilterResult filterMessage(final int botId, final String fromName, final String fromId,
-      final String chatId, final String message) {
+  public CompletionStage<FilterResult> filterMessageAsync(final int botId, final String fromName,
+      final String fromId, final String chatId, final String message) {
     // TODO hack
     if (message.startsWith(".cleverbot ")) {
       final String prompt = message.substring(".cleverbot ".length());
-      return new FilterResult(think(prompt), true);
+      return catbot.supplyIo(() -> new FilterResult(think(prompt), true))
+          .exceptionally(error -> {
+            if (error instanceof RejectedExecutionException) {
+              return new FilterResult(BUSY, true);
+            }
+            throw new CompletionException(error);
+          });
     } else {
-      return null;
+      return CompletableFuture.completedFuture(null);
     }
   }
 }
@@ -31,6 +31,10 @@ public interface Filter {
   // perform initialization.
   void init();
 
+  // release resources, called once when the bot shuts down or a reload drops the filter.
+  default void shutdown() {
+  }
+
   /**
    *
    * @param botId
@@ -0,0 +1,345 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.filters;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.ChatStateStore;
+import com.ajanata.catbot.Config;
+import com.ajanata.catbot.halbot.BrainCompactor;
+import com.ajanata.catbot.halbot.Halbot;
+import com.ajanata.catbot.halbot.Learner;
+import com.ajanata.catbot.halbot.Learner.Durability;
+import com.ajanata.catbot.halbot.Pruner;
+import com.ajanata.catbot.halbot.ReplyGenerator;
+import com.ajanata.catbot.halbot.ReplyPool;
+import com.ajanata.catbot.handlers.Handler;
+
+
+// Singleton
+public class HalbotFilterHandler implements Filter, Handler {
+  private static final int TWEET_MAX_LENGTH = 140;
+
+  private static final Logger LOG = LoggerFactory.getLogger(HalbotFilterHandler.class);
+
+  private final CatBot catbot;
+  private final int filterId;
+
+  private Learner learner;
+  private Pruner pruner;
+  private ReplyGenerator replies;
+  private ReplyPool pool;
+  private volatile Settings settings;
+  private final Consumer<Config> configListener;
+  private long brainSize = 0;
+  private volatile boolean ready = false;
+  private ChatStateStore chats;
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private volatile BrainCompactor.Result lastCompaction;
+
+  private final Halbot halbot = new Halbot();
+  private final Random random = new Random();
+
+  private static HalbotFilterHandler instance;
+
+  /** Settings that can be changed by reloading the configuration. */
+  private static final class Settings {
+    private final int minThoughtLength;
+    private final int minThoughtWords;
+    private final int maxFreespeechInterval;
+    private final int minFreespeechInterval;
+    private final Set<String> freespeechBlacklist;
+    // lower case, by bot ID
+    private final String[] nicknames;
+
+    private Settings(final Config all, final int filterId) {
+      final Config.Section config = all.filter(filterId);
+      minThoughtLength = Integer.parseInt(config.get("thought.min.length"));
+      minThoughtWords = Integer.parseInt(config.get("thought.min.words"));
+      maxFreespeechInterval = Integer.parseInt(config.get("freespeech.max.interval"));
+      minFreespeechInterval = Integer.parseInt(config.get("freespeech.min.interval"));
+      final Set<String> blacklist = new HashSet<>();
+      for (int i = 0; i < Integer.parseInt(config.get("freespeech.blacklist")); i++) {
+        blacklist.add(config.get("freespeech.blacklist." + i));
+      }
+      freespeechBlacklist = Collections.unmodifiableSet(blacklist);
+      nicknames = new String[all.global().getInt(CatBot.PROP_BOTS, 0)];
+      for (int i = 0; i < nicknames.length; i++) {
+        final String nickname = all.bot(i).get(CatBot.PROP_NICKNAME);
+        nicknames[i] = null == nickname ? null : nickname.toLowerCase(Locale.ENGLISH);
+      }
+    }
+
+    private boolean mentions(final int botId, final String message) {
+      final String nickname = botId < nicknames.length ? nicknames[botId] : null;
+      return null != nickname && message.toLowerCase(Locale.ENGLISH).contains(nickname);
+    }
+  }
+
+  public HalbotFilterHandler(final CatBot catbot, final int filterId) {
+    this.catbot = catbot;
+    this.filterId = filterId;
+    this.configListener = config -> settings = new Settings(config, filterId);
+  }
+
+  public static synchronized Filter createInstance(final CatBot catbot, final int filterId) {
+    if (null != instance) {
+      return instance;
+    }
+    LOG.trace(String.format("createInstance(%d)", filterId));
+    instance = new HalbotFilterHandler(catbot, filterId);
+    return instance;
+  }
+
+  @Override
+  public synchronized void init() {
+    // only do this once, we get called for the filter and for each handler
+    if (ready) {
+      return;
+    }
+    final String brainPath = catbot.getFilterProperty(filterId, "brain.path");
+    final boolean useSnapshot = Boolean.parseBoolean(catbot.getFilterProperty(filterId,
+        "brain.snapshot.enabled", "true"));
+    final String snapshotPath = catbot.getFilterProperty(filterId, "brain.snapshot.path",
+        brainPath + ".snapshot");
+    final int loadThreads = Integer.parseInt(catbot.getFilterProperty(filterId,
+        "brain.load.threads", "0"));
+    try {
+      LOG.info("Loading brain from " + brainPath);
+      brainSize = halbot.load(Paths.get(brainPath), useSnapshot ? Paths.get(snapshotPath) : null,
+          loadThreads);
+      LOG.info(String.format("Done loading brain, size %d: %s", brainSize, halbot.describe()));
+    } catch (final IOException e) {
+      LOG.error(String.format("Unable to load brain from [%s]", brainPath), e);
+      return;
+    }
+    pruner = new Pruner(halbot,
+        Long.parseLong(catbot.getFilterProperty(filterId, "brain.memory.budget.mb", "0"))
+            * 1024 * 1024,
+        TimeUnit.HOURS.toMillis(Long.parseLong(catbot.getFilterProperty(filterId,
+            "brain.decay.halflife.hours", "0"))),
+        TimeUnit.SECONDS.toMillis(Long.parseLong(catbot.getFilterProperty(filterId,
+            "brain.prune.interval.seconds", "60"))));
+    pruner.start();
+    final int poolSize = Integer.parseInt(catbot.getFilterProperty(filterId, "reply.pool.size",
+        "32"));
+    if (poolSize > 0) {
+      pool = new ReplyPool(halbot, poolSize,
+          Integer.parseInt(catbot.getFilterProperty(filterId, "reply.pool.keywords", "64")),
+          Integer.parseInt(catbot.getFilterProperty(filterId, "reply.pool.per.keyword", "4")),
+          Double.parseDouble(catbot.getFilterProperty(filterId,
+              "reply.pool.invalidate.fraction", "0.05")),
+          Long.parseLong(catbot.getFilterProperty(filterId, "reply.pool.refresh.ms", "1000")));
+      pool.start();
+    }
+    replies = new ReplyGenerator(halbot,
+        Integer.parseInt(catbot.getFilterProperty(filterId, "reply.candidates", "16")),
+        Long.parseLong(catbot.getFilterProperty(filterId, "reply.deadline.ms", "200")),
+        Integer.parseInt(catbot.getFilterProperty(filterId, "reply.threads", "0")), pool);
+    settings = new Settings(catbot.getConfig(), filterId);
+    catbot.addConfigListener(configListener);
+    chats = new ChatStateStore(
+        Integer.parseInt(catbot.getFilterProperty(filterId, "chats.stripes", "16")),
+        Integer.parseInt(catbot.getFilterProperty(filterId, "chats.max", "10000")),
+        Integer.parseInt(catbot.getFilterProperty(filterId, "retention.chat.count")),
+        TimeUnit.MINUTES.toMillis(Long.parseLong(catbot.getFilterProperty(filterId,
+            "chats.idle.minutes", "1440"))));
+
+    try {
+      learner = new Learner(halbot, Paths.get(brainPath), brainSize, this::isWorthLearning,
+          Integer.parseInt(catbot.getFilterProperty(filterId, "learn.queue.capacity", "10000")),
+          Integer.parseInt(catbot.getFilterProperty(filterId, "learn.batch.max", "500")),
+          Long.parseLong(catbot.getFilterProperty(filterId, "learn.batch.linger.ms", "100")),
+          Durability.valueOf(catbot.getFilterProperty(filterId, "learn.durability", "FLUSH")
+              .toUpperCase(Locale.ENGLISH)));
+      learner.start();
+      LOG.info(String.format("Appending to brain file [%s]", brainPath));
+    } catch (final IOException e) {
+      LOG.error(String.format("Unable to open file [%s] for brain writing", brainPath), e);
+    }
+
+    ready = true;
+  }
+
+  private String think(final String thought) {
+    LOG.trace(String.format("think(%s)", thought));
+    return replies.reply(thought, "catbot", "http");
+  }
+
+  private String think() {
+    LOG.trace("think()");
+    final String pooled = null == pool ? null : pool.poll();
+    return null == pooled ? halbot.getSentence() : pooled;
+  }
+
+  /**
+   * Queue a message to be learned.
+   *
+   * @return {@code false} if the brain file can no longer be written.
+   */
+  private boolean learn(final String thought) {
+    LOG.trace(String.format("learn(%s)", thought));
+    if (null != learner && !learner.offer(thought)) {
+      ready = false;
+      return false;
+    }
+    return true;
+  }
+
+  // Runs on the learner and compactor threads.
+  private boolean isWorthLearning(final String thought) {
+    final Settings current = settings;
+    return thought.length() >= current.minThoughtLength
+        && thought.split("\\s+").length >= current.minThoughtWords;
+  }
+
+  @Override
+  public FilterResult filterMessage(final int botId, final String fromName, final String fromId,
+      final String chatId, final String message) {
+    if (!ready) {
+      return null;
+    }
+    if (!learn(message)) {
+      // error writing to brain file, report that instead of thinking
+      return new FilterResult("<error> Unable to learn previous message.", false);
+    }
+    final Settings current = settings;
+    // TODO more?
+    if (current.mentions(botId, message)) {
+      return saySomethingPrompted(chatId, message);
+    }
+
+    final int messagesSinceLastTalk = chats.incrementMessages(chatId);
+    if (!current.freespeechBlacklist.contains(chatId)
+        && messagesSinceLastTalk > current.minFreespeechInterval
+        && messagesSinceLastTalk - current.minFreespeechInterval >= random.nextInt(
+            current.maxFreespeechInterval - current.minFreespeechInterval)) {
+      LOG.debug(String.format("Randomly saying something in [%s] after %d lines", chatId,
+          messagesSinceLastTalk - 1));
+      return saySomethingRandom(chatId);
+    }
+    return null;
+  }
+
+  private FilterResult saySomethingPrompted(final String chatId, final String message) {
+    chats.resetMessages(chatId);
+    final String thought = think(message);
+    chats.retain(chatId, thought);
+    return new FilterResult(thought, true);
+  }
+
+  private FilterResult saySomethingRandom(final String chatId) {
+    chats.resetMessages(chatId);
+    final String thought = think();
+    chats.retain(chatId, thought);
+    return new FilterResult(thought, false);
+  }
+
+  @Override
+  public String handleCommand(final int botId, final String fromName, final String fromId,
+      final String chatId, final String trigger, final String message) {
+    switch (trigger) {
+      case "brains":
+        if (null != message && "compact".equals(message.trim())) {
+          return compactBrain(botId, fromId);
+        }
+        final BrainCompactor.Result compaction = lastCompaction;
+        return "Brain size: " + (null == learner ? brainSize : learner.getLines())
+            + (null == compaction ? "" : ". Last compaction: " + compaction);
+      case "tweet":
+        return tweetPreviousThought(chatId, message);
+    }
+    return null;
+  }
+
+  @Override
+  public void shutdown() {
+    // the next createInstance, if the filter is configured again, starts over
+    synchronized (HalbotFilterHandler.class) {
+      if (this == instance) {
+        instance = null;
+      }
+    }
+    catbot.removeConfigListener(configListener);
+    if (null != pruner) {
+      pruner.shutdown();
+    }
+    if (null != replies) {
+      replies.shutdown();
+    }
+    if (null != pool) {
+      pool.shutdown();
+    }
+    if (null != learner) {
+      learner.shutdown();
+    }
+  }
+
+  private String compactBrain(final int botId, final String fromId) {
+    if (!fromId.equals(catbot.getBotProperty(botId, CatBot.PROP_OWNER_ID))) {
+      return "No.";
+    }
+    if (null == learner) {
+      return "Not learning, nothing to compact.";
+    }
+    if (!compacting.compareAndSet(false, true)) {
+      return "Already compacting.";
+    }
+    final Thread thread = new Thread(() -> {
+      try {
+        lastCompaction = learner.compact(new BrainCompactor(this::isWorthLearning));
+      } catch (final IOException e) {
+        LOG.error("Unable to compact brain file", e);
+      } finally {
+        compacting.set(false);
+      }
+    }, "brain-compactor");
+    thread.setDaemon(true);
+    thread.start();
+    return "Compacting brain file.";
+  }
+
+  private String tweetPreviousThought(final String chatId, final String message) {
+    return "Twitter is fascist.";
+  }
+
+  // This doesn't work right with multiple commands in the same handler...
+  @Override
+  public String getDescription() {
+    return "Retrieve how many lines are in the brain file, or (owner only) compact it.";
+  }
+}
@@ -0,0 +1,460 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Rewrites a brain file without repeated lines or lines that are not worth learning. A line is a
+ * repeat if it matches an earlier line after case, punctuation and whitespace are ignored; the
+ * first copy is kept, so the order of what is left does not change. The compacted file is written
+ * next to the brain file and moved over it atomically.
+ * <p>
+ * While the bot is running, use {@link Learner#compact} so lines learned during compaction are
+ * carried over. Only the file is compacted: the model already loaded keeps the repeated lines
+ * until the bot is restarted, and the brain snapshot no longer matches the compacted file, so the
+ * next start rebuilds it from the whole file.
+ */
+public class BrainCompactor {
+  private static final Logger LOG = LoggerFactory.getLogger(BrainCompactor.class);
+
+  private static final int BUFFER_BYTES = 1024 * 1024;
+  private static final int READ_BYTES = 512;
+
+  private final Predicate<String> accept;
+  private final ToLongFunction<String> hash;
+  private final Charset charset = Charset.defaultCharset();
+
+  /**
+   * @param accept Which lines are worth keeping.
+   */
+  public BrainCompactor(final Predicate<String> accept) {
+    this(accept, BrainCompactor::hash);
+  }
+
+  BrainCompactor(final Predicate<String> accept, final ToLongFunction<String> hash) {
+    this.accept = accept;
+    this.hash = hash;
+  }
+
+  /**
+   * Compact a brain file that nothing else is writing to.
+   */
+  public Result compact(final Path brain) throws IOException {
+    try (final Pass pass = begin(brain)) {
+      pass.copy(Files.size(brain));
+      return pass.finish();
+    }
+  }
+
+  Pass begin(final Path brain) throws IOException {
+    return new Pass(brain);
+  }
+
+  /**
+   * One compaction of a brain file. Lines are copied with {@link #copy} as far as the file is known
+   * to be complete, possibly several times as it grows, and {@link #finish} swaps the compacted
+   * file in. Closing an unfinished pass throws the compacted file away.
+   */
+  final class Pass implements Closeable {
+    private final Path brain;
+    private final Path temp;
+    private final FileChannel out;
+    private final byte[] pending = new byte[BUFFER_BYTES];
+    private final Seen seen = new Seen();
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private byte[] kept = new byte[256];
+    private int pendingLength = 0;
+    private long flushed = 0;
+    private long position = 0;
+    private long linesBefore = 0;
+    private long linesAfter = 0;
+    private long bytesAfter = 0;
+    private long duplicates = 0;
+    private long rejected = 0;
+    private boolean finished = false;
+
+    private Pass(final Path brain) throws IOException {
+      this.brain = brain;
+      this.temp = brain.resolveSibling(brain.getFileName() + ".compact");
+      this.out = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+          StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Copy the lines up to {@code end}, which must be at the end of a line or of the file.
+     */
+    void copy(final long end) throws IOException {
+      if (end <= position) {
+        return;
+      }
+      try (final FileChannel in = FileChannel.open(brain, StandardOpenOption.READ)) {
+        in.position(position);
+        final InputStream input = Channels.newInputStream(in);
+        final byte[] buffer = new byte[BUFFER_BYTES];
+        while (position < end) {
+          final int read = input.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+          if (read < 0) {
+            break;
+          }
+          int start = 0;
+          for (int i = 0; i < read; i++) {
+            if ('\n' == buffer[i]) {
+              append(buffer, start, i + 1);
+              line();
+              start = i + 1;
+            }
+          }
+          append(buffer, start, read);
+          position += read;
+        }
+      }
+      if (lineLength > 0) {
+        // the last line of the file has no line separator
+        line();
+      }
+    }
+
+    Result finish() throws IOException {
+      flush();
+      out.force(true);
+      out.close();
+      Files.move(temp, brain, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      finished = true;
+      final Result result = new Result(linesBefore, linesAfter, position, bytesAfter, duplicates,
+          rejected);
+      LOG.info(String.format("Compacted brain file [%s]: %s", brain, result));
+      return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!finished) {
+        out.close();
+        Files.deleteIfExists(temp);
+      }
+    }
+
+    private void append(final byte[] bytes, final int from, final int to) {
+      final int length = to - from;
+      if (lineLength + length > line.length) {
+        line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+      }
+      System.arraycopy(bytes, from, line, lineLength, length);
+      lineLength += length;
+    }
+
+    private void line() throws IOException {
+      linesBefore++;
+      int length = lineLength;
+      while (length > 0 && ('\n' == line[length - 1] || '\r' == line[length - 1])) {
+        length--;
+      }
+      final String text = new String(line, 0, length, charset);
+      if (!accept.test(text)) {
+        rejected++;
+      } else {
+        final String normalized = normalize(text);
+        final long hashed = hash.applyAsLong(normalized);
+        if (isRepeat(normalized, hashed)) {
+          duplicates++;
+        } else {
+          seen.add(hashed, bytesAfter);
+          write(line, lineLength);
+          linesAfter++;
+          bytesAfter += lineLength;
+        }
+      }
+      lineLength = 0;
+    }
+
+    // the hash only narrows it down, the kept lines with the same hash are read back and compared
+    private boolean isRepeat(final String normalized, final long hash) throws IOException {
+      for (int slot = seen.first(hash); slot >= 0; slot = seen.next(hash, slot)) {
+        if (normalized.equals(normalize(kept(seen.offset(slot))))) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void write(final byte[] bytes, final int length) throws IOException {
+      if (pendingLength + length > pending.length) {
+        flush();
+      }
+      if (length > pending.length) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        flushed += length;
+      } else {
+        System.arraycopy(bytes, 0, pending, pendingLength, length);
+        pendingLength += length;
+      }
+    }
+
+    private void flush() throws IOException {
+      final ByteBuffer buffer = ByteBuffer.wrap(pending, 0, pendingLength);
+      while (buffer.hasRemaining()) {
+        out.write(buffer);
+      }
+      flushed += pendingLength;
+      pendingLength = 0;
+    }
+
+    /**
+     * The line already written to the compacted file at {@code offset}, without its line separator.
+     */
+    private String kept(final long offset) throws IOException {
+      int length = 0;
+      long at = offset;
+      while (at < flushed) {
+        final int want = (int) Math.min(flushed - at, READ_BYTES);
+        ensureKept(length + want);
+        final int read = out.read(ByteBuffer.wrap(kept, length, want), at);
+        if (read < 0) {
+          throw new IOException("Compacted brain file is shorter than what was written to it");
+        }
+        for (int i = length; i < length + read; i++) {
+          if ('\n' == kept[i]) {
+            return decode(kept, i);
+          }
+        }
+        length += read;
+        at += read;
+      }
+      // the rest of the line has not been written out yet
+      final int from = (int) (at - flushed);
+      int to = from;
+      while (to < pendingLength && '\n' != pending[to]) {
+        to++;
+      }
+      ensureKept(length + to - from);
+      System.arraycopy(pending, from, kept, length, to - from);
+      return decode(kept, length + to - from);
+    }
+
+    private String decode(final byte[] bytes, final int end) {
+      int length = end;
+      while (length > 0 && '\r' == bytes[length - 1]) {
+        length--;
+      }
+      return new String(bytes, 0, length, charset);
+    }
+
+    private void ensureKept(final int length) {
+      if (length > kept.length) {
+        kept = Arrays.copyOf(kept, Math.max(kept.length * 2, length));
+      }
+    }
+  }
+
+  /**
+   * Lower case, with every run of characters that are not letters or digits replaced by one space.
+   * Lines that are nothing but punctuation are compared as they are.
+   */
+  static String normalize(final String text) {
+    final StringBuilder normalized = new StringBuilder(text.length());
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (Character.isLetterOrDigit(c)) {
+        if (space && normalized.length() > 0) {
+          normalized.append(' ');
+        }
+        normalized.append(Character.toLowerCase(c));
+        space = false;
+      } else {
+        space = true;
+      }
+    }
+    return normalized.length() > 0 ? normalized.toString() : text;
+  }
+
+  // 64-bit FNV-1a
+  private static long hash(final String text) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < text.length(); i++) {
+      hash ^= text.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Where in the compacted file the kept lines start, by hash. Lines that are different but hash
+   * the same each get their own slot.
+   */
+  private static final class Seen {
+    private long[] hashes = new long[1 << 16];
+    private long[] offsets = new long[1 << 16];
+    private int size = 0;
+
+    int first(final long hash) {
+      return find(key(hash), (int) key(hash) & (hashes.length - 1));
+    }
+
+    int next(final long hash, final int slot) {
+      return find(key(hash), (slot + 1) & (hashes.length - 1));
+    }
+
+    long offset(final int slot) {
+      return offsets[slot];
+    }
+
+    void add(final long hash, final long offset) {
+      if (++size * 2 > hashes.length) {
+        final long[] oldHashes = hashes;
+        final long[] oldOffsets = offsets;
+        hashes = new long[oldHashes.length * 2];
+        offsets = new long[oldOffsets.length * 2];
+        for (int i = 0; i < oldHashes.length; i++) {
+          if (0 != oldHashes[i]) {
+            put(oldHashes[i], oldOffsets[i]);
+          }
+        }
+      }
+      put(key(hash), offset);
+    }
+
+    private void put(final long key, final long offset) {
+      final int mask = hashes.length - 1;
+      int slot = (int) key & mask;
+      while (0 != hashes[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      hashes[slot] = key;
+      offsets[slot] = offset;
+    }
+
+    private int find(final long key, final int from) {
+      final int mask = hashes.length - 1;
+      for (int slot = from; 0 != hashes[slot]; slot = (slot + 1) & mask) {
+        if (key == hashes[slot]) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    // 0 marks an empty slot
+    private static long key(final long hash) {
+      return 0 == hash ? 1 : hash;
+    }
+  }
+
+  public static final class Result {
+    private final long linesBefore;
+    private final long linesAfter;
+    private final long bytesBefore;
+    private final long bytesAfter;
+    private final long duplicates;
+    private final long rejected;
+
+    Result(final long linesBefore, final long linesAfter, final long bytesBefore,
+        final long bytesAfter, final long duplicates, final long rejected) {
+      this.linesBefore = linesBefore;
+      this.linesAfter = linesAfter;
+      this.bytesBefore = bytesBefore;
+      this.bytesAfter = bytesAfter;
+      this.duplicates = duplicates;
+      this.rejected = rejected;
+    }
+
+    public long getLinesBefore() {
+      return linesBefore;
+    }
+
+    public long getLinesAfter() {
+      return linesAfter;
+    }
+
+    public long getBytesBefore() {
+      return bytesBefore;
+    }
+
+    public long getBytesAfter() {
+      return bytesAfter;
+    }
+
+    public long getDuplicates() {
+      return duplicates;
+    }
+
+    public long getRejected() {
+      return rejected;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH,
+          "%d of %d lines kept (%d duplicates, %d too short), %d of %d bytes, saved %d lines "
+              + "and %d bytes", linesAfter, linesBefore, duplicates, rejected, bytesAfter,
+          bytesBefore, linesBefore - linesAfter, bytesBefore - bytesAfter);
+    }
+  }
+
+  /**
+   * Compact a brain file offline. The bot must not be running.
+   * <p>
+   * Usage: {@code BrainCompactor <brain file> <thought.min.length> <thought.min.words>}
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("Usage: BrainCompactor <brain file> <thought.min.length> "
+          + "<thought.min.words>");
+      System.exit(1);
+    }
+    final int minLength = Integer.parseInt(args[1]);
+    final int minWords = Integer.parseInt(args[2]);
+    // the result is logged
+    new BrainCompactor(line -> line.length() >= minLength
+        && line.split("\\s+").length >= minWords).compact(Paths.get(args[0]));
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Trains a brain file in parallel. The file is split into fixed-size chunks on line boundaries,
+ * each chunk is tokenized and trained into its own vocabulary and model on a fork-join pool, and
+ * the chunks are merged into the brain in file order with {@link MarkovModel#absorb}. The chunks
+ * do not depend on how many threads there are, so neither does the result, and it is the same as
+ * training the lines one at a time.
+ */
+class BrainLoader {
+  private static final Logger LOG = LoggerFactory.getLogger(BrainLoader.class);
+
+  private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+  private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final int threads;
+  private final int chunkBytes;
+
+  /**
+   * @param threads How many threads to use, or 0 for one per core.
+   */
+  BrainLoader(final int threads) {
+    this(threads, CHUNK_BYTES);
+  }
+
+  BrainLoader(final int threads, final int chunkBytes) {
+    this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * Train the lines in {@code [start, end)} of the brain file. {@code start} must be at the start
+   * of a line.
+   *
+   * @return The number of lines.
+   */
+  long load(final Path brain, final long start, final long end, final Vocabulary vocabulary,
+      final MarkovModel model) throws IOException {
+    if (start >= end) {
+      return 0;
+    }
+    final long began = System.nanoTime();
+    long lastProgress = began;
+    long lines = 0;
+    final ForkJoinPool pool = new ForkJoinPool(threads);
+    try (final FileChannel channel = FileChannel.open(brain, StandardOpenOption.READ)) {
+      // keep a few chunks per thread in flight so nobody waits on the merge, without reading the
+      // whole file into memory
+      final Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+      long next = start;
+      while (next < end || !pending.isEmpty()) {
+        while (next < end && pending.size() < threads * 2) {
+          final long chunkStart = next;
+          final long chunkEnd = nextLineStart(channel, Math.min(end, next + chunkBytes), end);
+          pending.add(pool.submit(() -> parse(channel, chunkStart, chunkEnd)));
+          next = chunkEnd;
+        }
+
+        final Chunk chunk = join(pending.removeFirst());
+        final int[] tokenMap = new int[chunk.vocabulary.size()];
+        for (int id = 0; id < tokenMap.length; id++) {
+          tokenMap[id] = vocabulary.intern(chunk.vocabulary.word(id));
+        }
+        model.absorb(chunk.model, tokenMap);
+        lines += chunk.lines;
+
+        final long now = System.nanoTime();
+        if (now - lastProgress > PROGRESS_INTERVAL_NANOS) {
+          lastProgress = now;
+          LOG.info(String.format("Loaded %d lines (%d%%), %.0f lines/s", lines,
+              (next - start) * 100 / (end - start), lines / ((now - began) / 1e9)));
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    final double seconds = (System.nanoTime() - began) / 1e9;
+    LOG.info(String.format("Loaded %d lines in %.1f s with %d threads, %.0f lines/s", lines,
+        seconds, threads, lines / seconds));
+    return lines;
+  }
+
+  private static Chunk join(final ForkJoinTask<Chunk> task) throws IOException {
+    try {
+      return task.join();
+    } catch (final RuntimeException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return The offset just after the first line break at or after {@code position}, or
+   * {@code end} if there is none before it.
+   */
+  private static long nextLineStart(final FileChannel channel, final long position,
+      final long end) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(8192);
+    long offset = position;
+    while (offset < end) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), end - offset));
+      final int read = channel.read(buffer, offset);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if ('\n' == buffer.get(i)) {
+          return offset + i + 1;
+        }
+      }
+      offset += read;
+    }
+    return end;
+  }
+
+  /**
+   * Train one chunk into its own vocabulary and model. Lines are split the same way
+   * {@link java.io.BufferedReader#readLine()} does, and decoded the same way {@code FileReader}
+   * does.
+   */
+  private static Chunk parse(final FileChannel channel, final long start, final long end)
+      throws IOException {
+    final ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+    while (bytes.hasRemaining()) {
+      if (channel.read(bytes, start + bytes.position()) < 0) {
+        break;
+      }
+    }
+    bytes.flip();
+    final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    final CharBuffer text = decoder.decode(bytes);
+
+    final Chunk chunk = new Chunk();
+    final Tokenizer tokenizer = new Tokenizer();
+    final int length = text.length();
+    int lineStart = 0;
+    for (int i = 0; i <= length; i++) {
+      final char c = i < length ? text.charAt(i) : '\n';
+      if ('\n' == c || '\r' == c) {
+        if (i < length || lineStart < length) {
+          final int tokens = tokenizer.split(text, lineStart, i);
+          if (tokens >= ModelLayer.ORDER) {
+            chunk.model.train(tokenizer.intern(chunk.vocabulary), tokens);
+          }
+          chunk.lines++;
+        }
+        if ('\r' == c && i + 1 < length && '\n' == text.charAt(i + 1)) {
+          i++;
+        }
+        lineStart = i + 1;
+      }
+    }
+    return chunk;
+  }
+
+  private static class Chunk {
+    private final Vocabulary vocabulary = new Vocabulary();
+    private final MarkovModel model = new MarkovModel();
+    private long lines;
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+
+/**
+ * Read-only {@link Vocabulary}, stored as one run of characters with an offset per word and a
+ * hash table of IDs. Lookups read the buffers directly, so this works on a memory-mapped snapshot.
+ *
+ * <p>
+ * Thread-safe.
+ */
+class FrozenVocabulary {
+  private final CharBuffer chars;
+  // word i is chars[offsets[i], offsets[i + 1])
+  private final IntBuffer offsets;
+  // id + 1, 0 is empty
+  private final IntBuffer table;
+  private final int size;
+
+  FrozenVocabulary(final CharBuffer chars, final IntBuffer offsets, final IntBuffer table) {
+    if (offsets.capacity() < 1 || Integer.bitCount(table.capacity()) != 1
+        || table.capacity() < offsets.capacity()) {
+      throw new IllegalArgumentException("Malformed vocabulary.");
+    }
+    this.chars = chars;
+    this.offsets = offsets;
+    this.table = table;
+    this.size = offsets.capacity() - 1;
+  }
+
+  static FrozenVocabulary freeze(final Vocabulary vocabulary, final Storage storage)
+      throws IOException {
+    final int size = vocabulary.size();
+    final IntBuffer offsets = storage.ints(Storage.VOCABULARY_OFFSETS, size + 1);
+    int length = 0;
+    for (int id = 0; id < size; id++) {
+      length += vocabulary.word(id).length();
+      offsets.put(id + 1, length);
+    }
+
+    final CharBuffer chars = storage.chars(Storage.VOCABULARY_CHARS, length);
+    final IntBuffer table = storage.ints(Storage.VOCABULARY_TABLE,
+        Math.max(2, Integer.highestOneBit(size) * 4));
+    final int mask = table.capacity() - 1;
+    for (int id = 0; id < size; id++) {
+      final String word = vocabulary.word(id);
+      final int start = offsets.get(id);
+      for (int i = 0; i < word.length(); i++) {
+        chars.put(start + i, word.charAt(i));
+      }
+      int slot = Vocabulary.mix(word.hashCode()) & mask;
+      while (0 != table.get(slot)) {
+        slot = (slot + 1) & mask;
+      }
+      table.put(slot, id + 1);
+    }
+    return new FrozenVocabulary(chars, offsets, table);
+  }
+
+  int size() {
+    return size;
+  }
+
+  String word(final int id) {
+    final int start = offsets.get(id);
+    final char[] word = new char[offsets.get(id + 1) - start];
+    for (int i = 0; i < word.length; i++) {
+      word[i] = chars.get(start + i);
+    }
+    return new String(word);
+  }
+
+  /**
+   * @param hash {@link Vocabulary#hash(CharSequence, int, int)} of the region.
+   * @return The ID of the token in the given region of {@code text}, or -1 if it is not known.
+   */
+  int id(final CharSequence text, final int start, final int end, final int hash) {
+    final int mask = table.capacity() - 1;
+    for (int slot = Vocabulary.mix(hash) & mask;; slot = (slot + 1) & mask) {
+      final int entry = table.get(slot);
+      if (0 == entry) {
+        return -1;
+      }
+      if (matches(entry - 1, text, start, end)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  private boolean matches(final int id, final CharSequence text, final int start, final int end) {
+    final int wordStart = offsets.get(id);
+    if (offsets.get(id + 1) - wordStart != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (chars.get(wordStart + i - start) != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  long estimateBytes() {
+    return (chars.isDirect() ? 0 : 2L * chars.capacity())
+        + (offsets.isDirect() ? 0 : 4L * (offsets.capacity() + table.capacity()));
+  }
+}
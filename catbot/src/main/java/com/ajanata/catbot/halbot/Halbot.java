@@ -0,0 +1,442 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * MegaHAL-style sentence generator.
+ *
+ * <p>
+ * Any number of threads can generate while one thread trains. Generators read an immutable
+ * {@link State}: a view of the vocabulary and a stack of read-only {@link Segment}s, starting with
+ * the memory-mapped {@link Snapshot} if there is one. Training a batch builds a {@link MarkovModel}
+ * on top of the current segments, freezes it into a new segment, and publishes a new state, so
+ * generation never waits on training. Newer segments are merged as they grow, which keeps the
+ * stack short.
+ */
+public class Halbot {
+  private static final Logger LOG = LoggerFactory.getLogger(Halbot.class);
+
+  private static final ModelLayer[] NO_LAYERS = new ModelLayer[0];
+
+  static final class State {
+    final Vocabulary.View vocabulary;
+    final ModelView model;
+
+    private State(final Vocabulary.View vocabulary, final ModelView model) {
+      this.vocabulary = vocabulary;
+      this.model = model;
+    }
+  }
+
+  // only used while holding the lock on this
+  private final Tokenizer tokenizer = new Tokenizer();
+  private Vocabulary vocabulary = new Vocabulary();
+  private ModelLayer[] segments = NO_LAYERS;
+  // how many of the oldest segments are being pruned, and must not be merged into
+  private int pruning = 0;
+
+  private volatile State state = new State(vocabulary.view(), new ModelView(segments));
+
+  public void train(final String msg) {
+    train(Collections.singletonList(msg));
+  }
+
+  /**
+   * Train a batch of lines and make them visible to generation.
+   */
+  public synchronized void train(final Collection<String> lines) {
+    final MarkovModel model = new MarkovModel(segments);
+    for (final String line : lines) {
+      final int length = tokenizer.split(line);
+      if (length >= ModelLayer.ORDER) {
+        model.train(tokenizer.intern(vocabulary), length);
+      }
+    }
+    if (model.quadCount() > 0) {
+      try {
+        segments = append(segments, Segment.merge(new ModelLayer[] { model }, vocabulary.size(),
+            Storage.HEAP));
+      } catch (final IOException e) {
+        // heap storage does not do I/O
+        throw new IllegalStateException(e);
+      }
+      publish();
+      compact();
+    }
+  }
+
+  /**
+   * Merge the newest segment into the one before it for as long as it is at least half that
+   * one's size, so segment sizes grow geometrically and each line is merged a logarithmic number
+   * of times. The memory-mapped snapshot is never merged into; it is rebuilt on the next load.
+   */
+  private void compact() {
+    while (segments.length - 2 >= pruning) {
+      final Segment newest = (Segment) segments[segments.length - 1];
+      final Segment previous = (Segment) segments[segments.length - 2];
+      if (previous.isMapped() || size(newest) * 2 < size(previous)) {
+        return;
+      }
+      final Segment merged;
+      try {
+        merged = Segment.merge(new ModelLayer[] { previous, newest }, vocabulary.size(),
+            Storage.HEAP);
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+      segments = Arrays.copyOf(segments, segments.length - 1);
+      segments[segments.length - 1] = merged;
+      publish();
+    }
+  }
+
+  /**
+   * Decay and prune the segments on the heap, which is all of them unless the oldest is the
+   * memory-mapped snapshot, to fit the budget with room to spare. The snapshot is never decayed or
+   * pruned, since it is rebuilt from the brain file, but it counts against the budget: only what
+   * is left of the budget after it is given to the segments on the heap. The pruned segment is
+   * built without holding the lock, so training and generation carry on; segments trained
+   * meanwhile are stacked on top of it.
+   *
+   * @param budgetBytes Memory budget for the brain, or 0 to only drop what decayed away.
+   * @param decay What to multiply usage counts by.
+   * @return Estimated heap bytes freed.
+   */
+  public long prune(final long budgetBytes, final double decay) {
+    final ModelLayer[] pruned;
+    final int first;
+    final int vocabularySize;
+    final long targetBytes;
+    synchronized (this) {
+      first = segments.length > 0 && ((Segment) segments[0]).isMapped() ? 1 : 0;
+      if (pruning > 0 || segments.length == first) {
+        return 0;
+      }
+      pruned = segments;
+      pruning = pruned.length;
+      vocabularySize = vocabulary.size();
+      targetBytes = budgetBytes > 0 ? Math.max(0, budgetBytes * 3 / 4
+          - vocabulary.view().estimateBytes() - mappedBytes(segments)) : Long.MAX_VALUE;
+    }
+
+    final long start = System.nanoTime();
+    Segment result = null;
+    long before = 0;
+    try {
+      final ModelLayer[] heap = Arrays.copyOfRange(pruned, first, pruned.length);
+      for (final ModelLayer layer : heap) {
+        before += layer.estimateBytes();
+      }
+      final ModelLayer merged = 1 == heap.length ? heap[0]
+          : Segment.merge(heap, vocabularySize, Storage.HEAP);
+      result = Segment.merge(new ModelLayer[] { PrunedLayer.prune(
+          Arrays.copyOf(pruned, first), merged, targetBytes, decay, ThreadLocalRandom.current()) },
+          vocabularySize, Storage.HEAP);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      synchronized (this) {
+        pruning = 0;
+        if (null != result && isPrefix(pruned, segments)) {
+          final ModelLayer[] next = new ModelLayer[first + 1 + segments.length - pruned.length];
+          System.arraycopy(segments, 0, next, 0, first);
+          next[first] = result;
+          for (int i = first + 1; i < next.length; i++) {
+            final ModelLayer newer = segments[pruned.length + i - first - 1];
+            final PrunedLayer adopted = PrunedLayer.adopt(Arrays.copyOf(next, i), newer);
+            try {
+              next[i] = null == adopted ? newer
+                  : Segment.merge(new ModelLayer[] { adopted }, vocabulary.size(), Storage.HEAP);
+            } catch (final IOException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          segments = next;
+          publish();
+          compact();
+        } else {
+          result = null;
+        }
+      }
+    }
+    if (null == result) {
+      return 0;
+    }
+    final long freed = before - result.estimateBytes();
+    LOG.info(String.format("Pruned brain to %d contexts, %d transitions, freed ~%d KiB in %d ms",
+        result.quadCount(), result.edgeCount(), freed / 1024,
+        (System.nanoTime() - start) / 1000000));
+    return freed;
+  }
+
+  private static boolean isPrefix(final ModelLayer[] prefix, final ModelLayer[] layers) {
+    if (prefix.length > layers.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (prefix[i] != layers[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long mappedBytes(final ModelLayer[] layers) {
+    long bytes = 0;
+    for (final ModelLayer layer : layers) {
+      if (layer instanceof Segment) {
+        bytes += ((Segment) layer).mappedBytes();
+      }
+    }
+    return bytes;
+  }
+
+  private static long size(final ModelLayer layer) {
+    return (long) layer.quadCount() + layer.edgeCount();
+  }
+
+  private static ModelLayer[] append(final ModelLayer[] layers, final ModelLayer layer) {
+    final ModelLayer[] appended = Arrays.copyOf(layers, layers.length + 1);
+    appended[layers.length] = layer;
+    return appended;
+  }
+
+  private void publish() {
+    state = new State(vocabulary.view(), new ModelView(segments));
+  }
+
+  /**
+   * Load the brain from its text file, replacing anything already trained. If a snapshot path is
+   * given, the snapshot is used for as much of the brain file as it covers, and rebuilt if it is
+   * missing, stale, or does not cover the whole file.
+   *
+   * @param brain The brain file, one sentence per line.
+   * @param snapshotPath Where to keep the snapshot, or {@code null} to not use one.
+   * @param threads How many threads to train the brain file with, or 0 for one per core.
+   * @return The number of lines in the brain file.
+   */
+  public synchronized long load(final Path brain, final Path snapshotPath, final int threads)
+      throws IOException {
+    Snapshot snapshot = null == snapshotPath ? null : Snapshot.open(snapshotPath, brain);
+    long offset = 0;
+    long lines = 0;
+    vocabulary = new Vocabulary();
+    segments = NO_LAYERS;
+    if (null != snapshot) {
+      use(snapshot);
+      offset = snapshot.brainLength;
+      lines = snapshot.lines;
+      LOG.info(String.format("Loaded brain snapshot from [%s] with %d lines", snapshotPath,
+          lines));
+    }
+
+    final long end = Files.size(brain);
+    final MarkovModel model = new MarkovModel(segments);
+    final long replayed = new BrainLoader(threads).load(brain, offset, end, vocabulary, model);
+    lines += replayed;
+    final ModelLayer[] layers = append(segments, model);
+
+    if (null != snapshotPath && (null == snapshot || replayed > 0)) {
+      try {
+        final long start = System.nanoTime();
+        use(Snapshot.write(snapshotPath, brain, end, lines, vocabulary, layers));
+        LOG.info(String.format("Wrote brain snapshot to [%s] in %d ms", snapshotPath,
+            (System.nanoTime() - start) / 1000000));
+        return lines;
+      } catch (final IOException e) {
+        LOG.warn(String.format("Unable to write brain snapshot to [%s]", snapshotPath), e);
+      }
+    }
+    if (model.quadCount() > 0) {
+      segments = append(segments, Segment.merge(new ModelLayer[] { model }, vocabulary.size(),
+          Storage.HEAP));
+    }
+    publish();
+    return lines;
+  }
+
+  private void use(final Snapshot snapshot) {
+    vocabulary = new Vocabulary(snapshot.vocabulary);
+    segments = new ModelLayer[] { snapshot.segment };
+    publish();
+  }
+
+  public String getSentence() {
+    final State current = state;
+    return toString(current, current.model.generate(-1, ThreadLocalRandom.current()));
+  }
+
+  /**
+   * @return What generation currently reads.
+   */
+  State state() {
+    return state;
+  }
+
+  static String toString(final State state, final int[] tokens) {
+    final StringBuilder sb = new StringBuilder();
+    for (final int token : tokens) {
+      sb.append(state.vocabulary.word(token));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return A rough estimate of the heap used by the brain, in bytes.
+   */
+  public long estimateBytes() {
+    final State current = state;
+    return current.vocabulary.estimateBytes() + current.model.estimateBytes();
+  }
+
+  /**
+   * @return How much of the brain is memory-mapped from the snapshot, in bytes.
+   */
+  public long estimateMappedBytes() {
+    return mappedBytes(state.model.layers());
+  }
+
+  public String describe() {
+    final State current = state;
+    return String.format("%d words, %d contexts, %d transitions in %d segments, ~%d KiB heap, "
+        + "~%d KiB mapped", current.vocabulary.size(), current.model.quadCount(),
+        current.model.edgeCount(), current.model.layers().length, estimateBytes() / 1024,
+        mappedBytes(current.model.layers()) / 1024);
+  }
+
+  /**
+   * @param prompt A complete sentence prompt. A word the brain knows will be selected from this to
+   * prompt the brain, as weighted by {@link #keywords}.
+   * @param lowWeightPrefixes Low-weight words in the prompt, see {@link #keywords}.
+   * @return A sentence based on the prompt, or a random sentence if the brain knows none of its
+   * words.
+   */
+  public String getSentence(final String prompt, final String... lowWeightPrefixes) {
+    final State current = state;
+    final Reservoir chosen = new Reservoir(ThreadLocalRandom.current());
+    keywords(current, prompt, lowWeightPrefixes, chosen);
+    if (chosen.token < 0) {
+      LOG.trace(String.format("getSentence(%s), no known words", prompt));
+      return toString(current, current.model.generate(-1, chosen.random));
+    }
+    LOG.trace(String.format("getSentence(%s), using [%s]", prompt,
+        current.vocabulary.word(chosen.token)));
+    return toString(current, current.model.generate(chosen.token, chosen.random));
+  }
+
+  /** Receives the words of a prompt that the brain knows, with their weights. */
+  interface KeywordSink {
+    void accept(int token, double weight);
+  }
+
+  /**
+   * Find the words in a prompt that the brain knows, in one pass. A word is weighted by its length
+   * and by how rare it is in the brain (inverse document frequency over quads); 1- and 2-letter
+   * words are ignored.
+   *
+   * @param lowWeightPrefixes Any whitespace-separated word that starts with an entry in this list,
+   * ignoring case, has every word in it weighted as if it were 1 character long.
+   */
+  static void keywords(final State state, final String prompt, final String[] lowWeightPrefixes,
+      final KeywordSink sink) {
+    // +1 so a word in every quad still has some weight
+    final double quads = state.model.quadCount() + 1.0;
+    int position = 0;
+    final int length = prompt.length();
+    while (position < length) {
+      while (position < length && Character.isWhitespace(prompt.charAt(position))) {
+        position++;
+      }
+      final int wordStart = position;
+      while (position < length && !Character.isWhitespace(prompt.charAt(position))) {
+        position++;
+      }
+      final int wordEnd = position;
+      if (wordEnd == wordStart) {
+        break;
+      }
+      boolean prefixed = false;
+      for (final String prefix : lowWeightPrefixes) {
+        if (prompt.regionMatches(true, wordStart, prefix, 0, prefix.length())) {
+          prefixed = true;
+          break;
+        }
+      }
+      // the brain's words are the runs of letters and digits, as split by the tokenizer
+      int tokenEnd = wordStart;
+      while (tokenEnd < wordEnd) {
+        int tokenStart = tokenEnd;
+        while (tokenStart < wordEnd && !Tokenizer.isWordChar(prompt.charAt(tokenStart))) {
+          tokenStart++;
+        }
+        tokenEnd = tokenStart;
+        while (tokenEnd < wordEnd && Tokenizer.isWordChar(prompt.charAt(tokenEnd))) {
+          tokenEnd++;
+        }
+        if (tokenEnd - tokenStart <= 2) {
+          // skip short words
+          continue;
+        }
+        final int token = state.vocabulary.id(prompt, tokenStart, tokenEnd);
+        final int frequency = token < 0 ? 0 : state.model.wordQuadCount(token);
+        if (frequency > 0) {
+          sink.accept(token, (prefixed ? 1 : tokenEnd - tokenStart) * Math.log(quads / frequency));
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps one keyword, each with probability proportional to its weight, without storing them.
+   */
+  private static final class Reservoir implements KeywordSink {
+    private final ThreadLocalRandom random;
+    private double totalWeight = 0;
+    private int token = -1;
+
+    private Reservoir(final ThreadLocalRandom random) {
+      this.random = random;
+    }
+
+    @Override
+    public void accept(final int token, final double weight) {
+      totalWeight += weight;
+      if (random.nextDouble() * totalWeight < weight) {
+        this.token = token;
+      }
+    }
+  }
+}
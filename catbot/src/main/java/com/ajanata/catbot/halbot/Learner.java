@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Learns new lines on a dedicated thread. Lines are queued, collected into batches, trained, and
+ * appended to the brain file with one write (and, depending on {@link Durability}, one fsync) per
+ * batch. A batch is whatever is queued, up to a maximum size, plus whatever arrives within the
+ * linger time after the first line.
+ */
+public class Learner {
+  private static final Logger LOG = LoggerFactory.getLogger(Learner.class);
+
+  /** With {@link Durability#NONE}, how much is buffered before it is written. */
+  private static final int UNSYNCED_BUFFER_BYTES = 64 * 1024;
+
+  public enum Durability {
+    /** Written when enough has been buffered, and at shutdown. Lost if the process dies. */
+    NONE,
+    /** Written to the operating system after every batch. Lost if the machine dies. */
+    FLUSH,
+    /** Written and fsync'd after every batch. */
+    FSYNC
+  }
+
+  // compared by identity
+  private static final String STOP = new String("stop");
+
+  private final Halbot halbot;
+  private final Predicate<String> accept;
+  private final BlockingQueue<String> queue;
+  private final int batchMax;
+  private final long lingerNanos;
+  private final Durability durability;
+  private final Path brain;
+  private FileChannel channel;
+  private final Charset charset = Charset.defaultCharset();
+  private final byte[] lineSeparator = System.lineSeparator().getBytes(charset);
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(UNSYNCED_BUFFER_BYTES);
+  private final Thread thread;
+  private final AtomicLong learned = new AtomicLong();
+  private final AtomicLong lines;
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile boolean failed = false;
+
+  /**
+   * @param lines How many lines are already in the brain file.
+   * @param accept Which lines are worth learning. Called on the learning thread.
+   */
+  public Learner(final Halbot halbot, final Path brain, final long lines,
+      final Predicate<String> accept, final int capacity, final int batchMax,
+      final long lingerMillis, final Durability durability) throws IOException {
+    this.halbot = halbot;
+    this.brain = brain;
+    this.lines = new AtomicLong(lines);
+    this.accept = accept;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchMax = batchMax;
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    this.durability = durability;
+    this.channel = open(brain);
+    this.thread = new Thread(this::run, "learner");
+    thread.setDaemon(true);
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  /**
+   * Queue a line to learn. If the queue is full, the line is dropped.
+   *
+   * @return {@code false} if learning has failed and the line will never be learned.
+   */
+  public boolean offer(final String line) {
+    if (failed) {
+      return false;
+    }
+    if (!queue.offer(line)) {
+      dropped.incrementAndGet();
+      LOG.debug(String.format("Learning queue full, dropped [%s]", line));
+    }
+    return true;
+  }
+
+  /**
+   * @return How many lines have been learned and appended to the brain file.
+   */
+  public long getLearned() {
+    return learned.get();
+  }
+
+  /**
+   * @return How many lines are in the brain file.
+   */
+  public long getLines() {
+    return lines.get();
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  public int getQueued() {
+    return queue.size();
+  }
+
+  /**
+   * Learn everything already queued, write it out, and stop.
+   */
+  public void shutdown() {
+    try {
+      if (thread.isAlive() && queue.offer(STOP, 30, TimeUnit.SECONDS)) {
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        LOG.warn("Unable to close brain file", e);
+      }
+    }
+  }
+
+  /**
+   * Compact the brain file while learning continues. Learning only waits while lines learned
+   * during the compaction are carried over and the compacted file is swapped in.
+   */
+  public BrainCompactor.Result compact(final BrainCompactor compactor) throws IOException {
+    try (final BrainCompactor.Pass pass = compactor.begin(brain)) {
+      final long end;
+      synchronized (this) {
+        write();
+        end = channel.size();
+      }
+      pass.copy(end);
+      synchronized (this) {
+        write();
+        pass.copy(channel.size());
+        channel.close();
+        try {
+          final BrainCompactor.Result result = pass.finish();
+          lines.set(result.getLinesAfter());
+          return result;
+        } finally {
+          channel = open(brain);
+        }
+      }
+    }
+  }
+
+  private static FileChannel open(final Path brain) throws IOException {
+    return FileChannel.open(brain, StandardOpenOption.WRITE, StandardOpenOption.APPEND,
+        StandardOpenOption.CREATE);
+  }
+
+  private void run() {
+    final List<String> batch = new ArrayList<>(batchMax);
+    boolean stopping = false;
+    try {
+      while (!stopping) {
+        String line = queue.take();
+        final long deadline = System.nanoTime() + lingerNanos;
+        while (true) {
+          if (STOP == line) {
+            stopping = true;
+            break;
+          }
+          batch.add(line);
+          if (batch.size() >= batchMax) {
+            break;
+          }
+          line = queue.poll();
+          if (null == line) {
+            line = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (null == line) {
+              break;
+            }
+          }
+        }
+        commit(batch, stopping);
+        batch.clear();
+      }
+    } catch (final InterruptedException e) {
+      LOG.warn("Learner interrupted", e);
+    } catch (final IOException e) {
+      LOG.error("Unable to write to brain file", e);
+      failed = true;
+    }
+  }
+
+  private void commit(final List<String> batch, final boolean last) throws IOException {
+    final List<String> accepted = new ArrayList<>(batch.size());
+    for (final String line : batch) {
+      if (accept.test(line)) {
+        accepted.add(line);
+      }
+    }
+    if (!accepted.isEmpty()) {
+      halbot.train(accepted);
+    }
+    append(accepted, last);
+    if (!accepted.isEmpty()) {
+      LOG.trace(String.format("Learned %d of %d lines", accepted.size(), batch.size()));
+    }
+  }
+
+  // synchronized with compact(), which replaces the channel
+  private synchronized void append(final List<String> accepted, final boolean last)
+      throws IOException {
+    for (final String line : accepted) {
+      final byte[] bytes = line.getBytes(charset);
+      buffer.write(bytes, 0, bytes.length);
+      buffer.write(lineSeparator, 0, lineSeparator.length);
+    }
+    if (Durability.NONE != durability || buffer.size() >= UNSYNCED_BUFFER_BYTES || last) {
+      write();
+      if (Durability.FSYNC == durability) {
+        channel.force(false);
+      }
+    }
+    learned.addAndGet(accepted.size());
+    lines.addAndGet(accepted.size());
+  }
+
+  private void write() throws IOException {
+    final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    buffer.reset();
+  }
+}
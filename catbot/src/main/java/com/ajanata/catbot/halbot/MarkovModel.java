@@ -0,0 +1,424 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Arrays;
+
+
+/**
+ * Fourth-order Markov model layer over interned token IDs, trained on the heap and laid out in
+ * primitive arrays.
+ *
+ * <p>
+ * A quad is four consecutive tokens, stored packed in {@code quadTokens} and found by an
+ * open-addressing table. Each quad has a list of distinct tokens seen after it and before it,
+ * kept as singly-linked lists in shared edge arrays, with a second table to de-duplicate edges.
+ * Each token has the list of quads it appears in. These are the same relations JMegaHal kept in
+ * hash maps of hash sets, so generation (uniform choice over distinct candidates) matches it.
+ *
+ * <p>
+ * Training skips anything the older layers it was created over already have, as described in
+ * {@link ModelLayer}.
+ *
+ * <p>
+ * Not thread-safe.
+ */
+class MarkovModel implements ModelLayer {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final ModelLayer[] older;
+
+  private int quadSize = 0;
+  private int[] quadTokens = new int[INITIAL_CAPACITY * ORDER];
+  private byte[] quadFlags = new byte[INITIAL_CAPACITY];
+  private int[] quadCounts = new int[INITIAL_CAPACITY];
+  // index quad * 2 + direction
+  private int[] edgeHeads = new int[INITIAL_CAPACITY * 2];
+  private int[] edgeDegrees = new int[INITIAL_CAPACITY * 2];
+  // quad index + 1, 0 is empty
+  private int[] quadTable = new int[INITIAL_CAPACITY * 2];
+
+  private int edgeSize = 0;
+  // quad * 2 + direction
+  private int[] edgeOwners = new int[INITIAL_CAPACITY];
+  private int[] edgeTokens = new int[INITIAL_CAPACITY];
+  private int[] edgeLinks = new int[INITIAL_CAPACITY];
+  private int[] edgeCounts = new int[INITIAL_CAPACITY];
+  // edge index + 1, 0 is empty
+  private int[] edgeTable = new int[INITIAL_CAPACITY * 2];
+
+  private int[][] wordQuads = new int[INITIAL_CAPACITY][];
+  private int[] wordQuadSizes = new int[INITIAL_CAPACITY];
+
+  // last edge found by index, so walking a list in order is linear
+  private int cursorOwner = -1;
+  private int cursorIndex;
+  private int cursorEdge;
+
+  /**
+   * @param older Layers this one will be read on top of, oldest first.
+   */
+  MarkovModel(final ModelLayer... older) {
+    this.older = older;
+  }
+
+  /**
+   * Learn one tokenized sentence. Sentences with fewer than {@link #ORDER} tokens are ignored, as
+   * JMegaHal did.
+   */
+  void train(final int[] tokens, final int length) {
+    if (length < ORDER) {
+      return;
+    }
+    for (int i = 0; i <= length - ORDER; i++) {
+      final int quad = addQuad(tokens[i], tokens[i + 1], tokens[i + 2], tokens[i + 3]);
+      if (0 == i) {
+        quadFlags[quad] |= FLAG_START;
+      }
+      if (length - ORDER == i) {
+        quadFlags[quad] |= FLAG_END;
+      }
+      if (i > 0) {
+        addEdge(quad, PREVIOUS, tokens[i - 1], 1);
+      }
+      if (i < length - ORDER) {
+        addEdge(quad, NEXT, tokens[i + ORDER], 1);
+      }
+    }
+  }
+
+  /**
+   * Add everything another model learned, as if its sentences were trained here. Its quads are
+   * added in order, so merging models trained on consecutive parts of a brain, in order, assigns
+   * the same IDs training on the whole brain would.
+   *
+   * @param tokenMap The token ID here for each of the other model's token IDs.
+   */
+  void absorb(final MarkovModel other, final int[] tokenMap) {
+    for (int quad = 0; quad < other.quadSize; quad++) {
+      final int base = quad * ORDER;
+      final int merged = addQuad(tokenMap[other.quadTokens[base]],
+          tokenMap[other.quadTokens[base + 1]], tokenMap[other.quadTokens[base + 2]],
+          tokenMap[other.quadTokens[base + 3]]);
+      quadCounts[merged] += other.quadCounts[quad] - 1;
+      quadFlags[merged] |= other.quadFlags[quad] & (FLAG_START | FLAG_END);
+      for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+        for (int index = 0; index < other.degree(quad, direction); index++) {
+          final int edge = other.edgeAt(quad, direction, index);
+          addEdge(merged, direction, tokenMap[other.edgeTokens[edge]], other.edgeCounts[edge]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int quadCount() {
+    return quadSize;
+  }
+
+  @Override
+  public int edgeCount() {
+    return edgeSize;
+  }
+
+  @Override
+  public int token(final int quad, final int position) {
+    return quadTokens[quad * ORDER + position];
+  }
+
+  @Override
+  public byte flags(final int quad) {
+    return quadFlags[quad];
+  }
+
+  @Override
+  public int count(final int quad) {
+    return quadCounts[quad];
+  }
+
+  @Override
+  public int degree(final int quad, final int direction) {
+    return edgeDegrees[quad * 2 + direction];
+  }
+
+  @Override
+  public int edgeToken(final int quad, final int direction, final int index) {
+    return edgeTokens[edgeAt(quad, direction, index)];
+  }
+
+  @Override
+  public int edgeCount(final int quad, final int direction, final int index) {
+    return edgeCounts[edgeAt(quad, direction, index)];
+  }
+
+  private int edgeAt(final int quad, final int direction, final int index) {
+    final int owner = quad * 2 + direction;
+    int edge;
+    int skip;
+    if (owner == cursorOwner && index >= cursorIndex) {
+      edge = cursorEdge;
+      skip = index - cursorIndex;
+    } else {
+      edge = edgeHeads[owner];
+      skip = index;
+    }
+    for (; skip > 0; skip--) {
+      edge = edgeLinks[edge];
+    }
+    cursorOwner = owner;
+    cursorIndex = index;
+    cursorEdge = edge;
+    return edge;
+  }
+
+  @Override
+  public boolean hasEdge(final int quad, final int direction, final int token) {
+    return findEdge(quad * 2 + direction, token) >= 0;
+  }
+
+  @Override
+  public int wordQuadCount(final int token) {
+    return token < wordQuadSizes.length ? wordQuadSizes[token] : 0;
+  }
+
+  @Override
+  public int wordQuad(final int token, final int index) {
+    return wordQuads[token][index];
+  }
+
+  @Override
+  public int findQuad(final int a, final int b, final int c, final int d) {
+    final int mask = quadTable.length - 1;
+    for (int slot = hashQuad(a, b, c, d) & mask;; slot = (slot + 1) & mask) {
+      final int entry = quadTable[slot];
+      if (0 == entry) {
+        return -1;
+      }
+      final int base = (entry - 1) * ORDER;
+      if (quadTokens[base] == a && quadTokens[base + 1] == b && quadTokens[base + 2] == c
+          && quadTokens[base + 3] == d) {
+        return entry - 1;
+      }
+    }
+  }
+
+  private int addQuad(final int a, final int b, final int c, final int d) {
+    final int mask = quadTable.length - 1;
+    int slot = hashQuad(a, b, c, d) & mask;
+    for (;; slot = (slot + 1) & mask) {
+      final int entry = quadTable[slot];
+      if (0 == entry) {
+        break;
+      }
+      final int base = (entry - 1) * ORDER;
+      if (quadTokens[base] == a && quadTokens[base + 1] == b && quadTokens[base + 2] == c
+          && quadTokens[base + 3] == d) {
+        quadCounts[entry - 1]++;
+        return entry - 1;
+      }
+    }
+
+    final int quad = quadSize++;
+    if (quad == quadFlags.length) {
+      final int capacity = quad * 2;
+      quadTokens = Arrays.copyOf(quadTokens, capacity * ORDER);
+      quadFlags = Arrays.copyOf(quadFlags, capacity);
+      quadCounts = Arrays.copyOf(quadCounts, capacity);
+      edgeHeads = Arrays.copyOf(edgeHeads, capacity * 2);
+      edgeDegrees = Arrays.copyOf(edgeDegrees, capacity * 2);
+    }
+    final int base = quad * ORDER;
+    quadTokens[base] = a;
+    quadTokens[base + 1] = b;
+    quadTokens[base + 2] = c;
+    quadTokens[base + 3] = d;
+    quadCounts[quad] = 1;
+    quadTable[slot] = quad + 1;
+    if (quadSize * 2 > quadTable.length) {
+      quadTable = rehashQuads(quadTable.length * 2);
+    }
+
+    for (final ModelLayer layer : older) {
+      if (layer.findQuad(a, b, c, d) >= 0) {
+        quadFlags[quad] = FLAG_OVERLAY;
+        return quad;
+      }
+    }
+    // each distinct token only indexes the quad once
+    addWordQuad(a, quad);
+    if (b != a) {
+      addWordQuad(b, quad);
+    }
+    if (c != a && c != b) {
+      addWordQuad(c, quad);
+    }
+    if (d != a && d != b && d != c) {
+      addWordQuad(d, quad);
+    }
+    return quad;
+  }
+
+  private int[] rehashQuads(final int capacity) {
+    final int[] table = new int[capacity];
+    final int mask = capacity - 1;
+    for (int quad = 0; quad < quadSize; quad++) {
+      final int base = quad * ORDER;
+      int slot = hashQuad(quadTokens[base], quadTokens[base + 1], quadTokens[base + 2],
+          quadTokens[base + 3]) & mask;
+      while (0 != table[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = quad + 1;
+    }
+    return table;
+  }
+
+  private void addWordQuad(final int token, final int quad) {
+    if (token >= wordQuads.length) {
+      final int capacity = Math.max(wordQuads.length * 2, token + 1);
+      wordQuads = Arrays.copyOf(wordQuads, capacity);
+      wordQuadSizes = Arrays.copyOf(wordQuadSizes, capacity);
+    }
+    int[] quads = wordQuads[token];
+    final int size = wordQuadSizes[token];
+    if (null == quads) {
+      quads = wordQuads[token] = new int[2];
+    } else if (size == quads.length) {
+      quads = wordQuads[token] = Arrays.copyOf(quads, size + (size >> 1) + 1);
+    }
+    quads[size] = quad;
+    wordQuadSizes[token] = size + 1;
+  }
+
+  private int findEdge(final int owner, final int token) {
+    final int mask = edgeTable.length - 1;
+    for (int slot = hashEdge(owner, token) & mask;; slot = (slot + 1) & mask) {
+      final int entry = edgeTable[slot];
+      if (0 == entry) {
+        return -1;
+      }
+      if (edgeOwners[entry - 1] == owner && edgeTokens[entry - 1] == token) {
+        return entry - 1;
+      }
+    }
+  }
+
+  private void addEdge(final int quad, final int direction, final int token, final int count) {
+    final int owner = quad * 2 + direction;
+    final int existing = findEdge(owner, token);
+    if (existing >= 0) {
+      edgeCounts[existing] += count;
+      return;
+    }
+    if (0 != (quadFlags[quad] & FLAG_OVERLAY) && olderHasEdge(quad, direction, token)) {
+      return;
+    }
+    final int mask = edgeTable.length - 1;
+    int slot = hashEdge(owner, token) & mask;
+    while (0 != edgeTable[slot]) {
+      slot = (slot + 1) & mask;
+    }
+
+    final int edge = edgeSize++;
+    if (edge == edgeTokens.length) {
+      final int capacity = edge * 2;
+      edgeOwners = Arrays.copyOf(edgeOwners, capacity);
+      edgeTokens = Arrays.copyOf(edgeTokens, capacity);
+      edgeLinks = Arrays.copyOf(edgeLinks, capacity);
+      edgeCounts = Arrays.copyOf(edgeCounts, capacity);
+    }
+    edgeOwners[edge] = owner;
+    edgeTokens[edge] = token;
+    edgeCounts[edge] = count;
+    // the head is only meaningful while the degree is non-zero, so no sentinel is needed
+    edgeLinks[edge] = edgeHeads[owner];
+    edgeHeads[owner] = edge;
+    cursorOwner = -1;
+    edgeDegrees[owner]++;
+    edgeTable[slot] = edge + 1;
+    if (edgeSize * 2 > edgeTable.length) {
+      edgeTable = rehashEdges(edgeTable.length * 2);
+    }
+  }
+
+  private boolean olderHasEdge(final int quad, final int direction, final int token) {
+    final int base = quad * ORDER;
+    for (final ModelLayer layer : older) {
+      final int olderQuad = layer.findQuad(quadTokens[base], quadTokens[base + 1],
+          quadTokens[base + 2], quadTokens[base + 3]);
+      if (olderQuad >= 0 && layer.hasEdge(olderQuad, direction, token)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int[] rehashEdges(final int capacity) {
+    final int[] table = new int[capacity];
+    final int mask = capacity - 1;
+    for (int edge = 0; edge < edgeSize; edge++) {
+      int slot = hashEdge(edgeOwners[edge], edgeTokens[edge]) & mask;
+      while (0 != table[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = edge + 1;
+    }
+    return table;
+  }
+
+  static int hashQuad(final int a, final int b, final int c, final int d) {
+    int h = a;
+    h = h * 0x9E3779B9 + b;
+    h = h * 0x9E3779B9 + c;
+    h = h * 0x9E3779B9 + d;
+    return mix(h);
+  }
+
+  private static int hashEdge(final int owner, final int token) {
+    return mix(owner * 0x9E3779B9 + token);
+  }
+
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  public long estimateBytes() {
+    long bytes = 4L * (quadTokens.length + quadCounts.length + edgeHeads.length
+        + edgeDegrees.length + quadTable.length) + quadFlags.length;
+    bytes += 4L * (edgeOwners.length + edgeTokens.length + edgeLinks.length + edgeCounts.length
+        + edgeTable.length);
+    bytes += 8L * wordQuads.length + 4L * wordQuadSizes.length;
+    for (final int[] quads : wordQuads) {
+      if (null != quads) {
+        bytes += 16 + 4L * quads.length;
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+/**
+ * One layer of a Markov model. A brain is a stack of layers, oldest first, read as their union:
+ * <ul>
+ * <li>A quad can be in several layers. Its flags are the union of its flags in each, and it is
+ * only <em>owned</em> by the oldest layer that has it; newer copies are overlays.</li>
+ * <li>An edge (a token seen after or before a quad) is only stored in one layer.</li>
+ * <li>A token's quad index in each layer only lists the quads that layer owns.</li>
+ * </ul>
+ * So a uniform choice over the union is a uniform choice over the concatenation of the layers.
+ */
+interface ModelLayer {
+  int ORDER = 4;
+  int NEXT = 0;
+  int PREVIOUS = 1;
+
+  byte FLAG_START = 1;
+  byte FLAG_END = 2;
+  /** The quad is owned by an older layer. */
+  byte FLAG_OVERLAY = 4;
+
+  int quadCount();
+
+  int edgeCount();
+
+  /**
+   * @return The index of the quad in this layer, or -1 if it is not in this layer.
+   */
+  int findQuad(int a, int b, int c, int d);
+
+  int token(int quad, int position);
+
+  byte flags(int quad);
+
+  /**
+   * @return How many times the quad was seen while training this layer.
+   */
+  int count(int quad);
+
+  int degree(int quad, int direction);
+
+  int edgeToken(int quad, int direction, int index);
+
+  int edgeCount(int quad, int direction, int index);
+
+  boolean hasEdge(int quad, int direction, int token);
+
+  int wordQuadCount(int token);
+
+  int wordQuad(int token, int index);
+
+  /**
+   * @return A rough estimate of the heap used by this layer, in bytes.
+   */
+  long estimateBytes();
+}
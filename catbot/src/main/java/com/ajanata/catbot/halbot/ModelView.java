@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Reads a stack of {@link ModelLayer}s as one model and generates sentences from it, the same way
+ * JMegaHal did: pick a quad, walk forward until a quad that can end a sentence, then backward
+ * from the first quad until one that can start a sentence.
+ */
+class ModelView {
+  /**
+   * Upper bound on how far generation walks in each direction, in case the model has a cycle with
+   * no way out.
+   */
+  private static final int MAX_WALK = 1000;
+
+  private final ModelLayer[] layers;
+
+  ModelView(final ModelLayer... layers) {
+    this.layers = layers;
+  }
+
+  ModelLayer[] layers() {
+    return layers;
+  }
+
+  /**
+   * @param token Token the sentence should contain, or -1 for any sentence. If no quad has it, any
+   * sentence is generated.
+   * @return The tokens of the sentence, or an empty array if the model is empty.
+   */
+  int[] generate(final int token, final Random random) {
+    final int[] ids = new int[layers.length];
+    final int[] quad = new int[ModelLayer.ORDER];
+    if (!pickByToken(token, ids, quad, random) && !pickAny(ids, quad, random)) {
+      return new int[0];
+    }
+    final int[] middleIds = ids.clone();
+    final int[] middle = quad.clone();
+
+    int[] after = new int[16];
+    int afterSize = 0;
+    while (!hasFlag(ids, ModelLayer.FLAG_END) && afterSize < MAX_WALK) {
+      final int next = randomEdge(ids, ModelLayer.NEXT, random);
+      if (next < 0) {
+        break;
+      }
+      if (afterSize == after.length) {
+        after = Arrays.copyOf(after, afterSize * 2);
+      }
+      after[afterSize++] = next;
+      System.arraycopy(quad, 1, quad, 0, ModelLayer.ORDER - 1);
+      quad[ModelLayer.ORDER - 1] = next;
+      if (!find(quad, ids)) {
+        break;
+      }
+    }
+
+    // collected in reverse order
+    int[] before = new int[16];
+    int beforeSize = 0;
+    System.arraycopy(middleIds, 0, ids, 0, ids.length);
+    System.arraycopy(middle, 0, quad, 0, quad.length);
+    while (!hasFlag(ids, ModelLayer.FLAG_START) && beforeSize < MAX_WALK) {
+      final int previous = randomEdge(ids, ModelLayer.PREVIOUS, random);
+      if (previous < 0) {
+        break;
+      }
+      if (beforeSize == before.length) {
+        before = Arrays.copyOf(before, beforeSize * 2);
+      }
+      before[beforeSize++] = previous;
+      System.arraycopy(quad, 0, quad, 1, ModelLayer.ORDER - 1);
+      quad[0] = previous;
+      if (!find(quad, ids)) {
+        break;
+      }
+    }
+
+    final int[] sentence = new int[beforeSize + ModelLayer.ORDER + afterSize];
+    for (int i = 0; i < beforeSize; i++) {
+      sentence[i] = before[beforeSize - 1 - i];
+    }
+    System.arraycopy(middle, 0, sentence, beforeSize, ModelLayer.ORDER);
+    System.arraycopy(after, 0, sentence, beforeSize + ModelLayer.ORDER, afterSize);
+    return sentence;
+  }
+
+  /**
+   * Score a sentence the way MegaHAL scored candidate replies: the information content of each
+   * keyword where it appears, given the quad before it and the quad after it, normalized so long
+   * sentences with many keywords do not win just by being long. Higher is more surprising.
+   *
+   * @param keywords Sorted keyword tokens.
+   */
+  double surprise(final int[] sentence, final int[] keywords) {
+    final int[] ids = new int[layers.length];
+    final int[] quad = new int[ModelLayer.ORDER];
+    double surprise = 0;
+    int scored = 0;
+    for (int i = 0; i < sentence.length; i++) {
+      if (Arrays.binarySearch(keywords, sentence[i]) < 0) {
+        continue;
+      }
+      if (i >= ModelLayer.ORDER) {
+        System.arraycopy(sentence, i - ModelLayer.ORDER, quad, 0, ModelLayer.ORDER);
+        final double probability = probability(quad, ids, ModelLayer.NEXT, sentence[i]);
+        if (probability > 0) {
+          surprise -= Math.log(probability);
+          scored++;
+        }
+      }
+      if (i + ModelLayer.ORDER < sentence.length) {
+        System.arraycopy(sentence, i + 1, quad, 0, ModelLayer.ORDER);
+        final double probability = probability(quad, ids, ModelLayer.PREVIOUS, sentence[i]);
+        if (probability > 0) {
+          surprise -= Math.log(probability);
+          scored++;
+        }
+      }
+    }
+    if (scored >= 8) {
+      surprise /= Math.sqrt(scored - 1);
+    }
+    if (scored >= 16) {
+      surprise /= scored;
+    }
+    return surprise;
+  }
+
+  /**
+   * @return How often {@code token} follows (or precedes) the quad, out of all its edges in that
+   * direction, or 0 if the model does not have the quad.
+   */
+  private double probability(final int[] quad, final int[] ids, final int direction,
+      final int token) {
+    if (!find(quad, ids)) {
+      return 0;
+    }
+    long total = 0;
+    long matching = 0;
+    for (int i = 0; i < layers.length; i++) {
+      if (ids[i] >= 0) {
+        for (int index = 0; index < layers[i].degree(ids[i], direction); index++) {
+          final int count = layers[i].edgeCount(ids[i], direction, index);
+          total += count;
+          if (layers[i].edgeToken(ids[i], direction, index) == token) {
+            matching += count;
+          }
+        }
+      }
+    }
+    return 0 == total ? 0 : (double) matching / total;
+  }
+
+  private boolean pickByToken(final int token, final int[] ids, final int[] quad,
+      final Random random) {
+    if (token < 0) {
+      return false;
+    }
+    final int total = wordQuadCount(token);
+    if (0 == total) {
+      return false;
+    }
+    int index = random.nextInt(total);
+    for (final ModelLayer layer : layers) {
+      final int count = layer.wordQuadCount(token);
+      if (index < count) {
+        load(layer, layer.wordQuad(token, index), ids, quad);
+        return true;
+      }
+      index -= count;
+    }
+    throw new IllegalStateException();
+  }
+
+  private boolean pickAny(final int[] ids, final int[] quad, final Random random) {
+    int total = 0;
+    for (final ModelLayer layer : layers) {
+      total += layer.quadCount();
+    }
+    if (0 == total) {
+      return false;
+    }
+    // overlays are also in an older layer, skip them so every distinct quad is equally likely
+    while (true) {
+      int index = random.nextInt(total);
+      for (final ModelLayer layer : layers) {
+        if (index < layer.quadCount()) {
+          if (0 == (layer.flags(index) & ModelLayer.FLAG_OVERLAY)) {
+            load(layer, index, ids, quad);
+            return true;
+          }
+          break;
+        }
+        index -= layer.quadCount();
+      }
+    }
+  }
+
+  private void load(final ModelLayer layer, final int index, final int[] ids, final int[] quad) {
+    for (int position = 0; position < ModelLayer.ORDER; position++) {
+      quad[position] = layer.token(index, position);
+    }
+    find(quad, ids);
+  }
+
+  /**
+   * Find the quad in every layer.
+   *
+   * @return Whether any layer has it.
+   */
+  private boolean find(final int[] quad, final int[] ids) {
+    boolean found = false;
+    for (int i = 0; i < layers.length; i++) {
+      ids[i] = layers[i].findQuad(quad[0], quad[1], quad[2], quad[3]);
+      found |= ids[i] >= 0;
+    }
+    return found;
+  }
+
+  private boolean hasFlag(final int[] ids, final byte flag) {
+    for (int i = 0; i < layers.length; i++) {
+      if (ids[i] >= 0 && 0 != (layers[i].flags(ids[i]) & flag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int randomEdge(final int[] ids, final int direction, final Random random) {
+    int total = 0;
+    for (int i = 0; i < layers.length; i++) {
+      if (ids[i] >= 0) {
+        total += layers[i].degree(ids[i], direction);
+      }
+    }
+    if (0 == total) {
+      return -1;
+    }
+    int index = random.nextInt(total);
+    for (int i = 0; i < layers.length; i++) {
+      if (ids[i] >= 0) {
+        final int degree = layers[i].degree(ids[i], direction);
+        if (index < degree) {
+          return layers[i].edgeToken(ids[i], direction, index);
+        }
+        index -= degree;
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  /**
+   * @return How many distinct quads contain the token.
+   */
+  int wordQuadCount(final int token) {
+    int count = 0;
+    for (final ModelLayer layer : layers) {
+      count += layer.wordQuadCount(token);
+    }
+    return count;
+  }
+
+  int quadCount() {
+    int count = 0;
+    for (final ModelLayer layer : layers) {
+      count += layer.quadCount();
+    }
+    return count;
+  }
+
+  int edgeCount() {
+    int count = 0;
+    for (final ModelLayer layer : layers) {
+      count += layer.edgeCount();
+    }
+    return count;
+  }
+
+  long estimateBytes() {
+    long bytes = 0;
+    for (final ModelLayer layer : layers) {
+      bytes += layer.estimateBytes();
+    }
+    return bytes;
+  }
+}
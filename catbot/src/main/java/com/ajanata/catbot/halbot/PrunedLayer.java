@@ -0,0 +1,478 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Some of the quads and edges of another layer, with new counts and flags. Meant to be frozen with
+ * {@link Segment#merge}.
+ */
+class PrunedLayer implements ModelLayer {
+  /** Counts at or above this are all treated as this common when picking what to prune. */
+  private static final int HISTOGRAM_SIZE = 256;
+  private static final int EDGE_BYTES = 8;
+
+  private final ModelLayer source;
+  // pruned quad to source quad, and back (-1 if pruned)
+  private final int[] quads;
+  private final int[] ids;
+  private final int[] counts;
+  private final byte[] flags;
+  // edges of quad * 2 + direction are [edgeOffsets[i], edgeOffsets[i + 1])
+  private final int[] edgeOffsets;
+  private final int[] edgeTokens;
+  private final int[] edgeCounts;
+  // owned quads of token t are wordQuads[wordOffsets[t], wordOffsets[t + 1])
+  private final int[] wordOffsets;
+  private final int[] wordQuads;
+
+  private PrunedLayer(final ModelLayer source, final int[] quads, final int[] ids,
+      final int[] counts, final byte[] flags, final int[] edgeOffsets, final int[] edgeTokens,
+      final int[] edgeCounts) {
+    this.source = source;
+    this.quads = quads;
+    this.ids = ids;
+    this.counts = counts;
+    this.flags = flags;
+    this.edgeOffsets = edgeOffsets;
+    this.edgeTokens = edgeTokens;
+    this.edgeCounts = edgeCounts;
+
+    int vocabularySize = 0;
+    for (int quad = 0; quad < quads.length; quad++) {
+      for (int position = 0; position < ORDER; position++) {
+        vocabularySize = Math.max(vocabularySize, token(quad, position) + 1);
+      }
+    }
+    wordOffsets = new int[vocabularySize + 1];
+    for (int quad = 0; quad < quads.length; quad++) {
+      if (0 == (flags[quad] & FLAG_OVERLAY)) {
+        for (int position = 0; position < ORDER; position++) {
+          if (isFirstOccurrence(quad, position)) {
+            wordOffsets[token(quad, position) + 1]++;
+          }
+        }
+      }
+    }
+    for (int token = 1; token <= vocabularySize; token++) {
+      wordOffsets[token] += wordOffsets[token - 1];
+    }
+    wordQuads = new int[wordOffsets[vocabularySize]];
+    final int[] cursors = Arrays.copyOf(wordOffsets, vocabularySize);
+    for (int quad = 0; quad < quads.length; quad++) {
+      if (0 == (flags[quad] & FLAG_OVERLAY)) {
+        for (int position = 0; position < ORDER; position++) {
+          if (isFirstOccurrence(quad, position)) {
+            wordQuads[cursors[token(quad, position)]++] = quad;
+          }
+        }
+      }
+    }
+  }
+
+  private boolean isFirstOccurrence(final int quad, final int position) {
+    final int token = token(quad, position);
+    for (int i = 0; i < position; i++) {
+      if (token(quad, i) == token) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Multiply every count by {@code decay}, rounding up or down at random in proportion, then drop
+   * the least used quads and edges until the layer's estimated size is down to
+   * {@code targetBytes}. Everything used more than the lowest threshold that fits is kept, and the
+   * newest of those used exactly as often as the threshold fill what room is left. Anything that
+   * decayed to 0 is always dropped. So are edges to quads that no longer exist, so generation does
+   * not walk into them.
+   * <p>
+   * A kept quad that a sentence cannot end (or start) at always keeps at least one edge forward
+   * (or back), along with the quad it leads to, so generation from any kept quad still reaches
+   * the end and the start of a sentence. That can take the layer a little over the target.
+   *
+   * @param older The layers under {@code layer}, which are not pruned.
+   */
+  static PrunedLayer prune(final ModelLayer[] older, final ModelLayer layer,
+      final long targetBytes, final double decay, final Random random) {
+    final int quadCount = layer.quadCount();
+    // 0 once dropped
+    final int[] counts = new int[quadCount];
+    final int[] edgeOffsets = offsets(layer);
+    final int[] edgeCounts = new int[edgeOffsets[quadCount * 2]];
+    final long[] quadHistogram = new long[HISTOGRAM_SIZE];
+    final long[] edgeHistogram = new long[HISTOGRAM_SIZE];
+    for (int quad = 0; quad < quadCount; quad++) {
+      counts[quad] = decay(layer.count(quad), decay, random);
+      quadHistogram[Math.min(counts[quad], HISTOGRAM_SIZE - 1)]++;
+      for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+        final int offset = edgeOffsets[quad * 2 + direction];
+        for (int index = 0; index < layer.degree(quad, direction); index++) {
+          final int count = decay(layer.edgeCount(quad, direction, index), decay, random);
+          edgeCounts[offset + index] = count;
+          edgeHistogram[Math.min(count, HISTOGRAM_SIZE - 1)]++;
+        }
+      }
+    }
+
+    // size is roughly linear in quads and edges, so measure the per-quad cost from the layer
+    final long quadBytes = Math.max(1, (layer.estimateBytes() - (long) EDGE_BYTES
+        * layer.edgeCount()) / Math.max(1, quadCount));
+    long quadsAbove = 0;
+    long edgesAbove = 0;
+    for (int count = 1; count < HISTOGRAM_SIZE; count++) {
+      quadsAbove += quadHistogram[count];
+      edgesAbove += edgeHistogram[count];
+    }
+    int threshold = 1;
+    while (threshold < HISTOGRAM_SIZE - 1
+        && quadsAbove * quadBytes + edgesAbove * EDGE_BYTES > targetBytes) {
+      quadsAbove -= quadHistogram[threshold];
+      edgesAbove -= edgeHistogram[threshold];
+      threshold++;
+    }
+    // the share of the quads and edges at the threshold that still fits
+    final int partial = threshold - 1;
+    long quadRoom = 0;
+    long edgeRoom = 0;
+    if (partial > 0) {
+      final long room = targetBytes - quadsAbove * quadBytes - edgesAbove * EDGE_BYTES;
+      final long bucket = quadHistogram[partial] * quadBytes + edgeHistogram[partial] * EDGE_BYTES;
+      if (room > 0 && bucket > 0) {
+        final double share = Math.min(1, (double) room / bucket);
+        quadRoom = (long) (share * quadHistogram[partial]);
+        edgeRoom = (long) (share * edgeHistogram[partial]);
+      }
+    }
+    // newest first
+    for (int quad = quadCount - 1; quad >= 0; quad--) {
+      if (counts[quad] == partial && quadRoom > 0) {
+        quadRoom--;
+      } else if (counts[quad] < threshold) {
+        counts[quad] = 0;
+      }
+    }
+    for (int edge = edgeCounts.length - 1; edge >= 0; edge--) {
+      if (edgeCounts[edge] == partial && edgeRoom > 0) {
+        edgeRoom--;
+      } else if (edgeCounts[edge] < threshold) {
+        edgeCounts[edge] = 0;
+      }
+    }
+    keepWays(older, layer, counts, edgeOffsets, edgeCounts);
+
+    final int[] ids = new int[quadCount];
+    int kept = 0;
+    for (int quad = 0; quad < quadCount; quad++) {
+      ids[quad] = counts[quad] > 0 ? kept++ : -1;
+    }
+    final int[] quads = new int[kept];
+    final int[] keptCounts = new int[kept];
+    final byte[] flags = new byte[kept];
+    final int[] keptOffsets = new int[kept * 2 + 1];
+    int[] edgeTokens = new int[Math.max(16, (int) Math.min(Integer.MAX_VALUE - 8, edgesAbove))];
+    int[] keptEdgeCounts = new int[edgeTokens.length];
+    int edges = 0;
+    for (int quad = 0; quad < quadCount; quad++) {
+      final int id = ids[quad];
+      if (id < 0) {
+        continue;
+      }
+      quads[id] = quad;
+      keptCounts[id] = counts[quad];
+      flags[id] = layer.flags(quad);
+      for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+        final int offset = edgeOffsets[quad * 2 + direction];
+        for (int index = 0; index < layer.degree(quad, direction); index++) {
+          final int token = layer.edgeToken(quad, direction, index);
+          if (edgeCounts[offset + index] > 0
+              && leadsSomewhere(older, layer, counts, quad, direction, token)) {
+            if (edges == edgeTokens.length) {
+              edgeTokens = Arrays.copyOf(edgeTokens, edges * 2);
+              keptEdgeCounts = Arrays.copyOf(keptEdgeCounts, edges * 2);
+            }
+            edgeTokens[edges] = token;
+            keptEdgeCounts[edges] = edgeCounts[offset + index];
+            edges++;
+          }
+        }
+        keptOffsets[id * 2 + direction + 1] = edges;
+      }
+    }
+    return new PrunedLayer(layer, quads, ids, keptCounts, flags, keptOffsets,
+        Arrays.copyOf(edgeTokens, edges), Arrays.copyOf(keptEdgeCounts, edges));
+  }
+
+  /**
+   * Make sure every kept quad can be walked on from towards the end and the start of a sentence,
+   * by keeping its most used edge that way, and the quad it leads to if that was dropped.
+   */
+  private static void keepWays(final ModelLayer[] older, final ModelLayer layer,
+      final int[] counts, final int[] edgeOffsets, final int[] edgeCounts) {
+    int[] pending = new int[16];
+    int size = 0;
+    for (int quad = 0; quad < counts.length; quad++) {
+      if (counts[quad] > 0) {
+        if (size == pending.length) {
+          pending = Arrays.copyOf(pending, size * 2);
+        }
+        pending[size++] = quad;
+      }
+    }
+    while (size > 0) {
+      final int quad = pending[--size];
+      for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+        if (!needsEdge(older, layer, quad, direction)) {
+          continue;
+        }
+        final int offset = edgeOffsets[quad * 2 + direction];
+        int best = -1;
+        boolean found = false;
+        for (int index = 0; index < layer.degree(quad, direction) && !found; index++) {
+          final int token = layer.edgeToken(quad, direction, index);
+          if (edgeCounts[offset + index] > 0
+              && leadsSomewhere(older, layer, counts, quad, direction, token)) {
+            found = true;
+          } else if (best < 0 || layer.edgeCount(quad, direction, index) > layer.edgeCount(quad,
+              direction, best)) {
+            best = index;
+          }
+        }
+        if (found || best < 0) {
+          continue;
+        }
+        edgeCounts[offset + best] = Math.max(1, edgeCounts[offset + best]);
+        final int target = target(layer, quad, direction, layer.edgeToken(quad, direction, best));
+        if (target >= 0 && 0 == counts[target]) {
+          counts[target] = 1;
+          if (size == pending.length) {
+            pending = Arrays.copyOf(pending, size * 2);
+          }
+          pending[size++] = target;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return Whether a sentence cannot end (or start) at the quad, and no older layer has any edges
+   * from it that way, so walking on from it needs an edge in {@code layer}.
+   */
+  private static boolean needsEdge(final ModelLayer[] older, final ModelLayer layer,
+      final int quad, final int direction) {
+    final byte flag = NEXT == direction ? FLAG_END : FLAG_START;
+    if (0 != (layer.flags(quad) & flag)) {
+      return false;
+    }
+    final int a = layer.token(quad, 0);
+    final int b = layer.token(quad, 1);
+    final int c = layer.token(quad, 2);
+    final int d = layer.token(quad, 3);
+    for (final ModelLayer olderLayer : older) {
+      final int found = olderLayer.findQuad(a, b, c, d);
+      if (found >= 0 && (0 != (olderLayer.flags(found) & flag)
+          || olderLayer.degree(found, direction) > 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find the overlays in {@code layer} that no older layer has any more, since the quads they
+   * overlaid have been pruned, and make them owned by {@code layer}.
+   *
+   * @return {@code null} if there are none.
+   */
+  static PrunedLayer adopt(final ModelLayer[] older, final ModelLayer layer) {
+    final int quadCount = layer.quadCount();
+    byte[] flags = null;
+    for (int quad = 0; quad < quadCount; quad++) {
+      if (0 != (layer.flags(quad) & FLAG_OVERLAY) && !inAny(older, layer.token(quad, 0),
+          layer.token(quad, 1), layer.token(quad, 2), layer.token(quad, 3))) {
+        if (null == flags) {
+          flags = new byte[quadCount];
+          for (int i = 0; i < quadCount; i++) {
+            flags[i] = layer.flags(i);
+          }
+        }
+        flags[quad] &= ~FLAG_OVERLAY;
+      }
+    }
+    if (null == flags) {
+      return null;
+    }
+    final int[] quads = new int[quadCount];
+    final int[] counts = new int[quadCount];
+    for (int quad = 0; quad < quadCount; quad++) {
+      quads[quad] = quad;
+      counts[quad] = layer.count(quad);
+    }
+    final int[] edgeOffsets = offsets(layer);
+    final int[] edgeTokens = new int[edgeOffsets[quadCount * 2]];
+    final int[] edgeCounts = new int[edgeTokens.length];
+    for (int quad = 0; quad < quadCount; quad++) {
+      for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+        final int offset = edgeOffsets[quad * 2 + direction];
+        for (int index = 0; index < layer.degree(quad, direction); index++) {
+          edgeTokens[offset + index] = layer.edgeToken(quad, direction, index);
+          edgeCounts[offset + index] = layer.edgeCount(quad, direction, index);
+        }
+      }
+    }
+    return new PrunedLayer(layer, quads, quads, counts, flags, edgeOffsets, edgeTokens,
+        edgeCounts);
+  }
+
+  private static int[] offsets(final ModelLayer layer) {
+    final int[] offsets = new int[layer.quadCount() * 2 + 1];
+    for (int quad = 0; quad < layer.quadCount(); quad++) {
+      offsets[quad * 2 + 1] = offsets[quad * 2] + layer.degree(quad, NEXT);
+      offsets[quad * 2 + 2] = offsets[quad * 2 + 1] + layer.degree(quad, PREVIOUS);
+    }
+    return offsets;
+  }
+
+  private static int decay(final int count, final double decay, final Random random) {
+    if (decay >= 1) {
+      return count;
+    }
+    return (int) Math.floor(count * decay + random.nextDouble());
+  }
+
+  private static boolean leadsSomewhere(final ModelLayer[] older, final ModelLayer layer,
+      final int[] counts, final int quad, final int direction, final int token) {
+    final int target = target(layer, quad, direction, token);
+    if (target >= 0 && counts[target] > 0) {
+      return true;
+    }
+    if (NEXT == direction) {
+      return inAny(older, layer.token(quad, 1), layer.token(quad, 2), layer.token(quad, 3), token);
+    }
+    return inAny(older, token, layer.token(quad, 0), layer.token(quad, 1), layer.token(quad, 2));
+  }
+
+  /**
+   * @return The quad in {@code layer} the edge leads to, or -1 if it is not in {@code layer}.
+   */
+  private static int target(final ModelLayer layer, final int quad, final int direction,
+      final int token) {
+    if (NEXT == direction) {
+      return layer.findQuad(layer.token(quad, 1), layer.token(quad, 2), layer.token(quad, 3),
+          token);
+    }
+    return layer.findQuad(token, layer.token(quad, 0), layer.token(quad, 1), layer.token(quad, 2));
+  }
+
+  private static boolean inAny(final ModelLayer[] layers, final int a, final int b, final int c,
+      final int d) {
+    for (final ModelLayer layer : layers) {
+      if (layer.findQuad(a, b, c, d) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int quadCount() {
+    return quads.length;
+  }
+
+  @Override
+  public int edgeCount() {
+    return edgeTokens.length;
+  }
+
+  @Override
+  public int findQuad(final int a, final int b, final int c, final int d) {
+    final int quad = source.findQuad(a, b, c, d);
+    return quad < 0 ? -1 : ids[quad];
+  }
+
+  @Override
+  public int token(final int quad, final int position) {
+    return source.token(quads[quad], position);
+  }
+
+  @Override
+  public byte flags(final int quad) {
+    return flags[quad];
+  }
+
+  @Override
+  public int count(final int quad) {
+    return counts[quad];
+  }
+
+  @Override
+  public int degree(final int quad, final int direction) {
+    final int owner = quad * 2 + direction;
+    return edgeOffsets[owner + 1] - edgeOffsets[owner];
+  }
+
+  @Override
+  public int edgeToken(final int quad, final int direction, final int index) {
+    return edgeTokens[edgeOffsets[quad * 2 + direction] + index];
+  }
+
+  @Override
+  public int edgeCount(final int quad, final int direction, final int index) {
+    return edgeCounts[edgeOffsets[quad * 2 + direction] + index];
+  }
+
+  @Override
+  public boolean hasEdge(final int quad, final int direction, final int token) {
+    for (int edge = edgeOffsets[quad * 2 + direction]; edge < edgeOffsets[quad * 2 + direction
+        + 1]; edge++) {
+      if (edgeTokens[edge] == token) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int wordQuadCount(final int token) {
+    if (token + 1 >= wordOffsets.length) {
+      return 0;
+    }
+    return wordOffsets[token + 1] - wordOffsets[token];
+  }
+
+  @Override
+  public int wordQuad(final int token, final int index) {
+    return wordQuads[wordOffsets[token] + index];
+  }
+
+  @Override
+  public long estimateBytes() {
+    return 4L * (quads.length * 3 + edgeOffsets.length + edgeTokens.length * 2
+        + wordOffsets.length + wordQuads.length) + flags.length;
+  }
+}
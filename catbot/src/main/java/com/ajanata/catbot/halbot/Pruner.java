@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps a {@link Halbot} within a memory budget, and optionally makes what it learned fade over
+ * time, by periodically checking it on a background thread and pruning it with
+ * {@link Halbot#prune} when it is over budget or when enough decay has built up.
+ * <p>
+ * The memory-mapped snapshot counts against the budget, but is never pruned and its counts never
+ * decay, so only what was learned since it was built is forgotten. The snapshot is rebuilt from
+ * the brain file, which keeps every line, so anything forgotten comes back after a restart.
+ */
+public class Pruner {
+  private static final Logger LOG = LoggerFactory.getLogger(Pruner.class);
+
+  /** With decay, prune at least this often, in half-lives, so counts decay in small steps. */
+  private static final double DECAY_STEP = 1.0 / 8;
+
+  private final Halbot halbot;
+  private final long budgetBytes;
+  private final long halfLifeNanos;
+  private final long intervalMillis;
+  private final ScheduledExecutorService executor;
+  private long lastDecay = System.nanoTime();
+  private boolean warned = false;
+
+  /**
+   * @param budgetBytes Memory budget for the brain, or 0 for none.
+   * @param halfLifeMillis How long until usage counts decay to half, or 0 to not decay.
+   * @param intervalMillis How often to check.
+   */
+  public Pruner(final Halbot halbot, final long budgetBytes, final long halfLifeMillis,
+      final long intervalMillis) {
+    this.halbot = halbot;
+    this.budgetBytes = budgetBytes;
+    this.halfLifeNanos = TimeUnit.MILLISECONDS.toNanos(halfLifeMillis);
+    this.intervalMillis = intervalMillis;
+    this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+      final Thread thread = new Thread(r, "brain-pruner");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+  }
+
+  public void start() {
+    if (budgetBytes <= 0 && halfLifeNanos <= 0) {
+      return;
+    }
+    executor.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private void check() {
+    try {
+      final long now = System.nanoTime();
+      final double halfLives = halfLifeNanos > 0 ? (double) (now - lastDecay) / halfLifeNanos : 0;
+      final long mapped = halbot.estimateMappedBytes();
+      final long bytes = halbot.estimateBytes() + mapped;
+      // pruning aims for three quarters of the budget
+      if (budgetBytes > 0 && mapped >= budgetBytes * 3 / 4 && !warned) {
+        LOG.warn(String.format("The brain snapshot alone uses ~%d KiB, which leaves no room in the "
+            + "budget of %d KiB for anything learned since it was built", mapped / 1024,
+            budgetBytes / 1024));
+        warned = true;
+      }
+      if ((budgetBytes > 0 && bytes > budgetBytes) || halfLives >= DECAY_STEP) {
+        LOG.debug(String.format("Pruning brain using ~%d KiB, %.2f half-lives since last decay",
+            bytes / 1024, halfLives));
+        halbot.prune(budgetBytes, Math.pow(0.5, halfLives));
+        lastDecay = now;
+      }
+    } catch (final RuntimeException e) {
+      // keep the schedule going
+      LOG.error("Unable to prune brain", e);
+    }
+  }
+}
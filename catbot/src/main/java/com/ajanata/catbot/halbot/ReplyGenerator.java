@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Replies to prompts the way MegaHAL did: generate many candidate sentences, each from a keyword
+ * of the prompt, and keep the one whose keywords the brain finds most surprising. Candidates are
+ * generated in parallel, and whatever is best when the deadline passes is the reply.
+ */
+public class ReplyGenerator {
+  private static final Logger LOG = LoggerFactory.getLogger(ReplyGenerator.class);
+
+  private final Halbot halbot;
+  private final int candidates;
+  private final long deadlineNanos;
+  private final int threads;
+  private final ExecutorService executor;
+  private final ReplyPool pool;
+
+  /**
+   * @param candidates How many candidates to generate for each reply, at most.
+   * @param deadlineMillis How long to spend generating candidates. At least one is always
+   * generated.
+   * @param threads How many threads generate candidates, including the caller, or 0 for one per
+   * core. The other threads are shared by all replies; while they are busy, with no more than one
+   * reply's worth of work queued for them, replies are generated on the caller alone.
+   * @param pool Sentences generated ahead of time for the keywords prompts use most, which are
+   * scored before generating any, or {@code null}.
+   */
+  public ReplyGenerator(final Halbot halbot, final int candidates, final long deadlineMillis,
+      final int threads, final ReplyPool pool) {
+    this(halbot, candidates, deadlineMillis, threads, pool, null);
+  }
+
+  /**
+   * @param executor Runs the helpers, or {@code null} for threads of its own.
+   */
+  ReplyGenerator(final Halbot halbot, final int candidates, final long deadlineMillis,
+      final int threads, final ReplyPool pool, final ExecutorService executor) {
+    this.halbot = halbot;
+    this.pool = pool;
+    this.candidates = Math.max(1, candidates);
+    this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    this.threads = Math.min(this.candidates,
+        threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    final AtomicInteger threadCount = new AtomicInteger();
+    // when the queue is full, the helper is rejected and the caller does without it
+    this.executor = null != executor || this.threads <= 1 ? executor
+        : new ThreadPoolExecutor(this.threads - 1, this.threads - 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(this.threads - 1),
+            r -> {
+              final Thread thread = new Thread(r, "reply-" + threadCount.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * @param lowWeightPrefixes See {@link Halbot#getSentence(String, String...)}.
+   * @return The best reply to the prompt, or a random sentence if the brain knows none of its
+   * words.
+   */
+  public String reply(final String prompt, final String... lowWeightPrefixes) {
+    final Halbot.State state = halbot.state();
+    final Keywords keywords = new Keywords();
+    Halbot.keywords(state, prompt, lowWeightPrefixes, keywords);
+    if (0 == keywords.size || 1 == candidates) {
+      return halbot.getSentence(prompt, lowWeightPrefixes);
+    }
+
+    final Search search = new Search(state, keywords, prompt.trim(), System.nanoTime()
+        + deadlineNanos);
+    boolean pooled = false;
+    if (null != pool) {
+      for (int i = 0; i < keywords.size; i++) {
+        final ReplyPool.Entry entry = pool.poll(keywords.tokens[i]);
+        if (null != entry) {
+          search.consider(entry.tokens, entry.text);
+          search.remaining.decrementAndGet();
+          pooled = true;
+        }
+      }
+    }
+    final int helperCount = search.remaining.get() > 0 ? threads - 1 : 0;
+    final CountDownLatch helpers = new CountDownLatch(helperCount);
+    for (int i = 0; i < helperCount; i++) {
+      try {
+        executor.execute(() -> {
+          try {
+            search.run(false);
+          } finally {
+            helpers.countDown();
+          }
+        });
+      } catch (final RejectedExecutionException e) {
+        helpers.countDown();
+      }
+    }
+    search.run(!pooled);
+    try {
+      helpers.await(Math.max(0, search.deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (search) {
+      LOG.trace(String.format("reply(%s): best of %d candidates, surprise %.2f", prompt,
+          search.generated, search.bestScore));
+      return search.best;
+    }
+  }
+
+  public void shutdown() {
+    if (null != executor) {
+      executor.shutdownNow();
+    }
+  }
+
+  /** The known words of a prompt, for picking by weight and scoring. */
+  private static final class Keywords implements Halbot.KeywordSink {
+    private int[] tokens = new int[8];
+    private double[] cumulativeWeights = new double[8];
+    private int size = 0;
+    private int[] sorted;
+
+    @Override
+    public void accept(final int token, final double weight) {
+      if (size == tokens.length) {
+        tokens = Arrays.copyOf(tokens, size * 2);
+        cumulativeWeights = Arrays.copyOf(cumulativeWeights, size * 2);
+      }
+      tokens[size] = token;
+      cumulativeWeights[size] = (0 == size ? 0 : cumulativeWeights[size - 1]) + weight;
+      size++;
+    }
+
+    int pick(final ThreadLocalRandom random) {
+      final double target = random.nextDouble() * cumulativeWeights[size - 1];
+      int index = Arrays.binarySearch(cumulativeWeights, 0, size, target);
+      index = index < 0 ? -index - 1 : index + 1;
+      return tokens[Math.min(index, size - 1)];
+    }
+
+    int[] sorted() {
+      if (null == sorted) {
+        sorted = Arrays.copyOf(tokens, size);
+        Arrays.sort(sorted);
+      }
+      return sorted;
+    }
+  }
+
+  /** One reply being searched for by several threads. */
+  private final class Search {
+    private final Halbot.State state;
+    private final Keywords keywords;
+    private final int[] sortedKeywords;
+    private final String prompt;
+    private final long deadline;
+    // a caller that has no pooled candidates always generates one, which is not counted here
+    private final AtomicInteger remaining = new AtomicInteger(candidates - 1);
+    // guarded by this
+    private String best;
+    private double bestScore = -1;
+    private int generated = 0;
+
+    private Search(final Halbot.State state, final Keywords keywords, final String prompt,
+        final long deadline) {
+      this.state = state;
+      this.keywords = keywords;
+      this.sortedKeywords = keywords.sorted();
+      this.prompt = prompt;
+      this.deadline = deadline;
+    }
+
+    /**
+     * @param first Whether to generate one candidate even if the deadline has passed, so there is
+     * always a reply.
+     */
+    private void run(boolean first) {
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (first || (System.nanoTime() < deadline && remaining.getAndDecrement() > 0)) {
+        first = false;
+        final int[] tokens = state.model.generate(keywords.pick(random), random);
+        consider(tokens, Halbot.toString(state, tokens));
+      }
+    }
+
+    private void consider(final int[] tokens, final String sentence) {
+      // a reply that repeats the prompt is not surprising no matter what the model thinks
+      final double score = sentence.trim().toLowerCase(Locale.ENGLISH).equals(
+          prompt.toLowerCase(Locale.ENGLISH)) ? 0 : state.model.surprise(tokens, sortedKeywords);
+      synchronized (this) {
+        generated++;
+        if (score > bestScore) {
+          best = sentence;
+          bestScore = score;
+        }
+      }
+    }
+  }
+}
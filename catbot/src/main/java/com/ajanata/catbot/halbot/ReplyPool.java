@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sentences generated ahead of time on a background thread, so replying costs a queue poll: a pool
+ * of random sentences, and a small pool of sentences for each of the keywords prompts have used
+ * most. When the model has grown or shrunk by more than a fraction since the pools were filled,
+ * everything in them is thrown away; in between, the oldest random sentence is regenerated every
+ * refresh interval so the pool keeps up with what the brain learns.
+ */
+public class ReplyPool {
+  private static final Logger LOG = LoggerFactory.getLogger(ReplyPool.class);
+
+  static final class Entry {
+    final int[] tokens;
+    final String text;
+    final long epoch;
+
+    private Entry(final int[] tokens, final String text, final long epoch) {
+      this.tokens = tokens;
+      this.text = text;
+      this.epoch = epoch;
+    }
+  }
+
+  private final Halbot halbot;
+  private final int keywordCount;
+  private final int perKeyword;
+  private final double invalidateFraction;
+  private final long refreshNanos;
+  private final BlockingQueue<Entry> random;
+  private final Map<Integer, BlockingQueue<Entry>> keywords = new ConcurrentHashMap<>();
+  private final Map<Integer, AtomicInteger> hits = new ConcurrentHashMap<>();
+  private final Thread thread;
+  private volatile long epoch = 0;
+  private volatile boolean running = true;
+  // only used on the pool thread
+  private long epochSize = -1;
+
+  /**
+   * @param size How many random sentences to keep.
+   * @param keywordCount How many of the most used keywords to keep sentences for.
+   * @param perKeyword How many sentences to keep for each of them.
+   * @param invalidateFraction How much the model can change, as a fraction of its size, before
+   * everything generated from it is thrown away.
+   * @param refreshMillis How often to regenerate the oldest random sentence, and to pick the most
+   * used keywords.
+   */
+  public ReplyPool(final Halbot halbot, final int size, final int keywordCount,
+      final int perKeyword, final double invalidateFraction, final long refreshMillis) {
+    this.halbot = halbot;
+    this.keywordCount = keywordCount;
+    this.perKeyword = perKeyword;
+    this.invalidateFraction = invalidateFraction;
+    this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+    this.random = new ArrayBlockingQueue<>(Math.max(1, size));
+    this.thread = new Thread(this::run, "reply-pool");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+  }
+
+  public void start() {
+    thread.start();
+  }
+
+  public void shutdown() {
+    running = false;
+    thread.interrupt();
+  }
+
+  /**
+   * @return A random sentence, or {@code null} if the pool is empty.
+   */
+  public String poll() {
+    final Entry entry = poll(random);
+    return null == entry ? null : entry.text;
+  }
+
+  /**
+   * Take a sentence containing a keyword, and count the keyword as used.
+   *
+   * @return {@code null} if there are none.
+   */
+  Entry poll(final int token) {
+    hits.computeIfAbsent(token, t -> new AtomicInteger()).incrementAndGet();
+    final BlockingQueue<Entry> queue = keywords.get(token);
+    return null == queue ? null : poll(queue);
+  }
+
+  /**
+   * @return How many times the model has been found to have changed enough to throw away what was
+   * generated from it, plus one for the first time it was looked at.
+   */
+  long epoch() {
+    return epoch;
+  }
+
+  private Entry poll(final BlockingQueue<Entry> queue) {
+    Entry entry;
+    while (null != (entry = queue.poll()) && entry.epoch != epoch) {
+      // generated from a model that has changed too much since
+    }
+    return entry;
+  }
+
+  private void run() {
+    long lastRefresh = System.nanoTime();
+    try {
+      while (running) {
+        checkEpoch();
+        boolean filled = random.remainingCapacity() > 0 && offer(random, generate(-1));
+        for (final Map.Entry<Integer, BlockingQueue<Entry>> keyword : keywords.entrySet()) {
+          if (keyword.getValue().remainingCapacity() > 0) {
+            filled |= offer(keyword.getValue(), generate(keyword.getKey()));
+          }
+        }
+        final long now = System.nanoTime();
+        if (now - lastRefresh >= refreshNanos) {
+          lastRefresh = now;
+          if (null != random.poll()) {
+            offer(random, generate(-1));
+          }
+          pickKeywords();
+        }
+        if (!filled) {
+          Thread.sleep(TimeUnit.NANOSECONDS.toMillis(refreshNanos) / 4 + 1);
+        }
+      }
+    } catch (final InterruptedException e) {
+      // shutting down
+    } catch (final RuntimeException e) {
+      LOG.error("Reply pool stopped", e);
+    }
+  }
+
+  private static boolean offer(final BlockingQueue<Entry> queue, final Entry entry) {
+    return null != entry && queue.offer(entry);
+  }
+
+  /**
+   * @return {@code null} if the model is empty, or no longer has the keyword.
+   */
+  private Entry generate(final int token) {
+    final Halbot.State state = halbot.state();
+    final int[] tokens = state.model.generate(token, ThreadLocalRandom.current());
+    boolean found = token < 0;
+    for (int i = 0; i < tokens.length && !found; i++) {
+      found = tokens[i] == token;
+    }
+    if (0 == tokens.length || !found) {
+      return null;
+    }
+    return new Entry(tokens, Halbot.toString(state, tokens), epoch);
+  }
+
+  private void checkEpoch() {
+    final ModelView model = halbot.state().model;
+    final long size = (long) model.quadCount() + model.edgeCount();
+    if (epochSize < 0 || Math.abs(size - epochSize) > epochSize * invalidateFraction) {
+      if (epochSize >= 0) {
+        LOG.debug(String.format("Model changed from %d to %d, discarding pooled replies",
+            epochSize, size));
+      }
+      epochSize = size;
+      epoch++;
+      random.clear();
+      for (final BlockingQueue<Entry> queue : keywords.values()) {
+        queue.clear();
+      }
+    }
+  }
+
+  /**
+   * Keep pools for the most used keywords, and halve the use counts so they follow what prompts
+   * are about now.
+   */
+  private void pickKeywords() {
+    final List<Map.Entry<Integer, AtomicInteger>> used = new ArrayList<>(hits.entrySet());
+    used.sort((a, b) -> Integer.compare(b.getValue().get(), a.getValue().get()));
+    final List<Integer> hot = new ArrayList<>(Math.min(keywordCount, used.size()));
+    for (int i = 0; i < used.size() && hot.size() < keywordCount; i++) {
+      hot.add(used.get(i).getKey());
+    }
+    keywords.keySet().retainAll(hot);
+    for (final Integer token : hot) {
+      keywords.computeIfAbsent(token, t -> new ArrayBlockingQueue<>(Math.max(1, perKeyword)));
+    }
+    final Iterator<AtomicInteger> counts = hits.values().iterator();
+    while (counts.hasNext()) {
+      final AtomicInteger count = counts.next();
+      if (0 == count.updateAndGet(c -> c / 2)) {
+        counts.remove();
+      }
+    }
+  }
+}
@@ -0,0 +1,371 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+
+/**
+ * Read-only {@link ModelLayer} in compressed sparse row form: each quad's edges, and each token's
+ * quads, are contiguous ranges of one array with an offset table. Edges of a quad are sorted by
+ * token. Everything is read through buffers, so a segment can live on the heap or in a
+ * memory-mapped snapshot.
+ *
+ * <p>
+ * Thread-safe.
+ */
+class Segment implements ModelLayer {
+  private final IntBuffer quadTokens;
+  private final ByteBuffer quadFlags;
+  private final IntBuffer quadCounts;
+  // quad index + 1, 0 is empty
+  private final IntBuffer quadTable;
+  // edges of quad * 2 + direction are [edgeOffsets[i], edgeOffsets[i + 1])
+  private final IntBuffer edgeOffsets;
+  private final IntBuffer edgeTokens;
+  private final IntBuffer edgeCounts;
+  // quads of token t are wordQuads[wordOffsets[t], wordOffsets[t + 1])
+  private final IntBuffer wordOffsets;
+  private final IntBuffer wordQuads;
+  private final int quadCount;
+  private final int vocabularySize;
+
+  Segment(final IntBuffer quadTokens, final ByteBuffer quadFlags, final IntBuffer quadCounts,
+      final IntBuffer quadTable, final IntBuffer edgeOffsets, final IntBuffer edgeTokens,
+      final IntBuffer edgeCounts, final IntBuffer wordOffsets, final IntBuffer wordQuads) {
+    quadCount = quadFlags.capacity();
+    if (quadTokens.capacity() != quadCount * ORDER || quadCounts.capacity() != quadCount
+        || Integer.bitCount(quadTable.capacity()) != 1 || quadTable.capacity() <= quadCount
+        || edgeOffsets.capacity() != quadCount * 2 + 1
+        || edgeOffsets.get(quadCount * 2) != edgeTokens.capacity()
+        || edgeCounts.capacity() != edgeTokens.capacity() || wordOffsets.capacity() < 1
+        || wordOffsets.get(wordOffsets.capacity() - 1) != wordQuads.capacity()) {
+      throw new IllegalArgumentException("Malformed segment.");
+    }
+    this.quadTokens = quadTokens;
+    this.quadFlags = quadFlags;
+    this.quadCounts = quadCounts;
+    this.quadTable = quadTable;
+    this.edgeOffsets = edgeOffsets;
+    this.edgeTokens = edgeTokens;
+    this.edgeCounts = edgeCounts;
+    this.wordOffsets = wordOffsets;
+    this.wordQuads = wordQuads;
+    this.vocabularySize = wordOffsets.capacity() - 1;
+  }
+
+  /**
+   * Merge adjacent layers into one segment.
+   *
+   * @param layers The layers to merge, oldest first. Quads the first layer marks as overlays stay
+   * overlays, since they are owned by some layer older than all of these.
+   * @param vocabularySize How many tokens the vocabulary has, at least as many as any layer uses.
+   */
+  static Segment merge(final ModelLayer[] layers, final int vocabularySize, final Storage storage)
+      throws IOException {
+    // merged IDs: the first layer's quads keep theirs, and each newer layer's quads that no
+    // earlier layer in the merge has are numbered after them in order
+    final int[][] ids = new int[layers.length][];
+    int quadCount = layers[0].quadCount();
+    for (int i = 1; i < layers.length; i++) {
+      final ModelLayer layer = layers[i];
+      ids[i] = new int[layer.quadCount()];
+      for (int quad = 0; quad < layer.quadCount(); quad++) {
+        int id = -1;
+        if (0 != (layer.flags(quad) & FLAG_OVERLAY)) {
+          id = find(layers, ids, i, layer.token(quad, 0), layer.token(quad, 1),
+              layer.token(quad, 2), layer.token(quad, 3));
+        }
+        ids[i][quad] = id >= 0 ? id : quadCount++;
+      }
+    }
+
+    final IntBuffer quadTokens = storage.ints(Storage.QUAD_TOKENS, quadCount * ORDER);
+    final ByteBuffer quadFlags = storage.bytes(Storage.QUAD_FLAGS, quadCount);
+    final IntBuffer quadCounts = storage.ints(Storage.QUAD_COUNTS, quadCount);
+    final IntBuffer edgeOffsets = storage.ints(Storage.EDGE_OFFSETS, quadCount * 2 + 1);
+    int assigned = 0;
+    for (int i = 0; i < layers.length; i++) {
+      final ModelLayer layer = layers[i];
+      for (int quad = 0; quad < layer.quadCount(); quad++) {
+        final int id = null == ids[i] ? quad : ids[i][quad];
+        final byte flags = layer.flags(quad);
+        if (id == assigned) {
+          // first copy decides whether the merged quad is an overlay
+          for (int position = 0; position < ORDER; position++) {
+            quadTokens.put(id * ORDER + position, layer.token(quad, position));
+          }
+          quadFlags.put(id, flags);
+          assigned++;
+        } else {
+          quadFlags.put(id, (byte) (quadFlags.get(id) | (flags & ~FLAG_OVERLAY)));
+        }
+        quadCounts.put(id, quadCounts.get(id) + layer.count(quad));
+        for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+          final int owner = id * 2 + direction + 1;
+          edgeOffsets.put(owner, edgeOffsets.get(owner) + layer.degree(quad, direction));
+        }
+      }
+    }
+
+    // edges: edgeOffsets[i + 1] has the degree of i, so a prefix sum makes it the start of i + 1.
+    // Shifting up one puts the start of i in edgeOffsets[i + 1], which is used as the cursor to
+    // fill i and so ends up at the start of i + 1.
+    for (int owner = 1; owner <= quadCount * 2; owner++) {
+      edgeOffsets.put(owner, edgeOffsets.get(owner) + edgeOffsets.get(owner - 1));
+    }
+    final int edgeCount = edgeOffsets.get(quadCount * 2);
+    for (int owner = quadCount * 2; owner > 0; owner--) {
+      edgeOffsets.put(owner, edgeOffsets.get(owner - 1));
+    }
+    final IntBuffer edgeTokens = storage.ints(Storage.EDGE_TOKENS, edgeCount);
+    final IntBuffer edgeCounts = storage.ints(Storage.EDGE_COUNTS, edgeCount);
+    for (int i = 0; i < layers.length; i++) {
+      final ModelLayer layer = layers[i];
+      for (int quad = 0; quad < layer.quadCount(); quad++) {
+        final int id = null == ids[i] ? quad : ids[i][quad];
+        for (int direction = NEXT; direction <= PREVIOUS; direction++) {
+          final int cursor = id * 2 + direction + 1;
+          int edge = edgeOffsets.get(cursor);
+          for (int index = 0; index < layer.degree(quad, direction); index++) {
+            edgeTokens.put(edge, layer.edgeToken(quad, direction, index));
+            edgeCounts.put(edge, layer.edgeCount(quad, direction, index));
+            edge++;
+          }
+          edgeOffsets.put(cursor, edge);
+        }
+      }
+    }
+    for (int owner = 0; owner < quadCount * 2; owner++) {
+      sortEdges(edgeTokens, edgeCounts, edgeOffsets.get(owner), edgeOffsets.get(owner + 1));
+    }
+
+    // token to owned quads, the same way
+    final IntBuffer wordOffsets = storage.ints(Storage.WORD_OFFSETS, vocabularySize + 1);
+    for (int quad = 0; quad < quadCount; quad++) {
+      if (0 == (quadFlags.get(quad) & FLAG_OVERLAY)) {
+        for (int position = 0; position < ORDER; position++) {
+          if (isFirstOccurrence(quadTokens, quad, position)) {
+            final int token = quadTokens.get(quad * ORDER + position) + 1;
+            wordOffsets.put(token, wordOffsets.get(token) + 1);
+          }
+        }
+      }
+    }
+    for (int token = 1; token <= vocabularySize; token++) {
+      wordOffsets.put(token, wordOffsets.get(token) + wordOffsets.get(token - 1));
+    }
+    final int wordQuadCount = wordOffsets.get(vocabularySize);
+    for (int token = vocabularySize; token > 0; token--) {
+      wordOffsets.put(token, wordOffsets.get(token - 1));
+    }
+    final IntBuffer wordQuads = storage.ints(Storage.WORD_QUADS, wordQuadCount);
+    for (int quad = 0; quad < quadCount; quad++) {
+      if (0 == (quadFlags.get(quad) & FLAG_OVERLAY)) {
+        for (int position = 0; position < ORDER; position++) {
+          if (isFirstOccurrence(quadTokens, quad, position)) {
+            final int cursor = quadTokens.get(quad * ORDER + position) + 1;
+            final int slot = wordOffsets.get(cursor);
+            wordQuads.put(slot, quad);
+            wordOffsets.put(cursor, slot + 1);
+          }
+        }
+      }
+    }
+
+    final IntBuffer quadTable = storage.ints(Storage.QUAD_TABLE,
+        Math.max(2, Integer.highestOneBit(quadCount) * 4));
+    final int mask = quadTable.capacity() - 1;
+    for (int quad = 0; quad < quadCount; quad++) {
+      final int base = quad * ORDER;
+      int slot = MarkovModel.hashQuad(quadTokens.get(base), quadTokens.get(base + 1),
+          quadTokens.get(base + 2), quadTokens.get(base + 3)) & mask;
+      while (0 != quadTable.get(slot)) {
+        slot = (slot + 1) & mask;
+      }
+      quadTable.put(slot, quad + 1);
+    }
+
+    return new Segment(quadTokens, quadFlags, quadCounts, quadTable, edgeOffsets, edgeTokens,
+        edgeCounts, wordOffsets, wordQuads);
+  }
+
+  private static int find(final ModelLayer[] layers, final int[][] ids, final int before,
+      final int a, final int b, final int c, final int d) {
+    for (int i = 0; i < before; i++) {
+      final int quad = layers[i].findQuad(a, b, c, d);
+      if (quad >= 0) {
+        return null == ids[i] ? quad : ids[i][quad];
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isFirstOccurrence(final IntBuffer quadTokens, final int quad,
+      final int position) {
+    final int token = quadTokens.get(quad * ORDER + position);
+    for (int earlier = 0; earlier < position; earlier++) {
+      if (quadTokens.get(quad * ORDER + earlier) == token) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void sortEdges(final IntBuffer tokens, final IntBuffer counts, final int from,
+      final int to) {
+    final int length = to - from;
+    if (length < 2) {
+      return;
+    }
+    // tokens are non-negative, so sorting the packed pair sorts by token
+    final long[] pairs = new long[length];
+    for (int i = 0; i < length; i++) {
+      pairs[i] = ((long) tokens.get(from + i) << 32) | (counts.get(from + i) & 0xFFFFFFFFL);
+    }
+    Arrays.sort(pairs);
+    for (int i = 0; i < length; i++) {
+      tokens.put(from + i, (int) (pairs[i] >>> 32));
+      counts.put(from + i, (int) pairs[i]);
+    }
+  }
+
+  @Override
+  public int quadCount() {
+    return quadCount;
+  }
+
+  @Override
+  public int edgeCount() {
+    return edgeTokens.capacity();
+  }
+
+  int vocabularySize() {
+    return vocabularySize;
+  }
+
+  boolean isMapped() {
+    return quadFlags.isDirect();
+  }
+
+  @Override
+  public int findQuad(final int a, final int b, final int c, final int d) {
+    final int mask = quadTable.capacity() - 1;
+    for (int slot = MarkovModel.hashQuad(a, b, c, d) & mask;; slot = (slot + 1) & mask) {
+      final int entry = quadTable.get(slot);
+      if (0 == entry) {
+        return -1;
+      }
+      final int base = (entry - 1) * ORDER;
+      if (quadTokens.get(base) == a && quadTokens.get(base + 1) == b
+          && quadTokens.get(base + 2) == c && quadTokens.get(base + 3) == d) {
+        return entry - 1;
+      }
+    }
+  }
+
+  @Override
+  public int token(final int quad, final int position) {
+    return quadTokens.get(quad * ORDER + position);
+  }
+
+  @Override
+  public byte flags(final int quad) {
+    return quadFlags.get(quad);
+  }
+
+  @Override
+  public int count(final int quad) {
+    return quadCounts.get(quad);
+  }
+
+  @Override
+  public int degree(final int quad, final int direction) {
+    final int owner = quad * 2 + direction;
+    return edgeOffsets.get(owner + 1) - edgeOffsets.get(owner);
+  }
+
+  @Override
+  public int edgeToken(final int quad, final int direction, final int index) {
+    return edgeTokens.get(edgeOffsets.get(quad * 2 + direction) + index);
+  }
+
+  @Override
+  public int edgeCount(final int quad, final int direction, final int index) {
+    return edgeCounts.get(edgeOffsets.get(quad * 2 + direction) + index);
+  }
+
+  @Override
+  public boolean hasEdge(final int quad, final int direction, final int token) {
+    final int owner = quad * 2 + direction;
+    int low = edgeOffsets.get(owner);
+    int high = edgeOffsets.get(owner + 1) - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midToken = edgeTokens.get(mid);
+      if (midToken < token) {
+        low = mid + 1;
+      } else if (midToken > token) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int wordQuadCount(final int token) {
+    if (token >= vocabularySize) {
+      return 0;
+    }
+    return wordOffsets.get(token + 1) - wordOffsets.get(token);
+  }
+
+  @Override
+  public int wordQuad(final int token, final int index) {
+    return wordQuads.get(wordOffsets.get(token) + index);
+  }
+
+  @Override
+  public long estimateBytes() {
+    return isMapped() ? 0 : bytes();
+  }
+
+  /**
+   * @return How much of the snapshot file this segment is mapped from, or 0 if it is on the heap.
+   */
+  long mappedBytes() {
+    return isMapped() ? bytes() : 0;
+  }
+
+  private long bytes() {
+    return 4L * (quadTokens.capacity() + quadCounts.capacity() + quadTable.capacity()
+        + edgeOffsets.capacity() + edgeTokens.capacity() + edgeCounts.capacity()
+        + wordOffsets.capacity() + wordQuads.capacity()) + quadFlags.capacity();
+  }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Binary snapshot of a trained brain, covering the first {@link #brainLength} bytes of the text
+ * brain file. The model and vocabulary are read directly from a read-only memory map of the file.
+ *
+ * <p>
+ * Layout: a {@value #HEADER_BYTES}-byte header, then each {@link Storage} section, all little
+ * endian. The header has the magic number, format version, how much of the brain file the
+ * snapshot covers, a CRC of all of that part of the brain file, the number of lines, and the
+ * offset and length of each section. A snapshot is stale if the format is different or the brain
+ * file no longer starts with what the snapshot was built from, such as after it is compacted. The
+ * CRC is computed over the whole covered part each time the snapshot is opened or written, which
+ * reads the brain file once more at startup.
+ */
+final class Snapshot {
+  private static final Logger LOG = LoggerFactory.getLogger(Snapshot.class);
+
+  private static final int MAGIC = 0x43424842;
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 4096;
+  private static final int SECTIONS_AT = 32;
+  private static final int SECTION_ALIGNMENT = 64;
+  private static final int CHECK_BUFFER_BYTES = 1024 * 1024;
+
+  final FrozenVocabulary vocabulary;
+  final Segment segment;
+  final long brainLength;
+  final long lines;
+
+  private Snapshot(final FrozenVocabulary vocabulary, final Segment segment,
+      final long brainLength, final long lines) {
+    this.vocabulary = vocabulary;
+    this.segment = segment;
+    this.brainLength = brainLength;
+    this.lines = lines;
+  }
+
+  /**
+   * @return The snapshot, or {@code null} if there is none or it cannot be used.
+   */
+  static Snapshot open(final Path path, final Path brain) throws IOException {
+    if (!Files.exists(path)) {
+      LOG.info(String.format("No brain snapshot at [%s]", path));
+      return null;
+    }
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < HEADER_BYTES) {
+        LOG.warn(String.format("Brain snapshot [%s] is truncated", path));
+        return null;
+      }
+      final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+        LOG.info(String.format("Brain snapshot [%s] is from a different version", path));
+        return null;
+      }
+      final long brainLength = header.getLong(8);
+      if (Files.size(brain) < brainLength || checksum(brain, brainLength) != header.getLong(16)) {
+        LOG.info(String.format("Brain snapshot [%s] is stale", path));
+        return null;
+      }
+
+      final ByteBuffer[] sections = new ByteBuffer[Storage.SECTIONS];
+      for (int i = 0; i < Storage.SECTIONS; i++) {
+        final long offset = header.getLong(SECTIONS_AT + i * 16);
+        final long length = header.getLong(SECTIONS_AT + i * 16 + 8);
+        if (offset < HEADER_BYTES || length < 0 || length > Integer.MAX_VALUE
+            || offset + length > size) {
+          LOG.warn(String.format("Brain snapshot [%s] is corrupt", path));
+          return null;
+        }
+        sections[i] = channel.map(MapMode.READ_ONLY, offset, length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+      }
+      try {
+        return new Snapshot(
+            new FrozenVocabulary(sections[Storage.VOCABULARY_CHARS].asCharBuffer(),
+                sections[Storage.VOCABULARY_OFFSETS].asIntBuffer(),
+                sections[Storage.VOCABULARY_TABLE].asIntBuffer()),
+            new Segment(sections[Storage.QUAD_TOKENS].asIntBuffer(),
+                sections[Storage.QUAD_FLAGS], sections[Storage.QUAD_COUNTS].asIntBuffer(),
+                sections[Storage.QUAD_TABLE].asIntBuffer(),
+                sections[Storage.EDGE_OFFSETS].asIntBuffer(),
+                sections[Storage.EDGE_TOKENS].asIntBuffer(),
+                sections[Storage.EDGE_COUNTS].asIntBuffer(),
+                sections[Storage.WORD_OFFSETS].asIntBuffer(),
+                sections[Storage.WORD_QUADS].asIntBuffer()),
+            brainLength, header.getLong(24));
+      } catch (final IllegalArgumentException | IndexOutOfBoundsException e) {
+        LOG.warn(String.format("Brain snapshot [%s] is corrupt", path), e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Merge the layers into a new snapshot. It is written next to {@code path} and moved into place,
+   * so a crash never leaves a partial snapshot behind.
+   *
+   * @param brainLength How much of the brain file the layers were trained from.
+   * @return The new snapshot, already mapped.
+   */
+  static Snapshot write(final Path path, final Path brain, final long brainLength,
+      final long lines, final Vocabulary vocabulary, final ModelLayer[] layers)
+      throws IOException {
+    final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    final Snapshot snapshot;
+    try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      final FileStorage storage = new FileStorage(channel);
+      final FrozenVocabulary frozen = FrozenVocabulary.freeze(vocabulary, storage);
+      final Segment segment = Segment.merge(layers, vocabulary.size(), storage);
+
+      final MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(0, MAGIC);
+      header.putInt(4, VERSION);
+      header.putLong(8, brainLength);
+      header.putLong(16, checksum(brain, brainLength));
+      header.putLong(24, lines);
+      for (int i = 0; i < Storage.SECTIONS; i++) {
+        header.putLong(SECTIONS_AT + i * 16, storage.offsets[i]);
+        header.putLong(SECTIONS_AT + i * 16 + 8, storage.lengths[i]);
+      }
+      for (final MappedByteBuffer buffer : storage.mapped) {
+        buffer.force();
+      }
+      header.force();
+      snapshot = new Snapshot(frozen, segment, brainLength, lines);
+    }
+    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+    return snapshot;
+  }
+
+  private static long checksum(final Path brain, final long length) throws IOException {
+    final CRC32 crc = new CRC32();
+    try (final FileChannel channel = FileChannel.open(brain, StandardOpenOption.READ)) {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(CHECK_BUFFER_BYTES);
+      long position = 0;
+      while (position < length) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), length - position));
+        final int read = channel.read(buffer, position);
+        if (read < 0) {
+          break;
+        }
+        position += read;
+        buffer.flip();
+        crc.update(buffer);
+      }
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Puts each section in the snapshot file after the header, in the order they are asked for.
+   */
+  private static class FileStorage implements Storage {
+    private final FileChannel channel;
+    private final long[] offsets = new long[SECTIONS];
+    private final long[] lengths = new long[SECTIONS];
+    private final List<MappedByteBuffer> mapped = new ArrayList<>();
+    private long position = HEADER_BYTES;
+
+    FileStorage(final FileChannel channel) {
+      this.channel = channel;
+    }
+
+    private ByteBuffer map(final int section, final long length) throws IOException {
+      final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, position, length);
+      mapped.add(buffer);
+      offsets[section] = position;
+      lengths[section] = length;
+      position = (position + length + SECTION_ALIGNMENT - 1) & -SECTION_ALIGNMENT;
+      return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public IntBuffer ints(final int section, final int count) throws IOException {
+      return map(section, 4L * count).asIntBuffer();
+    }
+
+    @Override
+    public ByteBuffer bytes(final int section, final int count) throws IOException {
+      return map(section, count);
+    }
+
+    @Override
+    public CharBuffer chars(final int section, final int count) throws IOException {
+      return map(section, 2L * count).asCharBuffer();
+    }
+  }
+}
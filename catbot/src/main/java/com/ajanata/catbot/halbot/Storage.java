@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+
+/**
+ * Where frozen brain structures put their arrays: on the heap, or in sections of a snapshot file.
+ */
+interface Storage {
+  int QUAD_TOKENS = 0;
+  int QUAD_FLAGS = 1;
+  int QUAD_COUNTS = 2;
+  int QUAD_TABLE = 3;
+  int EDGE_OFFSETS = 4;
+  int EDGE_TOKENS = 5;
+  int EDGE_COUNTS = 6;
+  int WORD_OFFSETS = 7;
+  int WORD_QUADS = 8;
+  int VOCABULARY_CHARS = 9;
+  int VOCABULARY_OFFSETS = 10;
+  int VOCABULARY_TABLE = 11;
+  int SECTIONS = 12;
+
+  Storage HEAP = new Storage() {
+    @Override
+    public IntBuffer ints(final int section, final int count) {
+      return IntBuffer.allocate(count);
+    }
+
+    @Override
+    public ByteBuffer bytes(final int section, final int count) {
+      return ByteBuffer.allocate(count);
+    }
+
+    @Override
+    public CharBuffer chars(final int section, final int count) {
+      return CharBuffer.allocate(count);
+    }
+  };
+
+  /**
+   * @return A zero-filled buffer for the section.
+   */
+  IntBuffer ints(int section, int count) throws IOException;
+
+  ByteBuffer bytes(int section, int count) throws IOException;
+
+  CharBuffer chars(int section, int count) throws IOException;
+}
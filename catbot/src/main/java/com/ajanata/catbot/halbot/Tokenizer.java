@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Arrays;
+
+
+/**
+ * Splits a sentence into tokens using the same rules as JMegaHal: maximal runs of ASCII letters
+ * and digits are words, and every run of anything else (including whitespace) is a punctuation
+ * token between them. Concatenating the tokens gives back the trimmed sentence.
+ *
+ * <p>
+ * Not thread-safe; buffers are reused between calls.
+ */
+class Tokenizer {
+  private CharSequence sentence;
+  // token i is sentence[bounds[i], bounds[i + 1])
+  private int[] bounds = new int[65];
+  private int[] tokens = new int[64];
+  private int length;
+
+  static boolean isWordChar(final char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+  }
+
+  /**
+   * Find the token boundaries in a sentence. Nothing is interned yet.
+   *
+   * @return The number of tokens.
+   */
+  int split(final String text) {
+    return split(text, 0, text.length());
+  }
+
+  /**
+   * Find the token boundaries in a region of some text. Nothing is interned yet.
+   *
+   * @return The number of tokens.
+   */
+  int split(final CharSequence text, final int from, final int to) {
+    sentence = text;
+    length = 0;
+    int start = from;
+    int end = to;
+    // String.trim()
+    while (start < end && text.charAt(start) <= ' ') {
+      start++;
+    }
+    while (end > start && text.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    if (start == end) {
+      return 0;
+    }
+
+    bounds[0] = start;
+    for (int i = start + 1; i <= end; i++) {
+      if (i == end || isWordChar(text.charAt(i)) != isWordChar(text.charAt(i - 1))) {
+        if (length + 2 > bounds.length) {
+          bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[++length] = i;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Intern the tokens found by the last {@code split()}.
+   *
+   * @return The token IDs. Only the first {@code split()} entries are valid.
+   */
+  int[] intern(final Vocabulary vocabulary) {
+    if (length > tokens.length) {
+      tokens = new int[bounds.length];
+    }
+    for (int i = 0; i < length; i++) {
+      tokens[i] = vocabulary.intern(sentence, bounds[i], bounds[i + 1]);
+    }
+    return tokens;
+  }
+}
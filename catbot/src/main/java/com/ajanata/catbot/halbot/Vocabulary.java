@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Arrays;
+
+
+/**
+ * Interns brain tokens to dense int IDs, assigned in order of first appearance. Lookups can be
+ * done on a region of a larger string, so known tokens are found without allocating. A vocabulary
+ * can extend a {@link FrozenVocabulary}, in which case new IDs start after the frozen ones.
+ *
+ * <p>
+ * Not thread-safe, but see {@link #view()}.
+ */
+class Vocabulary {
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final FrozenVocabulary base;
+  private final int baseSize;
+  private String[] words = new String[INITIAL_CAPACITY];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  // open addressing, linear probing, stores id + 1 so 0 is empty
+  private int[] table = new int[INITIAL_CAPACITY * 2];
+  private int size = 0;
+
+  public Vocabulary() {
+    this(null);
+  }
+
+  public Vocabulary(final FrozenVocabulary base) {
+    this.base = base;
+    this.baseSize = null == base ? 0 : base.size();
+  }
+
+  public int size() {
+    return baseSize + size;
+  }
+
+  public String word(final int id) {
+    return id < baseSize ? base.word(id) : words[id - baseSize];
+  }
+
+  public int intern(final String word) {
+    return intern(word, 0, word.length());
+  }
+
+  /**
+   * @return The ID of the token in the given region of {@code text}, assigning a new ID if needed.
+   */
+  public int intern(final CharSequence text, final int start, final int end) {
+    final int hash = hash(text, start, end);
+    if (null != base) {
+      final int id = base.id(text, start, end, hash);
+      if (id >= 0) {
+        return id;
+      }
+    }
+    final int mask = table.length - 1;
+    int slot = mix(hash) & mask;
+    for (;; slot = (slot + 1) & mask) {
+      final int entry = table[slot];
+      if (0 == entry) {
+        break;
+      }
+      final int id = entry - 1;
+      if (hashes[id] == hash && matches(words[id], text, start, end)) {
+        return baseSize + id;
+      }
+    }
+
+    final int id = size++;
+    if (id == words.length) {
+      words = Arrays.copyOf(words, id * 2);
+      hashes = Arrays.copyOf(hashes, id * 2);
+    }
+    words[id] = text.subSequence(start, end).toString();
+    hashes[id] = hash;
+    table[slot] = id + 1;
+    if (size * 2 > table.length) {
+      rehash();
+    }
+    return baseSize + id;
+  }
+
+  /**
+   * @return A read-only view of the tokens interned so far. Once safely published, it can be used
+   * from other threads while this vocabulary keeps interning: entries below the view's size are
+   * never changed, and a grown array or rehashed table is a copy that leaves the old one alone.
+   */
+  View view() {
+    return new View(base, baseSize, words, hashes, table, size);
+  }
+
+  static final class View {
+    private final FrozenVocabulary base;
+    private final int baseSize;
+    private final String[] words;
+    private final int[] hashes;
+    private final int[] table;
+    private final int size;
+
+    private View(final FrozenVocabulary base, final int baseSize, final String[] words,
+        final int[] hashes, final int[] table, final int size) {
+      this.base = base;
+      this.baseSize = baseSize;
+      this.words = words;
+      this.hashes = hashes;
+      this.table = table;
+      this.size = size;
+    }
+
+    int size() {
+      return baseSize + size;
+    }
+
+    String word(final int id) {
+      return id < baseSize ? base.word(id) : words[id - baseSize];
+    }
+
+    int id(final String word) {
+      return id(word, 0, word.length());
+    }
+
+    /**
+     * @return The ID of the token in the given region of {@code text}, or -1 if it has none.
+     */
+    int id(final CharSequence text, final int start, final int end) {
+      final int hash = hash(text, start, end);
+      if (null != base) {
+        final int id = base.id(text, start, end, hash);
+        if (id >= 0) {
+          return id;
+        }
+      }
+      final int mask = table.length - 1;
+      for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+        final int entry = table[slot];
+        if (0 == entry) {
+          return -1;
+        }
+        // the writer may have added entries after this view was taken, ignore them
+        final int id = entry - 1;
+        if (id < size && hashes[id] == hash && matches(words[id], text, start, end)) {
+          return baseSize + id;
+        }
+      }
+    }
+
+    long estimateBytes() {
+      long bytes = null == base ? 0 : base.estimateBytes();
+      bytes += 4L * (hashes.length + table.length) + 4L * words.length;
+      for (int id = 0; id < size; id++) {
+        bytes += 24 + 16 + 2L * words[id].length();
+      }
+      return bytes;
+    }
+  }
+
+  private void rehash() {
+    final int[] newTable = new int[table.length * 2];
+    final int mask = newTable.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = mix(hashes[id]) & mask;
+      while (0 != newTable[slot]) {
+        slot = (slot + 1) & mask;
+      }
+      newTable[slot] = id + 1;
+    }
+    table = newTable;
+  }
+
+  private static boolean matches(final String word, final CharSequence text, final int start,
+      final int end) {
+    if (word.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if (word.charAt(i) != text.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Same as String.hashCode() over the region.
+  static int hash(final CharSequence text, final int start, final int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + text.charAt(i);
+    }
+    return hash;
+  }
+
+  static int mix(final int hash) {
+    final int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+
+}
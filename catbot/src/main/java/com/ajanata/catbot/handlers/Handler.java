@@ -31,6 +31,10 @@ public interface Handler {
   // perform initialization.
   void init();
 
+  // release resources, called once when the bot shuts down or a reload drops the handler.
+  default void shutdown() {
+  }
+
   String handleCommand(int botId, String fromName, String fromId, String chatId, String trigger,
       String message);
 
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.handlers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CircuitBreaker;
+import com.ajanata.catbot.ResultCache;
+
+
+/**
+ * Reports the state of the bot's shared machinery, such as circuit breakers and caches, to
+ * operators.
+ */
+public class StatusHandler implements Handler {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StatusHandler.class);
+
+  private final CatBot catbot;
+
+  public StatusHandler(final CatBot catbot) {
+    this.catbot = catbot;
+  }
+
+  public static Handler createInstance(final CatBot catbot, final int handlerId) {
+    LOG.trace(String.format("createInstance(%d)", handlerId));
+    return new StatusHandler(catbot);
+  }
+
+  @Override
+  public void init() {
+    // do-nothing
+  }
+
+  @Override
+  public String handleCommand(final int botId, final String fromName, final String fromId,
+      final String chatId, final String trigger, final String message) {
+    final StringBuilder builder = new StringBuilder();
+    for (final CircuitBreaker breaker : catbot.getCircuitBreakers()) {
+      builder.append(breaker.describe()).append("\n");
+    }
+    for (final ResultCache cache : catbot.getResultCaches()) {
+      builder.append(cache.describe()).append("\n");
+    }
+    if (0 == builder.length()) {
+      return "Nothing to report.";
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public String getDescription() {
+    return "Reports the status of external services.";
+  }
+}
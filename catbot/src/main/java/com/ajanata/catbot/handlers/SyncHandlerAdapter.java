@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.handlers;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+
+/**
+ * Presents a synchronous {@link Handler} as an {@link AsyncHandler}. See
+ * {@link AsyncHandler#adapt(Handler)}.
+ */
+class SyncHandlerAdapter implements AsyncHandler {
+  private final Handler handler;
+
+  SyncHandlerAdapter(final Handler handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public void init() {
+    handler.init();
+  }
+
+  @Override
+  public CompletionStage<String> handleCommandAsync(final int botId, final String fromName,
+      final String fromId, final String chatId, final String trigger, final String message) {
+    final CompletableFuture<String> future = new CompletableFuture<>();
+    try {
+      future.complete(handler.handleCommand(botId, fromName, fromId, chatId, trigger, message));
+    } catch (final RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  @Override
+  public String handleCommand(final int botId, final String fromName, final String fromId,
+      final String chatId, final String trigger, final String message) {
+    return handler.handleCommand(botId, fromName, fromId, chatId, trigger, message);
+  }
+
+  @Override
+  public String getDescription() {
+    return handler.getDescription();
+  }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.handlers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CircuitBreaker;
+import com.ajanata.catbot.ResultCache;
+import com.ajanata.catbot.SingleFlight;
+import com.wolfram.alpha.WAEngine;
+import com.wolfram.alpha.WAException;
+import com.wolfram.alpha.WAPlainText;
+import com.wolfram.alpha.WAPod;
+import com.wolfram.alpha.WAQuery;
+import com.wolfram.alpha.WAQueryResult;
+import com.wolfram.alpha.WASubpod;
+
+
+public class WolframAlphaHandler implements AsyncHandler {
+
+  private static final String PROP_APP_ID = "wolframalpha.api.appid";
+  private static final String BREAKER_NAME = "wolframalpha";
+  private static final String CACHE_NAME = "wolframalpha";
+  private static final String PROP_VOLATILE_TTL = ResultCache.PROP_CACHES + "." + CACHE_NAME
+      + ".volatile.ttl.seconds";
+  // Queries mentioning any of these have answers that change quickly, and get a short TTL.
+  private static final Set<String> VOLATILE_WORDS = new HashSet<>(Arrays.asList("time", "now",
+      "today", "tomorrow", "yesterday", "date", "weather", "temperature", "price", "stock",
+      "current", "latest"));
+
+  private static final String UNAVAILABLE =
+      "Wolfram Alpha isn't answering right now. Try again later.";
+
+  private static final Logger LOG = LoggerFactory.getLogger(WolframAlphaHandler.class);
+
+  private static final SingleFlight<String, String> IN_FLIGHT = new SingleFlight<>();
+
+  private final CatBot catbot;
+  private final WAEngine engine = new WAEngine();
+  private CircuitBreaker breaker;
+  private ResultCache cache;
+  private long volatileTtl;
+  private boolean initialized = false;
+
+  public WolframAlphaHandler(final CatBot catbot) {
+    this.catbot = catbot;
+  }
+
+  public static Handler createInstance(final CatBot catbot, final int handlerId) {
+    LOG.trace(String.format("createInstance(%d)", handlerId));
+    return new WolframAlphaHandler(catbot);
+  }
+
+  @Override
+  public void init() {
+    if (initialized) {
+      return;
+    }
+
+    engine.setAppID(catbot.getProperty(PROP_APP_ID));
+    engine.addFormat("plaintext");
+    breaker = catbot.getCircuitBreaker(BREAKER_NAME);
+    cache = catbot.getResultCache(CACHE_NAME);
+    volatileTtl = TimeUnit.SECONDS.toMillis(catbot.getLongProperty(PROP_VOLATILE_TTL, 60));
+    initialized = true;
+  }
+
+  @Override
+  public CompletionStage<String> handleCommandAsync(final int botId, final String fromName,
+      final String fromId, final String chatId, final String trigger, final String message) {
+    if (!initialized) {
+      throw new IllegalStateException("Handler not initialized.");
+    }
+    LOG.trace(String.format("Querying Wolfram Alpha for %s in %s: %s", fromName, chatId, message));
+
+    final String key = normalize(message);
+    final String cached = cache.getFromMemory(key);
+    if (null != cached) {
+      LOG.trace("Cache hit.");
+      return CompletableFuture.completedFuture(cached);
+    }
+    if (breaker.isRejecting()) {
+      LOG.trace("Circuit breaker open, not querying.");
+      return CompletableFuture.completedFuture(String.format("I'm sorry, @%s, but %s", fromName,
+          UNAVAILABLE));
+    }
+
+    // concurrent identical queries from any channel share one request, which checks the disk
+    // cache first
+    return IN_FLIGHT.executeAsync(key,
+        () -> catbot.supplyIo(() -> {
+          final String stored = cache.get(key);
+          return null != stored ? stored : query(key, message);
+        }))
+        .handle((response, error) -> {
+          if (null == error) {
+            return response;
+          }
+          final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+          if (cause instanceof QueryFailedException) {
+            return String.format("I'm sorry, @%s, but %s", fromName, cause.getMessage());
+          } else if (cause instanceof RejectedExecutionException) {
+            return String.format("I'm sorry, @%s, but I'm too busy to ask Wolfram Alpha right "
+                + "now. Try again later.", fromName);
+          }
+          throw new CompletionException(cause);
+        });
+  }
+
+  private String query(final String key, final String message) {
+    if (!breaker.tryAcquire()) {
+      LOG.trace("Circuit breaker open, not querying.");
+      throw new QueryFailedException(UNAVAILABLE);
+    }
+
+    final WAQueryResult result;
+    final long start = System.nanoTime();
+    try {
+      final WAQuery query = engine.createQuery(message);
+      result = engine.performQuery(query);
+    } catch (final WAException e) {
+      breaker.onFailure(System.nanoTime() - start);
+      LOG.error(String.format("Unable to query Wolfram Alpha: %s", message), e);
+      throw new QueryFailedException("I can't query Wolfram Alpha right now: " + e.getMessage());
+    } catch (final RuntimeException e) {
+      // every acquired call must be reported, or a half-open probe is never given back
+      breaker.onFailure(System.nanoTime() - start);
+      throw e;
+    }
+    if (result.isError()) {
+      breaker.onFailure(System.nanoTime() - start);
+      LOG.error(String.format("Wolfram Alpha returned error %d for %s: %s",
+          result.getErrorCode(), message, result.getErrorMessage()));
+      throw new QueryFailedException("I can't query Wolfram Alpha right now: "
+          + result.getErrorMessage());
+    }
+    breaker.onSuccess(System.nanoTime() - start);
+
+    if (!result.isSuccess()) {
+      LOG.trace("Error result.");
+      return "Query was not understood; no results available.";
+    }
+
+    final StringBuilder builder = new StringBuilder();
+
+    for (final WAPod pod : result.getPods()) {
+      LOG.trace(String.format("Pod (%s): %s", pod.getClass().getSimpleName(), pod.getTitle()));
+      if (pod.isError()) {
+        // TODO better logging?
+        LOG.trace(String.format("Error pod (%s): %s", pod.getClass().getSimpleName(), pod));
+      } else {
+        for (final WASubpod subpod : pod.getSubpods()) {
+          LOG.trace(String.format("Subpod (%s): %s", subpod.getClass().getSimpleName(),
+              subpod.getTitle()));
+          for (final Object element : subpod.getContents()) {
+            LOG.trace(String
+                .format("Element (%s): %s", element.getClass().getSimpleName(), element));
+            if (element instanceof WAPlainText) {
+              final WAPlainText textElement = (WAPlainText) element;
+              final String text = textElement.getText();
+              LOG.trace(String.format("Plain text element: %s", text));
+              if (null != text && !text.isEmpty()) {
+                if (null != subpod.getTitle() && !subpod.getTitle().isEmpty()) {
+                  builder.append(subpod.getTitle());
+                } else {
+                  builder.append(pod.getTitle());
+                }
+                builder.append(": ").append(text).append("\n");
+              }
+            }
+          }
+        }
+      }
+    }
+
+    LOG.trace("Query results complete.");
+    final String formatted = builder.toString();
+    cache.put(key, formatted, isVolatile(key) ? volatileTtl : cache.getDefaultTtl());
+    return formatted;
+  }
+
+  // Lowercase and collapse whitespace, so trivially different spellings share a cache entry.
+  static String normalize(final String query) {
+    final StringBuilder builder = new StringBuilder(query.length());
+    boolean space = false;
+    for (int i = 0; i < query.length(); i++) {
+      final char c = query.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = builder.length() > 0;
+      } else {
+        if (space) {
+          builder.append(' ');
+          space = false;
+        }
+        builder.append(Character.toLowerCase(c));
+      }
+    }
+    return builder.toString();
+  }
+
+  // Whole words only, so "snow" and "lifetime" don't count as "now" and "time".
+  static boolean isVolatile(final String normalizedQuery) {
+    for (final String word : normalizedQuery.split("\\W+")) {
+      if (VOLATILE_WORDS.contains(word)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String getDescription() {
+    return "Queries Wolfram Alpha. A query parameter is required.";
+  }
+
+  private static class QueryFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    QueryFailedException(final String message) {
+      super(message);
+    }
+  }
+}
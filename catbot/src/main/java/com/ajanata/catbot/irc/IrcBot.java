@@ -24,6 +24,7 @@
 package com.ajanata.catbot.irc;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -41,9 +42,9 @@ import org.slf4j.LoggerFactory;
 
 import com.ajanata.catbot.Bot;
 import com.ajanata.catbot.CatBot;
-import com.ajanata.catbot.filters.Filter;
-import com.ajanata.catbot.filters.Filter.FilterResult;
-import com.ajanata.catbot.handlers.Handler;
+import com.ajanata.catbot.InboundMessage;
+import com.ajanata.catbot.OutboundScheduler;
+import com.ajanata.catbot.RetryScheduler;
 import com.diffplug.common.base.Errors;
 
 
@@ -59,8 +60,19 @@ public class IrcBot extends ListenerAdapter implements Bot {
   private static final String PROP_USER_MODES = "user.modes";
   private static final String PROP_TRIGGER_PREFIX = "trigger.prefix";
 
+  // servers' flood control limits the whole connection, typically to a burst of 5 then one line
+  // every 2 seconds
+  private static final String DEFAULT_LIMIT_DESTINATION = "";
+  private static final String DEFAULT_LIMIT_SHARED = "5/10";
+  // lines are at most 512 bytes with the CRLF, and servers add a :nick!user@host prefix when
+  // relaying them, so leave room for that; merged lengths are bytes of the whole PRIVMSG line
+  private static final int MAX_LINE_BYTES = 512 - 2 - 100;
+
   private final CatBot catbot;
   private final int botId;
+  private final OutboundScheduler.Limits limits;
+  private final OutboundScheduler.Coalescing coalescing;
+  private volatile String triggerPrefix;
 
   private Set<String> channels;
   private PircBotX irc;
@@ -69,6 +81,12 @@ public class IrcBot extends ListenerAdapter implements Bot {
   public IrcBot(final CatBot catbot, final int botId) {
     this.catbot = catbot;
     this.botId = botId;
+    this.limits = OutboundScheduler.Limits.forBot(catbot.getConfig().bot(botId),
+        DEFAULT_LIMIT_DESTINATION, DEFAULT_LIMIT_SHARED);
+    this.coalescing = OutboundScheduler.Coalescing.forBot(catbot.getConfig().bot(botId),
+        MAX_LINE_BYTES, " | ");
+    this.triggerPrefix = catbot.getConfig().bot(botId).get(PROP_TRIGGER_PREFIX);
+    catbot.addConfigListener(config -> triggerPrefix = config.bot(botId).get(PROP_TRIGGER_PREFIX));
   }
 
   @Override
@@ -76,6 +94,11 @@ public class IrcBot extends ListenerAdapter implements Bot {
     return LOG;
   }
 
+  @Override
+  public RetryScheduler retryScheduler() {
+    return catbot.getRetryScheduler();
+  }
+
   @Override
   public boolean login() {
     LOG.info("Logging into IRC...");
@@ -101,6 +124,8 @@ public class IrcBot extends ListenerAdapter implements Bot {
         .setAutoReconnect(true)
         .setAutoReconnectDelay((int) TimeUnit.SECONDS.toMillis(5))
         .setAutoReconnectAttempts(100)
+        // messages are paced by the outbound scheduler
+        .setMessageDelay(0)
         .addAutoJoinChannels(channels)
         .addListener(this)
         .buildConfiguration();
@@ -149,44 +174,26 @@ public class IrcBot extends ListenerAdapter implements Bot {
     final String text = event.getMessage();
     final String channel = event.getChannel().getName();
     final String fromName = event.getUser().getNick();
-    if (text.startsWith(catbot.getBotProperty(botId, PROP_TRIGGER_PREFIX))) {
-      LOG.trace(String.format("Message with trigger prefix from %s to %s: %s", fromName,
-          event.getChannelSource(), text));
-
-      final String[] parts = text.split("\\s+");
-      if (parts.length > 0) {
-        final String trigger = parts[0].substring(1);
-        final String[] params = new String[parts.length - 1];
-        System.arraycopy(parts, 1, params, 0, params.length);
-
-        final Handler handler = catbot.getHandlers().get(trigger);
-        if (null != handler) {
-          final String response = handler.handleCommand(botId, fromName, fromName, channel,
-              trigger, String.join(" ", params));
-          if (null != response) {
-            retry(Errors.rethrow().wrap(() -> {
-              event.getBot().send().message(channel, response.replace('\n', ' '));
-            }));
-          }
-        }
-      }
-    } else {
-      for (final Filter filter : catbot.getFilters()) {
-        final FilterResult reply = filter.filterMessage(botId, fromName, fromName, channel,
-            text);
-        if (null != reply) {
+    final InboundMessage message = new InboundMessage(botId, fromName, fromName, channel, text,
+        (reply, replyToPrevious) -> {
           final String replyText;
-          if (reply.replyToPrevious) {
-            replyText = fromName + ": " + reply.message;
+          if (replyToPrevious) {
+            replyText = fromName + ": " + reply;
           } else {
-            replyText = reply.message;
+            replyText = reply;
           }
-          retry(Errors.rethrow().wrap(() -> {
-            event.getBot().send().message(channel, replyText.replace('\n', ' '));
-          }));
-          break;
-        }
-      }
-    }
+          final String destination = "irc." + botId + "." + channel;
+          catbot.getOutboundScheduler().send(destination, "irc." + botId, limits,
+              coalescing.measuredBy(IrcBot::utf8Length, utf8Length("PRIVMSG " + channel + " :")),
+              replyText.replace('\n', ' '), true, (line, retries) -> retry(retries,
+                  destination, Errors.rethrow().wrap(() -> {
+                    event.getBot().send().message(channel, line);
+                  })));
+        });
+    catbot.getPipeline().submit(message, triggerPrefix);
+  }
+
+  private static int utf8Length(final String text) {
+    return text.getBytes(StandardCharsets.UTF_8).length;
   }
 }
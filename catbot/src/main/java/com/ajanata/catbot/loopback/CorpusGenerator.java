@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.loopback;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Generates a reproducible corpus of chat-like lines. Words are made up, and drawn from a Zipf
+ * distribution so a few are very common and most are rare, as in real chat logs. The same seed
+ * always gives the same corpus.
+ */
+public final class CorpusGenerator {
+  public static final long DEFAULT_SEED = 1;
+  public static final int DEFAULT_VOCABULARY = 20000;
+
+  private static final String LETTERS = "etaoinshrdlucmfwypvbgkqjxz";
+  private static final int MIN_WORDS = 3;
+  private static final int MAX_WORDS = 20;
+
+  private final Random random;
+  private final String[] words;
+  // cumulative Zipf weights, for a binary search per word
+  private final double[] cumulative;
+
+  /**
+   * @param vocabularySize How many distinct words to draw from.
+   */
+  public CorpusGenerator(final long seed, final int vocabularySize) {
+    random = new Random(seed);
+    words = new String[vocabularySize];
+    cumulative = new double[vocabularySize];
+    double total = 0;
+    for (int i = 0; i < vocabularySize; i++) {
+      words[i] = word(i);
+      total += 1.0 / (i + 1);
+      cumulative[i] = total;
+    }
+  }
+
+  // a distinct word per rank, shorter for the common ones
+  private static String word(final int rank) {
+    final StringBuilder builder = new StringBuilder();
+    int n = rank;
+    do {
+      builder.append(LETTERS.charAt(n % LETTERS.length()));
+      n /= LETTERS.length();
+    } while (n > 0);
+    if (builder.length() < 2) {
+      builder.append('a');
+    }
+    return builder.toString();
+  }
+
+  public String word() {
+    final double target = random.nextDouble() * cumulative[cumulative.length - 1];
+    int low = 0;
+    int high = cumulative.length - 1;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (cumulative[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return words[low];
+  }
+
+  public String line() {
+    final int length = MIN_WORDS + random.nextInt(MAX_WORDS - MIN_WORDS + 1);
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        builder.append(' ');
+      }
+      builder.append(word());
+    }
+    return builder.append(random.nextInt(8) == 0 ? '?' : '.').toString();
+  }
+
+  public List<String> lines(final int count) {
+    final List<String> lines = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      lines.add(line());
+    }
+    return lines;
+  }
+
+  /**
+   * Write a brain file of the given number of lines.
+   */
+  public Path write(final Path path, final int count) throws IOException {
+    try (final BufferedWriter writer = Files.newBufferedWriter(path, Charset.defaultCharset())) {
+      for (int i = 0; i < count; i++) {
+        writer.write(line());
+        writer.newLine();
+      }
+    }
+    return path;
+  }
+
+  /**
+   * Write a corpus to a file: {@code <path> <lines> [seed] [vocabulary size]}.
+   */
+  public static void main(final String[] args) throws IOException {
+    final long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+    final int vocabulary = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_VOCABULARY;
+    new CorpusGenerator(seed, vocabulary).write(Paths.get(args[0]), Integer.parseInt(args[1]));
+  }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.loopback;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.Bot;
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CommandRouter;
+import com.ajanata.catbot.Config;
+import com.ajanata.catbot.InboundMessage;
+import com.ajanata.catbot.MessagePipeline.Priority;
+import com.ajanata.catbot.OutboundScheduler;
+import com.ajanata.catbot.RetryScheduler;
+import com.ajanata.catbot.metrics.LatencyHistogram;
+import com.ajanata.catbot.metrics.Timer;
+
+
+/**
+ * A chat platform inside the process, for load testing. Messages are fed into the pipeline at a
+ * fixed rate, across many chats and users, whether or not the bot keeps up. They are either
+ * replayed from a file of recorded traffic, one {@code chat<TAB>user<TAB>text} or bare text per
+ * line, or generated: chatter, mentions of the bot's nickname, trigger commands and
+ * {@code .cleverbot} messages, in configured proportions. Replies are sent through the outbound
+ * and retry schedulers like any other bot's, unlimited unless limits are configured, and the time
+ * from submitting a message to its first reply being sent is recorded. Throughput, shed messages,
+ * messages without a reply and the latency distribution of those with one are logged
+ * periodically, for the interval since the last report, and for the whole run when it finishes.
+ */
+public class LoopbackBot implements Bot {
+  private static final Logger LOG = LoggerFactory.getLogger(LoopbackBot.class);
+
+  // config property names
+  public static final String PROP_TRIGGER_PREFIX = "trigger.prefix";
+  public static final String PROP_RATE = "rate";
+  public static final String PROP_CHATS = "chats";
+  public static final String PROP_USERS = "users";
+  public static final String PROP_DURATION = "duration.seconds";
+  public static final String PROP_TRAFFIC_PATH = "traffic.path";
+  public static final String PROP_COMMAND_FRACTION = "command.fraction";
+  public static final String PROP_MENTION_FRACTION = "mention.fraction";
+  public static final String PROP_CLEVERBOT_FRACTION = "cleverbot.fraction";
+  public static final String PROP_SEED = "seed";
+  public static final String PROP_REPORT_INTERVAL = "report.seconds";
+  public static final String PROP_EXIT_WHEN_DONE = "exit.when.done";
+
+  /** Longest the sending thread sleeps, so it catches up in small batches. */
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final CatBot catbot;
+  private final int botId;
+  private final OutboundScheduler.Limits limits;
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder shed = new LongAdder();
+  // messages replied to, at least once
+  private final LongAdder replies = new LongAdder();
+  private Timer latency;
+  private Thread thread;
+  private ScheduledFuture<?> reporter;
+  private volatile boolean running;
+  private volatile long behind;
+  private long startedAt;
+  private long stoppedAt;
+  private long lastReportAt;
+  private long lastSent;
+  private long lastReplies;
+  private LatencyHistogram.Snapshot startLatency;
+  private LatencyHistogram.Snapshot lastLatency;
+
+  // used only by the sending thread
+  private Random random;
+  private CorpusGenerator generator;
+  private List<String> recorded;
+  private int nextRecorded = 0;
+  private CommandRouter router;
+  private String[] triggers;
+
+  public LoopbackBot(final CatBot catbot, final int botId) {
+    this.catbot = catbot;
+    this.botId = botId;
+    this.limits = OutboundScheduler.Limits.forBot(catbot.getConfig().bot(botId), "", "");
+  }
+
+  @Override
+  public Logger logger() {
+    return LOG;
+  }
+
+  @Override
+  public RetryScheduler retryScheduler() {
+    return catbot.getRetryScheduler();
+  }
+
+  @Override
+  public synchronized boolean login() {
+    if (running) {
+      return true;
+    }
+    final Config.Section config = catbot.getConfig().bot(botId);
+    final long seed = config.getLong(PROP_SEED, CorpusGenerator.DEFAULT_SEED);
+    random = new Random(seed);
+    generator = new CorpusGenerator(seed, CorpusGenerator.DEFAULT_VOCABULARY);
+    final String trafficPath = config.get(PROP_TRAFFIC_PATH);
+    if (null != trafficPath && !trafficPath.isEmpty()) {
+      try {
+        recorded = Files.readAllLines(Paths.get(trafficPath), Charset.defaultCharset());
+      } catch (final IOException e) {
+        LOG.error(String.format("Unable to read recorded traffic from [%s]", trafficPath), e);
+        return false;
+      }
+      if (recorded.isEmpty()) {
+        LOG.error(String.format("No recorded traffic in [%s]", trafficPath));
+        return false;
+      }
+    }
+    latency = catbot.getMetrics().timer("loopback." + botId + ".reply");
+    startLatency = latency.snapshot();
+    lastLatency = startLatency;
+
+    running = true;
+    startedAt = System.nanoTime();
+    lastReportAt = startedAt;
+    thread = new Thread(this::run, "loopback-" + botId);
+    thread.setDaemon(true);
+    thread.start();
+    final long interval = config.getLong(PROP_REPORT_INTERVAL, 10);
+    reporter = catbot.getRetryScheduler().getExecutor().scheduleAtFixedRate(() -> report(false),
+        interval, interval, TimeUnit.SECONDS);
+    LOG.info(String.format("Loopback %d sending %s messages per second", botId,
+        config.get(PROP_RATE, "100")));
+    return true;
+  }
+
+  // Open loop: sends whatever is due by now, then sleeps until the next message is due.
+  private void run() {
+    final Config.Section config = catbot.getConfig().bot(botId);
+    final double rate = config.getDouble(PROP_RATE, 100);
+    final long durationNanos = TimeUnit.SECONDS.toNanos(config.getLong(PROP_DURATION, 0));
+    long count = 0;
+    while (running) {
+      final long elapsed = System.nanoTime() - startedAt;
+      if (durationNanos > 0 && elapsed >= durationNanos) {
+        break;
+      }
+      final long due = (long) (elapsed * rate / TimeUnit.SECONDS.toNanos(1));
+      behind = Math.max(0, due - count);
+      for (; count < due && running; count++) {
+        send(config);
+      }
+      LockSupport.parkNanos(Math.min(MAX_PARK_NANOS,
+          (long) (TimeUnit.SECONDS.toNanos(1) / rate)));
+    }
+    if (running) {
+      finish(config);
+    }
+  }
+
+  private void finish(final Config.Section config) {
+    stoppedAt = System.nanoTime();
+    // give the last replies a moment to arrive
+    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+    reporter.cancel(false);
+    report(true);
+    if (config.getBoolean(PROP_EXIT_WHEN_DONE, false)) {
+      System.exit(0);
+    }
+  }
+
+  private void send(final Config.Section config) {
+    final String chat;
+    final String user;
+    final String text;
+    if (null != recorded) {
+      final String line = recorded.get(nextRecorded);
+      nextRecorded = (nextRecorded + 1) % recorded.size();
+      final String[] parts = line.split("\t", 3);
+      if (3 == parts.length) {
+        chat = parts[0];
+        user = parts[1];
+        text = parts[2];
+      } else {
+        chat = "#chat" + random.nextInt(config.getInt(PROP_CHATS, 100));
+        user = "user" + random.nextInt(config.getInt(PROP_USERS, 1000));
+        text = line;
+      }
+    } else {
+      chat = "#chat" + random.nextInt(config.getInt(PROP_CHATS, 100));
+      user = "user" + random.nextInt(config.getInt(PROP_USERS, 1000));
+      text = generate(config);
+    }
+
+    final long start = System.nanoTime();
+    final AtomicBoolean replied = new AtomicBoolean();
+    final InboundMessage message = new InboundMessage(botId, user, user, chat, text,
+        (reply, replyToPrevious) -> {
+          final String destination = "loopback." + botId + "." + chat;
+          catbot.getOutboundScheduler().send(destination, "loopback." + botId, limits,
+              retries -> retry(retries, destination, () -> {
+                if (replied.compareAndSet(false, true)) {
+                  latency.recordSince(start, false);
+                  replies.increment();
+                }
+              }));
+        });
+    sent.increment();
+    if (!catbot.getPipeline().submit(message, config.get(PROP_TRIGGER_PREFIX, "."))) {
+      shed.increment();
+    }
+  }
+
+  private String generate(final Config.Section config) {
+    final double kind = random.nextDouble();
+    final double commands = config.getDouble(PROP_COMMAND_FRACTION, 0.1);
+    final double mentions = commands + config.getDouble(PROP_MENTION_FRACTION, 0.05);
+    final double cleverbot = mentions + config.getDouble(PROP_CLEVERBOT_FRACTION, 0.01);
+    if (kind < commands) {
+      final CommandRouter current = catbot.getRouter();
+      if (current != router) {
+        router = current;
+        triggers = current.getRoutes().keySet().toArray(new String[0]);
+      }
+      if (triggers.length > 0) {
+        return config.get(PROP_TRIGGER_PREFIX, ".") + triggers[random.nextInt(triggers.length)]
+            + " " + generator.line();
+      }
+    } else if (kind < mentions) {
+      return config.get(CatBot.PROP_NICKNAME, "catbot") + ": " + generator.line();
+    } else if (kind < cleverbot) {
+      return ".cleverbot " + generator.line();
+    }
+    return generator.line();
+  }
+
+  private synchronized void report(final boolean last) {
+    final long now = System.nanoTime();
+    final long totalSent = sent.sum();
+    final long totalShed = shed.sum();
+    final long totalReplies = replies.sum();
+    // over the whole run, rates are for the time spent sending
+    final double seconds = (double) (last ? stoppedAt - startedAt : now - lastReportAt)
+        / TimeUnit.SECONDS.toNanos(1);
+    final long sentCount = last ? totalSent : totalSent - lastSent;
+    final long replyCount = last ? totalReplies : totalReplies - lastReplies;
+    final LatencyHistogram.Snapshot total = latency.snapshot();
+    final LatencyHistogram.Snapshot snapshot = total.since(last ? startLatency : lastLatency);
+    LOG.info(String.format("Loopback %d %s: sent %d (%.1f/s), replied to %d (%.1f/s), %d behind "
+        + "schedule; so far %d shed at ingress, %d commands and %d chatter shed in the pipeline, "
+        + "%d accepted at ingress with no reply yet; latency to the first reply, of the %d "
+        + "replied to, p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms", botId,
+        last ? "finished, over the run" : String.format("over the last %.0f s", seconds),
+        sentCount, sentCount / seconds, replyCount, replyCount / seconds, behind, totalShed,
+        catbot.getPipeline().getDropped(Priority.COMMAND),
+        catbot.getPipeline().getDropped(Priority.CHATTER),
+        Math.max(0, totalSent - totalShed - totalReplies), snapshot.getCount(),
+        snapshot.getQuantileMillis(0.5), snapshot.getQuantileMillis(0.99),
+        snapshot.getQuantileMillis(0.999),
+        (double) snapshot.getMaxNanos() / TimeUnit.MILLISECONDS.toNanos(1)));
+    lastReportAt = now;
+    lastSent = totalSent;
+    lastReplies = totalReplies;
+    lastLatency = total;
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    // not joined, the sending thread may be the one exiting the process
+    running = false;
+    if (null != reporter) {
+      reporter.cancel(false);
+    }
+  }
+}
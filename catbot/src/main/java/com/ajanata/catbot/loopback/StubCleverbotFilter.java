@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.loopback;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CircuitBreaker;
+import com.ajanata.catbot.filters.AsyncFilter;
+import com.ajanata.catbot.filters.Filter;
+
+
+/**
+ * Stands in for {@link com.ajanata.catbot.filters.CleverbotFilter} without the network. Like the
+ * real filter, it only answers {@code .cleverbot} messages, one at a time, each taking a random
+ * time around {@code latency.ms} and failing with probability {@code failure.rate}.
+ */
+public class StubCleverbotFilter implements AsyncFilter {
+  private static final Logger LOG = LoggerFactory.getLogger(StubCleverbotFilter.class);
+
+  private static final String BREAKER_NAME = "cleverbot";
+  private static final String UNAVAILABLE = "Cleverbot isn't talking to me right now.";
+  private static final String BUSY = "I'm too busy to ask Cleverbot right now.";
+  private static final String TRIGGER = ".cleverbot ";
+
+  private final CatBot catbot;
+  private final int filterId;
+  private CircuitBreaker breaker;
+
+  public StubCleverbotFilter(final CatBot catbot, final int filterId) {
+    this.catbot = catbot;
+    this.filterId = filterId;
+  }
+
+  public static Filter createInstance(final CatBot catbot, final int filterId) {
+    LOG.trace(String.format("createInstance(%d)", filterId));
+    return new StubCleverbotFilter(catbot, filterId);
+  }
+
+  @Override
+  public void init() {
+    breaker = catbot.getCircuitBreaker(BREAKER_NAME);
+  }
+
+  // The real session is shared, so only one thought at a time.
+  private synchronized String think(final String thought) {
+    if (!breaker.tryAcquire()) {
+      return UNAVAILABLE;
+    }
+    final long start = System.nanoTime();
+    if (StubService.call(catbot.getConfig().filter(filterId))) {
+      breaker.onSuccess(System.nanoTime() - start);
+      return "Why do you say " + thought + "?";
+    }
+    breaker.onFailure(System.nanoTime() - start);
+    return UNAVAILABLE;
+  }
+
+  @Override
+  public CompletionStage<FilterResult> filterMessageAsync(final int botId, final String fromName,
+      final String fromId, final String chatId, final String message) {
+    if (message.startsWith(TRIGGER)) {
+      final String prompt = message.substring(TRIGGER.length());
+      return catbot.supplyIo(() -> new FilterResult(think(prompt), true))
+          .exceptionally(error -> {
+            if (error instanceof RejectedExecutionException) {
+              return new FilterResult(BUSY, true);
+            }
+            throw new CompletionException(error);
+          });
+    } else {
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+}
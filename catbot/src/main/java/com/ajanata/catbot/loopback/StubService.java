@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.loopback;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.ajanata.catbot.Config;
+
+
+/**
+ * A pretend remote call, shared by the stub handlers and filters.
+ */
+final class StubService {
+  // config property names
+  static final String PROP_LATENCY = "latency.ms";
+  static final String PROP_FAILURE_RATE = "failure.rate";
+
+  private StubService() {
+  }
+
+  /**
+   * Block for an exponentially distributed time with the configured mean, like a remote call.
+   *
+   * @return {@code false} if the call failed.
+   */
+  static boolean call(final Config.Section config) {
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    final double mean = config.getDouble(PROP_LATENCY, 200);
+    final long nanos = (long) (-Math.log(1 - random.nextDouble()) * mean
+        * TimeUnit.MILLISECONDS.toNanos(1));
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return random.nextDouble() >= config.getDouble(PROP_FAILURE_RATE, 0);
+  }
+}
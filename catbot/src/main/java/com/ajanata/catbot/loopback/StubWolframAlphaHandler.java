@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.loopback;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CircuitBreaker;
+import com.ajanata.catbot.handlers.AsyncHandler;
+import com.ajanata.catbot.handlers.Handler;
+
+
+/**
+ * Stands in for {@link com.ajanata.catbot.handlers.WolframAlphaHandler} without the network: each
+ * query occupies an I/O thread for a random time around {@code latency.ms}, and fails with
+ * probability {@code failure.rate}, behind the same circuit breaker as the real handler.
+ */
+public class StubWolframAlphaHandler implements AsyncHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(StubWolframAlphaHandler.class);
+
+  private static final String BREAKER_NAME = "wolframalpha";
+
+  private final CatBot catbot;
+  private final int handlerId;
+  private CircuitBreaker breaker;
+
+  public StubWolframAlphaHandler(final CatBot catbot, final int handlerId) {
+    this.catbot = catbot;
+    this.handlerId = handlerId;
+  }
+
+  public static Handler createInstance(final CatBot catbot, final int handlerId) {
+    LOG.trace(String.format("createInstance(%d)", handlerId));
+    return new StubWolframAlphaHandler(catbot, handlerId);
+  }
+
+  @Override
+  public void init() {
+    breaker = catbot.getCircuitBreaker(BREAKER_NAME);
+  }
+
+  @Override
+  public CompletionStage<String> handleCommandAsync(final int botId, final String fromName,
+      final String fromId, final String chatId, final String trigger, final String message) {
+    return catbot.supplyIo(() -> {
+      if (!breaker.tryAcquire()) {
+        return String.format("I'm sorry, @%s, but Wolfram Alpha isn't answering right now.",
+            fromName);
+      }
+      final long start = System.nanoTime();
+      if (StubService.call(catbot.getConfig().handler(handlerId))) {
+        breaker.onSuccess(System.nanoTime() - start);
+        return "Input interpretation: " + message + "\nResult: 42\n";
+      }
+      breaker.onFailure(System.nanoTime() - start);
+      return String.format("I'm sorry, @%s, but I can't query Wolfram Alpha right now.",
+          fromName);
+    }).exceptionally(error -> {
+      if (error instanceof RejectedExecutionException) {
+        return String.format("I'm sorry, @%s, but I'm too busy to ask Wolfram Alpha right now.",
+            fromName);
+      }
+      throw new CompletionException(error);
+    });
+  }
+
+  @Override
+  public String getDescription() {
+    return "Pretends to query Wolfram Alpha.";
+  }
+}
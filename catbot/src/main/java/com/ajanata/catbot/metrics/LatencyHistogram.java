@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Lock-free histogram of durations in nanoseconds. Buckets are log-linear: each power of two is
+ * split into {@value #SUB_BUCKETS} equal buckets, so a recorded value is off by at most 1/16th,
+ * from a nanosecond up to about 18 minutes. Recording is one array index computation and three
+ * uncontended atomic adds, with no allocation.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** Values from 2^MAX_EXPONENT nanoseconds up all land in the last bucket. */
+  private static final int MAX_EXPONENT = 40;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public void record(final long nanos) {
+    final long value = Math.max(0, nanos);
+    counts.incrementAndGet(index(value));
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  static int index(final long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    if (exponent >= MAX_EXPONENT) {
+      return BUCKETS - 1;
+    }
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (nanos >>> shift) - SUB_BUCKETS;
+  }
+
+  // the largest value that lands in the bucket
+  static long highest(final int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    final int shift = index / SUB_BUCKETS - 1;
+    return ((long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift) - 1;
+  }
+
+  /**
+   * @return A copy of the counts, consistent per bucket but not across buckets, which is close
+   * enough while values are still being recorded.
+   */
+  public Snapshot snapshot() {
+    final long[] copy = new long[BUCKETS];
+    long total = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      total += copy[i];
+    }
+    return new Snapshot(copy, total, sum.sum(), max.get());
+  }
+
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    private Snapshot(final long[] counts, final long count, final long sum, final long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMaxNanos() {
+      return max;
+    }
+
+    public double getMeanNanos() {
+      return 0 == count ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param quantile Between 0 and 1.
+     * @return The smallest bucket bound at or below which at least that fraction of the values
+     * fall, or 0 if nothing has been recorded.
+     */
+    public long getQuantileNanos(final double quantile) {
+      if (0 == count) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highest(i), max);
+        }
+      }
+      return max;
+    }
+
+    public double getQuantileMillis(final double quantile) {
+      return (double) getQuantileNanos(quantile) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @param earlier A snapshot of the same histogram, taken before this one.
+     * @return What was recorded between the two snapshots. The maximum is the highest bound of
+     * the highest bucket recorded into, and no more than the maximum so far.
+     */
+    public Snapshot since(final Snapshot earlier) {
+      final long[] delta = new long[counts.length];
+      long total = 0;
+      long highest = 0;
+      for (int i = 0; i < counts.length; i++) {
+        delta[i] = counts[i] - earlier.counts[i];
+        total += delta[i];
+        if (delta[i] > 0) {
+          highest = highest(i);
+        }
+      }
+      return new Snapshot(delta, total, sum - earlier.sum, Math.min(highest, max));
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ajanata.catbot.CatBot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * {@link Timer}s by name, such as {@code handler.<trigger>}, {@code filter.<class>} and
+ * {@code send.<platform>.<bot id>}. Each timer is registered with JMX when it is created, and all
+ * of them can be scraped over HTTP, in the Prometheus text format, from a local port.
+ */
+public class Metrics {
+  private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+  // config property names
+  public static final String PROP_JMX_ENABLED = "metrics.jmx.enabled";
+  public static final String PROP_HTTP_PORT = "metrics.http.port";
+  public static final String PROP_HTTP_ADDRESS = "metrics.http.address";
+
+  private static final String JMX_DOMAIN = "com.ajanata.catbot";
+  private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+  private final ConcurrentMap<String, Timer> timers = new ConcurrentSkipListMap<>();
+  private final MBeanServer mbeanServer;
+  private final int httpPort;
+  private final String httpAddress;
+  private HttpServer httpServer;
+
+  public Metrics(final CatBot catbot) {
+    mbeanServer = Boolean.parseBoolean(catbot.getProperty(PROP_JMX_ENABLED, "true"))
+        ? ManagementFactory.getPlatformMBeanServer() : null;
+    httpPort = catbot.getIntProperty(PROP_HTTP_PORT, 0);
+    httpAddress = catbot.getProperty(PROP_HTTP_ADDRESS, "127.0.0.1");
+  }
+
+  /**
+   * @return The timer with the given name, creating it if needed. Callers on a hot path should
+   * hold on to the timer instead of looking it up each time.
+   */
+  public Timer timer(final String name) {
+    final Timer existing = timers.get(name);
+    if (null != existing) {
+      return existing;
+    }
+    final Timer timer = new Timer(name);
+    final Timer raced = timers.putIfAbsent(name, timer);
+    if (null != raced) {
+      return raced;
+    }
+    if (null != mbeanServer) {
+      try {
+        mbeanServer.registerMBean(timer, objectName(name));
+      } catch (final JMException e) {
+        LOG.warn(String.format("Unable to register timer %s with JMX", name), e);
+      }
+    }
+    return timer;
+  }
+
+  public Map<String, Timer> getTimers() {
+    return timers;
+  }
+
+  private static ObjectName objectName(final String name) throws JMException {
+    return new ObjectName(JMX_DOMAIN + ":type=Timer,name=" + ObjectName.quote(name));
+  }
+
+  /**
+   * Start serving {@code /metrics}, if a port is configured.
+   */
+  public synchronized void start() {
+    if (httpPort <= 0 || null != httpServer) {
+      return;
+    }
+    try {
+      httpServer = HttpServer.create(new InetSocketAddress(httpAddress, httpPort), 0);
+    } catch (final IOException e) {
+      LOG.error(String.format("Unable to serve metrics on %s:%d", httpAddress, httpPort), e);
+      return;
+    }
+    httpServer.createContext("/metrics", this::scrape);
+    httpServer.start();
+    LOG.info(String.format("Serving metrics on http://%s:%d/metrics", httpAddress, httpPort));
+  }
+
+  public synchronized void shutdown() {
+    if (null != httpServer) {
+      httpServer.stop(0);
+      httpServer = null;
+    }
+    if (null != mbeanServer) {
+      for (final String name : timers.keySet()) {
+        try {
+          mbeanServer.unregisterMBean(objectName(name));
+        } catch (final JMException e) {
+          LOG.debug(String.format("Unable to unregister timer %s from JMX", name), e);
+        }
+      }
+    }
+  }
+
+  private void scrape(final HttpExchange exchange) throws IOException {
+    try {
+      final byte[] body = format().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+      exchange.sendResponseHeaders(200, body.length);
+      try (final OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * @return Every timer, in the Prometheus text format. Latencies are in seconds.
+   */
+  public String format() {
+    final double nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+    final StringBuilder builder = new StringBuilder();
+    builder.append("# TYPE catbot_latency_seconds summary\n");
+    for (final Timer timer : timers.values()) {
+      final LatencyHistogram.Snapshot snapshot = timer.snapshot();
+      final String label = label(timer.getName());
+      for (final double quantile : QUANTILES) {
+        builder.append(String.format(Locale.ENGLISH,
+            "catbot_latency_seconds{%s,quantile=\"%s\"} %s\n", label, quantile,
+            snapshot.getQuantileNanos(quantile) / nanosPerSecond));
+      }
+      builder.append(String.format(Locale.ENGLISH, "catbot_latency_seconds_sum{%s} %s\n", label,
+          snapshot.getMeanNanos() * snapshot.getCount() / nanosPerSecond));
+      builder.append(String.format("catbot_latency_seconds_count{%s} %d\n", label,
+          snapshot.getCount()));
+    }
+    builder.append("# TYPE catbot_errors_total counter\n");
+    for (final Timer timer : timers.values()) {
+      builder.append(String.format("catbot_errors_total{%s} %d\n", label(timer.getName()),
+          timer.getErrors()));
+    }
+    return builder.toString();
+  }
+
+  private static String label(final String name) {
+    return "name=\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
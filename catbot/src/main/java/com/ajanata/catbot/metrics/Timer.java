@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts calls to something, and how many of them failed, and keeps a {@link LatencyHistogram} of
+ * how long they took.
+ */
+public final class Timer implements TimerMXBean {
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  /** JMX getters share a snapshot this recent, so one read of every attribute takes one copy. */
+  private static final long JMX_SNAPSHOT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final String name;
+  private final LatencyHistogram histogram = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+  private volatile Recent recent;
+
+  private static final class Recent {
+    private final LatencyHistogram.Snapshot snapshot;
+    private final long takenAt;
+
+    private Recent(final LatencyHistogram.Snapshot snapshot, final long takenAt) {
+      this.snapshot = snapshot;
+      this.takenAt = takenAt;
+    }
+  }
+
+  Timer(final String name) {
+    this.name = name;
+  }
+
+  /**
+   * Record a call.
+   *
+   * @param startNanos {@link System#nanoTime()} when the call started.
+   * @param failed Whether the call failed.
+   */
+  public void recordSince(final long startNanos, final boolean failed) {
+    record(System.nanoTime() - startNanos, failed);
+  }
+
+  public void record(final long nanos, final boolean failed) {
+    histogram.record(nanos);
+    if (failed) {
+      errors.increment();
+    }
+  }
+
+  public LatencyHistogram.Snapshot snapshot() {
+    return histogram.snapshot();
+  }
+
+  // Racing readers may each take a snapshot, which is harmless.
+  private LatencyHistogram.Snapshot recentSnapshot() {
+    final long now = System.nanoTime();
+    final Recent last = recent;
+    if (null != last && now - last.takenAt < JMX_SNAPSHOT_NANOS) {
+      return last.snapshot;
+    }
+    final Recent fresh = new Recent(histogram.snapshot(), now);
+    recent = fresh;
+    return fresh.snapshot;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public long getCount() {
+    return recentSnapshot().getCount();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  @Override
+  public double getMeanMillis() {
+    return recentSnapshot().getMeanNanos() / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public double getP50Millis() {
+    return recentSnapshot().getQuantileMillis(0.5);
+  }
+
+  @Override
+  public double getP99Millis() {
+    return recentSnapshot().getQuantileMillis(0.99);
+  }
+
+  @Override
+  public double getP999Millis() {
+    return recentSnapshot().getQuantileMillis(0.999);
+  }
+
+  @Override
+  public double getMaxMillis() {
+    return recentSnapshot().getMaxNanos() / NANOS_PER_MILLI;
+  }
+}
@@ -27,59 +27,57 @@ import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.telegram.telegrambots.api.methods.send.SendMessage;
 import org.telegram.telegrambots.api.objects.Chat;
 import org.telegram.telegrambots.api.objects.User;
 import org.telegram.telegrambots.bots.AbsSender;
 import org.telegram.telegrambots.bots.commandbot.commands.BotCommand;
 
-import com.ajanata.catbot.Retryable;
-import com.ajanata.catbot.handlers.Handler;
-import com.diffplug.common.base.Errors;
+import com.ajanata.catbot.CatBot;
+import com.ajanata.catbot.CommandRouter.Route;
+import com.ajanata.catbot.InboundMessage;
 
 
-public class HandlerCommand extends BotCommand implements Retryable {
+public class HandlerCommand extends BotCommand {
 
   private static final Logger LOG = LoggerFactory.getLogger(HandlerCommand.class);
 
+  private final TelegramBot bot;
+  private final CatBot catbot;
   private final int botId;
-  private final String trigger;
-  private final Handler handler;
+  private final String name;
+  private final Route route;
 
-  public HandlerCommand(final int botId, final String trigger, final Handler handler) {
-    super(trigger, handler.getDescription());
+  public HandlerCommand(final TelegramBot bot, final CatBot catbot, final int botId,
+      final String name, final Route route) {
+    super(name, route.handler.getDescription());
+    this.bot = bot;
+    this.catbot = catbot;
     this.botId = botId;
-    this.trigger = trigger;
-    this.handler = handler;
+    this.name = name;
+    this.route = route;
   }
 
   @Override
   public void execute(final AbsSender absSender, final User user, final Chat chat,
       final String[] arguments) {
-    LOG.trace(String.format("%s: execute(%s, %s, %s, %s)", trigger, absSender, user, chat,
+    LOG.trace(String.format("%s: execute(%s, %s, %s, %s)", name, absSender, user, chat,
         Arrays.asList(arguments)));
 
-    final String response = handler.handleCommand(botId, "@" + user.getUserName(), user.getId()
-        .toString(), chat.getTitle(), trigger, String.join(" ", arguments));
-    if (null != response) {
-      final SendMessage send = new SendMessage();
-      send.setChatId(chat.getId().toString());
-      send.setText(response);
-      retry(Errors.rethrow().wrap(
-          () -> {
-            absSender.execute(send);
-          }));
-    }
+    // routed by the pipeline, which may have swapped in a different handler by now
+    final String joined = String.join(" ", arguments);
+    final InboundMessage message = new InboundMessage(botId, "@" + user.getUserName(), user
+        .getId().toString(), chat.getTitle(), COMMAND_INIT_CHARACTER + name + " " + joined,
+        bot.replySender(chat.getId(), null));
+    catbot.getPipeline().submitCommand(message, name, joined);
   }
 
-  @Override
-  public Logger logger() {
-    return LOG;
+  Route getRoute() {
+    return route;
   }
 
   @Override
   public String toString() {
     return "<b>" + COMMAND_INIT_CHARACTER + getCommandIdentifier() + "</b>\n"
-        + handler.getDescription();
+        + route.handler.getDescription();
   }
 }
@@ -23,6 +23,9 @@
 
 package com.ajanata.catbot.telegram;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.slf4j.Logger;
@@ -37,9 +40,11 @@ import org.telegram.telegrambots.exceptions.TelegramApiException;
 
 import com.ajanata.catbot.Bot;
 import com.ajanata.catbot.CatBot;
-import com.ajanata.catbot.filters.Filter;
-import com.ajanata.catbot.filters.Filter.FilterResult;
-import com.ajanata.catbot.handlers.Handler;
+import com.ajanata.catbot.CommandRouter;
+import com.ajanata.catbot.CommandRouter.Route;
+import com.ajanata.catbot.InboundMessage;
+import com.ajanata.catbot.OutboundScheduler;
+import com.ajanata.catbot.RetryScheduler;
 import com.diffplug.common.base.Errors;
 
 
@@ -47,14 +52,28 @@ public class TelegramBot extends TelegramLongPollingCommandBot implements Bot {
 
   private static final Logger LOG = LoggerFactory.getLogger(TelegramBot.class);
 
+  // Telegram's limits: about one message per second per chat, 20 per minute in a group, and 30
+  // per second overall
+  private static final String DEFAULT_LIMIT_DESTINATION = "1/1,20/60";
+  private static final String DEFAULT_LIMIT_SHARED = "30/1";
+  private static final int MAX_MESSAGE_LENGTH = 4096;
+
   private final CatBot catbot;
   private final TelegramBotsApi api;
   private final int botId;
+  private final OutboundScheduler.Limits limits;
+  private final OutboundScheduler.Coalescing coalescing;
+  // registered by name
+  private final Map<String, HandlerCommand> commands = new HashMap<>();
 
   public TelegramBot(final CatBot catbot, final int botId) {
     super(catbot.getBotProperty(botId, CatBot.PROP_USERNAME));
     this.catbot = catbot;
     this.botId = botId;
+    this.limits = OutboundScheduler.Limits.forBot(catbot.getConfig().bot(botId),
+        DEFAULT_LIMIT_DESTINATION, DEFAULT_LIMIT_SHARED);
+    this.coalescing = OutboundScheduler.Coalescing.forBot(catbot.getConfig().bot(botId),
+        MAX_MESSAGE_LENGTH, "\n");
     api = new TelegramBotsApi();
   }
 
@@ -63,6 +82,11 @@ public class TelegramBot extends TelegramLongPollingCommandBot implements Bot {
     return LOG;
   }
 
+  @Override
+  public RetryScheduler retryScheduler() {
+    return catbot.getRetryScheduler();
+  }
+
   @Override
   public void processNonCommandUpdate(final Update update) {
     LOG.trace(String.format("onUpdateReceived(%s)", update));
@@ -70,30 +94,32 @@ public class TelegramBot extends TelegramLongPollingCommandBot implements Bot {
     if (update.hasMessage()) {
       final Message message = update.getMessage();
       if (message.hasText()) {
-        final String text = message.getText();
         final User author = message.getFrom();
-        final String from = author.getUserName();
+        catbot.getPipeline().submit(new InboundMessage(botId, author.getUserName(),
+            author.getId().toString(), message.getChat().getTitle(), message.getText(),
+            replySender(message.getChatId(), message.getMessageId())), null);
+      }
+    }
+  }
 
-        // check filters
-        for (final Filter filter : catbot.getFilters()) {
-          final FilterResult reply = filter.filterMessage(botId, from, author.getId().toString(),
-              message.getChat().getTitle(), text);
-          if (null != reply) {
+  InboundMessage.ReplySender replySender(final Long chatId, final Integer messageId) {
+    return (reply, replyToPrevious) -> {
+      // replies to a particular message are sent alone, so they still quote it
+      final boolean replyTo = replyToPrevious && null != messageId;
+      final String destination = "telegram." + botId + "." + chatId;
+      catbot.getOutboundScheduler().send(destination, "telegram." + botId, limits, coalescing,
+          reply, !replyTo, (text, retries) -> {
             final SendMessage send = new SendMessage();
-            send.setChatId(message.getChatId().toString());
-            send.setText(reply.message);
-            if (reply.replyToPrevious) {
-              send.setReplyToMessageId(message.getMessageId());
+            send.setChatId(chatId.toString());
+            send.setText(text);
+            if (replyTo) {
+              send.setReplyToMessageId(messageId);
             }
-
-            retry(Errors.rethrow().wrap(() -> {
+            return retry(retries, destination, Errors.rethrow().wrap(() -> {
               execute(send);
             }));
-            break;
-          }
-        }
-      }
-    }
+          });
+    };
   }
 
   @Override
@@ -102,9 +128,8 @@ public class TelegramBot extends TelegramLongPollingCommandBot implements Bot {
     try {
       api.registerBot(this);
 
-      for (final Entry<String, Handler> entry : catbot.getHandlers().entrySet()) {
-        register(new HandlerCommand(botId, entry.getKey(), entry.getValue()));
-      }
+      registerCommands(catbot.getRouter());
+      catbot.getRegistry().addRouterListener(this::registerCommands);
       register(new HelpCommand(this));
 
       LOG.info("Logged into Telegram.");
@@ -115,6 +140,33 @@ public class TelegramBot extends TelegramLongPollingCommandBot implements Bot {
     }
   }
 
+  // Bring the registered commands in line with the router's triggers and aliases. Commands whose
+  // handler is unchanged stay registered.
+  private synchronized void registerCommands(final CommandRouter router) {
+    final Map<String, Route> routes = router.getRoutes();
+    for (final Iterator<Entry<String, HandlerCommand>> iter = commands.entrySet().iterator();
+        iter.hasNext();) {
+      final Entry<String, HandlerCommand> entry = iter.next();
+      if (!routes.containsKey(entry.getKey())) {
+        deregister(entry.getValue());
+        iter.remove();
+      }
+    }
+    for (final Entry<String, Route> entry : routes.entrySet()) {
+      final HandlerCommand existing = commands.get(entry.getKey());
+      if (null != existing && existing.getRoute().handler == entry.getValue().handler) {
+        continue;
+      }
+      if (null != existing) {
+        deregister(existing);
+      }
+      final HandlerCommand command = new HandlerCommand(this, catbot, botId, entry.getKey(),
+          entry.getValue());
+      register(command);
+      commands.put(entry.getKey(), command);
+    }
+  }
+
   @Override
   public void shutdown() {
     LOG.info("Nothing to be done to log out of Telegram.");
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import junit.framework.TestCase;
+
+
+public class CatBotTest extends TestCase {
+
+  public void testFullIoPoolRejectsInsteadOfRunningOnCaller() throws Exception {
+    final CatBot catbot = NullBot.catbot("io.threads=1", "io.queue.capacity=1");
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      final CompletableFuture<Thread> running = catbot.supplyIo(() -> {
+        try {
+          release.await();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return Thread.currentThread();
+      });
+      final CompletableFuture<Thread> queued = catbot.supplyIo(Thread::currentThread);
+      final CompletableFuture<Thread> rejected = catbot.supplyIo(Thread::currentThread);
+
+      assertTrue(rejected.isCompletedExceptionally());
+      try {
+        rejected.get();
+        fail();
+      } catch (final ExecutionException e) {
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      release.countDown();
+      assertNotSame(Thread.currentThread(), running.get());
+      assertNotSame(Thread.currentThread(), queued.get());
+    } finally {
+      release.countDown();
+      catbot.shutdown();
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class ChatStateStoreTest extends TestCase {
+
+  public void testCountsAndRetainsPerChat() {
+    final ChatStateStore store = new ChatStateStore(4, 10, 3, 0);
+    assertEquals(1, store.incrementMessages("a"));
+    assertEquals(2, store.incrementMessages("a"));
+    assertEquals(1, store.incrementMessages("b"));
+    store.resetMessages("a");
+    assertEquals(1, store.incrementMessages("a"));
+
+    for (int i = 1; i <= 4; i++) {
+      store.retain("a", "a" + i);
+    }
+    store.retain("b", "b1");
+    assertEquals("a4", store.retrieve("a", 0));
+    assertEquals("a2", store.retrieve("a", 2));
+    assertNull("oldest dropped", store.retrieve("a", 3));
+    assertEquals("b1", store.retrieve("b", 0));
+    assertNull(store.retrieve("b", 1));
+    assertNull(store.retrieve("c", 0));
+    assertEquals(2, store.size());
+  }
+
+  public void testFullStoreEvictsLeastRecentlyTouched() throws InterruptedException {
+    final ChatStateStore store = new ChatStateStore(1, 2, 1, 0);
+    store.retain("a", "a");
+    Thread.sleep(1);
+    store.retain("b", "b");
+    Thread.sleep(1);
+    store.incrementMessages("a");
+    Thread.sleep(1);
+    store.retain("c", "c");
+
+    assertEquals(2, store.size());
+    assertEquals("a", store.retrieve("a", 0));
+    assertNull(store.retrieve("b", 0));
+    assertEquals("c", store.retrieve("c", 0));
+  }
+
+  public void testIdleChatsAreEvicted() throws InterruptedException {
+    final ChatStateStore store = new ChatStateStore(1, 10, 1, 20);
+    store.retain("a", "a");
+    Thread.sleep(30);
+    store.retain("b", "b");
+
+    assertEquals(1, store.size());
+    assertNull(store.retrieve("a", 0));
+    assertEquals(1, store.incrementMessages("a"));
+  }
+
+  public void testChurnKeepsLookupsConsistent() {
+    final ChatStateStore store = new ChatStateStore(1, 8, 1, 0);
+    final Map<String, Integer> counts = new HashMap<>();
+    final Random random = new Random(1);
+    for (int i = 0; i < 20000; i++) {
+      final String chat = "chat" + random.nextInt(50);
+      final int count = store.incrementMessages(chat);
+      final Integer expected = counts.get(chat);
+      if (1 != count) {
+        assertEquals(chat, null == expected ? 1 : expected + 1, count);
+      }
+      counts.put(chat, count);
+      store.retain(chat, chat);
+
+      int found = 0;
+      for (int c = 0; c < 50; c++) {
+        final String value = store.retrieve("chat" + c, 0);
+        if (null != value) {
+          assertEquals("chat" + c, value);
+          found++;
+        }
+      }
+      assertEquals(store.size(), found);
+      assertTrue(found <= 8);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import com.ajanata.catbot.CircuitBreaker.State;
+
+import junit.framework.TestCase;
+
+
+public class CircuitBreakerTest extends TestCase {
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(20);
+
+  private static CircuitBreaker breaker(final long openMillis, final int halfOpenCalls) {
+    final Properties properties = new Properties();
+    properties.setProperty("breakers.test.window.size", "4");
+    properties.setProperty("breakers.test.window.min.calls", "4");
+    properties.setProperty("breakers.test.failure.rate", "0.5");
+    properties.setProperty("breakers.test.slow.call.ms", "15000");
+    properties.setProperty("breakers.test.slow.percentile", "0.5");
+    properties.setProperty("breakers.test.open.ms", String.valueOf(openMillis));
+    properties.setProperty("breakers.test.half.open.calls", String.valueOf(halfOpenCalls));
+    return new CircuitBreaker(Config.parse(properties).global(), "test");
+  }
+
+  private static void call(final CircuitBreaker breaker, final boolean failed,
+      final long latency) {
+    assertTrue(breaker.tryAcquire());
+    if (failed) {
+      breaker.onFailure(latency);
+    } else {
+      breaker.onSuccess(latency);
+    }
+  }
+
+  public void testOpensOnFailureRate() {
+    final CircuitBreaker breaker = breaker(60000, 1);
+    call(breaker, false, FAST);
+    call(breaker, true, FAST);
+    call(breaker, false, FAST);
+    assertEquals(State.CLOSED, breaker.getState());
+    call(breaker, true, FAST);
+
+    assertEquals(State.OPEN, breaker.getState());
+    assertFalse(breaker.tryAcquire());
+  }
+
+  public void testOpensOnSlowCalls() {
+    final CircuitBreaker breaker = breaker(60000, 1);
+    call(breaker, false, FAST);
+    call(breaker, false, SLOW);
+    call(breaker, false, SLOW);
+    assertEquals(State.CLOSED, breaker.getState());
+    call(breaker, false, SLOW);
+
+    assertEquals(State.OPEN, breaker.getState());
+  }
+
+  public void testProbesCloseAfterSuccess() {
+    final CircuitBreaker breaker = breaker(0, 2);
+    for (int i = 0; i < 4; i++) {
+      call(breaker, true, FAST);
+    }
+    assertEquals(State.OPEN, breaker.getState());
+
+    assertTrue(breaker.tryAcquire());
+    assertTrue(breaker.tryAcquire());
+    assertEquals(State.HALF_OPEN, breaker.getState());
+    assertFalse("only the configured number of probes", breaker.tryAcquire());
+    breaker.onSuccess(FAST);
+    breaker.onSuccess(FAST);
+
+    assertEquals(State.CLOSED, breaker.getState());
+    call(breaker, true, FAST);
+    assertEquals("window is reset on closing", State.CLOSED, breaker.getState());
+  }
+
+  public void testFailedProbeReopens() {
+    final CircuitBreaker breaker = breaker(0, 1);
+    for (int i = 0; i < 4; i++) {
+      call(breaker, true, FAST);
+    }
+
+    call(breaker, true, FAST);
+    assertEquals(State.OPEN, breaker.getState());
+    // open.ms is 0, so the next call is the next probe
+    call(breaker, false, SLOW);
+    assertEquals("slow probe", State.OPEN, breaker.getState());
+    call(breaker, false, FAST);
+    assertEquals(State.CLOSED, breaker.getState());
+  }
+
+  public void testIsRejectingTakesNoProbe() {
+    final CircuitBreaker breaker = breaker(0, 1);
+    assertFalse(breaker.isRejecting());
+    for (int i = 0; i < 4; i++) {
+      call(breaker, true, FAST);
+    }
+    assertEquals(State.OPEN, breaker.getState());
+
+    // open.ms is 0, so a probe is due
+    assertFalse(breaker.isRejecting());
+    assertFalse(breaker.isRejecting());
+    assertTrue("checking didn't use up the probe", breaker.tryAcquire());
+    assertTrue(breaker.isRejecting());
+    breaker.onSuccess(FAST);
+    assertFalse(breaker.isRejecting());
+  }
+
+  public void testIsRejectingWhileOpen() {
+    final CircuitBreaker breaker = breaker(60000, 1);
+    for (int i = 0; i < 4; i++) {
+      call(breaker, true, FAST);
+    }
+    assertTrue(breaker.isRejecting());
+  }
+}
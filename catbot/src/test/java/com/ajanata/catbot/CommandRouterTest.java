@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ajanata.catbot.CommandRouter.ParsedCommand;
+import com.ajanata.catbot.handlers.Handler;
+import com.ajanata.catbot.handlers.HelloHandler;
+
+import junit.framework.TestCase;
+
+
+public class CommandRouterTest extends TestCase {
+  private final Handler hello = new HelloHandler();
+  private final Handler help = new HelloHandler();
+  private CommandRouter router;
+
+  @Override
+  protected void setUp() {
+    final Map<String, Handler> handlers = new HashMap<>();
+    handlers.put("hello", hello);
+    handlers.put("help", help);
+    final Map<String, String> aliases = new HashMap<>();
+    aliases.put("hi", "hello");
+    aliases.put("help", "hello");
+    aliases.put("bye", "goodbye");
+    router = new CommandRouter(handlers, aliases);
+  }
+
+  public void testParsesTriggerAndArguments() {
+    final ParsedCommand command = router.parse(".", ".hello   there  world \t");
+    assertSame(hello, command.getHandler());
+    assertEquals("hello", command.getTrigger());
+    assertEquals("hello", command.getInvokedAs());
+    assertEquals("there  world", command.getArguments());
+
+    assertEquals("", router.parse(".", ".hello").getArguments());
+    assertSame(help, router.parse(".", ".help me").getHandler());
+  }
+
+  public void testAliasRoutesToTrigger() {
+    final ParsedCommand command = router.parse("!", "!hi cat");
+    assertSame(hello, command.getHandler());
+    assertEquals("hello", command.getTrigger());
+    assertEquals("hi", command.getInvokedAs());
+    assertEquals("cat", command.getArguments());
+  }
+
+  public void testBadAliasesAreIgnored() {
+    assertSame("an alias cannot replace a trigger", help,
+        router.getRoutes().get("help").handler);
+    assertNull(router.getRoutes().get("bye"));
+    assertEquals(3, router.getRoutes().size());
+  }
+
+  public void testRejectsNonCommands() {
+    assertNull(router.parse(".", "hello"));
+    assertNull("prefix of a trigger", router.parse(".", ".hell"));
+    assertNull("trigger is a prefix", router.parse(".", ".hellothere"));
+    assertNull(router.parse(".", ".nope"));
+    assertNull(router.parse(".", "."));
+    assertNull(router.parse(".", ""));
+  }
+
+  public void testCommandForPlatformParsing() {
+    final ParsedCommand command = router.command("hi", "a b");
+    assertSame(hello, command.getHandler());
+    assertEquals("hi", command.getInvokedAs());
+    assertEquals("a b", command.getArguments());
+    assertNull(router.command("nope", ""));
+  }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+
+public class ConfigTest extends TestCase {
+  private Config config;
+
+  @Override
+  protected void setUp() {
+    final Properties properties = new Properties();
+    properties.setProperty("bots", "1");
+    properties.setProperty("bots.0.count", " 42 ");
+    properties.setProperty("bots.0.big", "10000000000");
+    properties.setProperty("bots.0.rate", "0.25");
+    properties.setProperty("bots.0.empty", "");
+    properties.setProperty("bots.0.name", "cat");
+    config = Config.parse(properties);
+  }
+
+  public void testNumbers() {
+    final Config.Section bot = config.bot(0);
+    assertEquals(42, bot.getInt("count", 1));
+    assertEquals(42L, bot.getLong("count", 1));
+    assertEquals(42.0, bot.getDouble("count", 1), 0);
+    assertEquals(10000000000L, bot.getLong("big", 1));
+    assertEquals(0.25, bot.getDouble("rate", 1), 0);
+    assertEquals(1, config.global().getInt("bots", 0));
+  }
+
+  public void testDefaults() {
+    final Config.Section bot = config.bot(0);
+    assertEquals(7, bot.getInt("missing", 7));
+    assertEquals(7, bot.getInt("empty", 7));
+    assertEquals(7L, config.bot(5).getLong("count", 7));
+  }
+
+  public void testNotNumbers() {
+    final Config.Section bot = config.bot(0);
+    try {
+      bot.getInt("big", 1);
+      fail();
+    } catch (final NumberFormatException e) {
+      // too big for an int
+    }
+    try {
+      bot.getLong("rate", 1);
+      fail();
+    } catch (final NumberFormatException e) {
+      // expected
+    }
+    try {
+      bot.getDouble("name", 1);
+      fail();
+    } catch (final NumberFormatException e) {
+      // expected
+    }
+  }
+}
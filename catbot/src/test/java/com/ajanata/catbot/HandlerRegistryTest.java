@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.ajanata.catbot.filters.Filter;
+import com.ajanata.catbot.handlers.Handler;
+
+
+public class HandlerRegistryTest extends TestCase {
+  private static final String[] LINEUP = { "filters=1",
+      "filters.0.class=" + TestFilter.class.getName(), "handlers=1",
+      "handlers.0.class=" + TestHandler.class.getName(), "handlers.0.trigger=test" };
+
+  private CatBot catbot;
+  private HandlerRegistry registry;
+
+  @Override
+  protected void setUp() throws Exception {
+    catbot = NullBot.catbot(LINEUP);
+    registry = catbot.getRegistry();
+  }
+
+  @Override
+  protected void tearDown() {
+    catbot.shutdown();
+  }
+
+  public void testRemovedAreShutDownOnceReleased() throws Exception {
+    final HandlerRegistry.Lineup held = registry.acquire();
+    final TestFilter filter = (TestFilter) held.getFilters().get(0);
+    final TestHandler handler = (TestHandler) held.getHandlers().get("test");
+
+    catbot.reloadConfig(NullBot.properties());
+    assertNotSame(held, registry.getCurrent());
+    Thread.sleep(100);
+    assertFalse(filter.shutdown);
+    assertFalse(handler.shutdown);
+
+    held.release();
+    waitFor(filter);
+    waitFor(handler);
+  }
+
+  public void testKeptAreNotShutDown() throws Exception {
+    final HandlerRegistry.Lineup first = registry.getCurrent();
+    final TestFilter filter = (TestFilter) first.getFilters().get(0);
+    final TestHandler handler = (TestHandler) first.getHandlers().get("test");
+
+    // only the handler's settings change
+    final String[] changed = LINEUP.clone();
+    changed[changed.length - 1] = "handlers.0.trigger=other";
+    catbot.reloadConfig(NullBot.properties(changed));
+
+    assertSame(filter, registry.getCurrent().getFilters().get(0));
+    waitFor(handler);
+    assertFalse(filter.shutdown);
+  }
+
+  public void testChangedSingletonIsKept() throws Exception {
+    final String[] lineup = { "filters=1", "filters.0.class=" + SingletonFilter.class.getName(),
+        "filters.0.setting=1" };
+    final CatBot singletonBot = NullBot.catbot(lineup);
+    try {
+      singletonBot.getRegistry().init();
+      final SingletonFilter filter = SingletonFilter.instance;
+      assertEquals(1, filter.inits);
+
+      final String[] changed = lineup.clone();
+      changed[changed.length - 1] = "filters.0.setting=2";
+      singletonBot.reloadConfig(NullBot.properties(changed));
+
+      assertSame(filter, singletonBot.getRegistry().getCurrent().getFilters().get(0));
+      assertEquals("not initialized again", 1, filter.inits);
+      Thread.sleep(100);
+      assertFalse(filter.shutdown);
+    } finally {
+      singletonBot.shutdown();
+      SingletonFilter.instance = null;
+    }
+  }
+
+  private static void waitFor(final Shutdown instance) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!instance.shutdown && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(instance.shutdown);
+  }
+
+  private abstract static class Shutdown {
+    volatile boolean shutdown = false;
+
+    public void init() {
+    }
+
+    public void shutdown() {
+      shutdown = true;
+    }
+  }
+
+  public static class TestFilter extends Shutdown implements Filter {
+    @Override
+    public FilterResult filterMessage(final int botId, final String fromName,
+        final String fromId, final String chatId, final String message) {
+      return null;
+    }
+  }
+
+  public static class SingletonFilter extends TestFilter {
+    static SingletonFilter instance;
+    int inits = 0;
+
+    public static synchronized Filter createInstance(final CatBot catbot, final int filterId) {
+      if (null == instance) {
+        instance = new SingletonFilter();
+      }
+      return instance;
+    }
+
+    @Override
+    public void init() {
+      inits++;
+    }
+  }
+
+  public static class TestHandler extends Shutdown implements Handler {
+    @Override
+    public String handleCommand(final int botId, final String fromName, final String fromId,
+        final String chatId, final String trigger, final String message) {
+      return null;
+    }
+
+    @Override
+    public String getDescription() {
+      return "test";
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ajanata.catbot.MessagePipeline.Priority;
+
+import junit.framework.TestCase;
+
+
+public class LoadSheddingQueueTest extends TestCase {
+  private final List<String> shed = new ArrayList<>();
+  private final LoadSheddingQueue<String> queue = new LoadSheddingQueue<>("test", 3, shed::add);
+
+  public void testTakesCommandsFirstInOrder() throws InterruptedException {
+    queue.offer("chatter 1", Priority.CHATTER);
+    queue.offer("command 1", Priority.COMMAND);
+    queue.offer("command 2", Priority.COMMAND);
+
+    assertEquals("command 1", queue.take());
+    assertEquals("command 2", queue.take());
+    assertEquals("chatter 1", queue.take());
+    assertEquals(0, queue.size());
+  }
+
+  public void testCommandEvictsOldestChatter() throws InterruptedException {
+    queue.offer("chatter 1", Priority.CHATTER);
+    queue.offer("chatter 2", Priority.CHATTER);
+    queue.offer("command 1", Priority.COMMAND);
+
+    assertTrue(queue.offer("command 2", Priority.COMMAND));
+    assertEquals(3, queue.size());
+    assertEquals(1, shed.size());
+    assertEquals("chatter 1", shed.get(0));
+    assertEquals(1, queue.getDropped(Priority.CHATTER));
+    assertEquals(0, queue.getDropped(Priority.COMMAND));
+
+    assertEquals("command 1", queue.take());
+    assertEquals("command 2", queue.take());
+    assertEquals("chatter 2", queue.take());
+  }
+
+  public void testRefusedItemIsShed() {
+    queue.offer("command 1", Priority.COMMAND);
+    queue.offer("command 2", Priority.COMMAND);
+    queue.offer("chatter 1", Priority.CHATTER);
+
+    assertFalse(queue.offer("chatter 2", Priority.CHATTER));
+    assertTrue(queue.offer("command 3", Priority.COMMAND));
+    assertFalse(queue.offer("command 4", Priority.COMMAND));
+
+    assertEquals(3, queue.size());
+    assertEquals(3, shed.size());
+    assertEquals("chatter 2", shed.get(0));
+    assertEquals("chatter 1", shed.get(1));
+    assertEquals("command 4", shed.get(2));
+    assertEquals(2, queue.getDropped(Priority.CHATTER));
+    assertEquals(1, queue.getDropped(Priority.COMMAND));
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A bot on no platform, for tests and benchmarks which need a {@link CatBot}.
+ */
+public class NullBot implements Bot {
+  private static final Logger LOG = LoggerFactory.getLogger(NullBot.class);
+
+  private final CatBot catbot;
+
+  public NullBot(final CatBot catbot, final int botId) {
+    this.catbot = catbot;
+  }
+
+  /**
+   * @param settings {@code key=value} settings, on top of one null bot and no filters, handlers
+   * or JMX registration.
+   */
+  public static CatBot catbot(final String... settings) throws Exception {
+    return new CatBot(properties(settings));
+  }
+
+  /**
+   * @param settings See {@link #catbot}.
+   */
+  public static Properties properties(final String... settings) {
+    final Properties properties = new Properties();
+    properties.setProperty("bots", "1");
+    properties.setProperty("bots.0.class", NullBot.class.getName());
+    properties.setProperty("filters", "0");
+    properties.setProperty("handlers", "0");
+    properties.setProperty("metrics.jmx.enabled", "false");
+    for (final String setting : settings) {
+      final int equals = setting.indexOf('=');
+      properties.setProperty(setting.substring(0, equals), setting.substring(equals + 1));
+    }
+    return properties;
+  }
+
+  @Override
+  public Logger logger() {
+    return LOG;
+  }
+
+  @Override
+  public RetryScheduler retryScheduler() {
+    return catbot.getRetryScheduler();
+  }
+
+  @Override
+  public boolean login() {
+    return true;
+  }
+
+  @Override
+  public void shutdown() {
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+
+public class OutboundSchedulerTest extends TestCase {
+  private static final Logger LOG = LoggerFactory.getLogger(OutboundSchedulerTest.class);
+
+  private CatBot catbot;
+  private OutboundScheduler scheduler;
+
+  @Override
+  protected void setUp() throws Exception {
+    catbot = NullBot.catbot("retry.backoff.initial.ms=1", "retry.jitter=0");
+    scheduler = new OutboundScheduler(catbot);
+  }
+
+  @Override
+  protected void tearDown() {
+    scheduler.shutdown();
+    catbot.getRetryScheduler().shutdown();
+  }
+
+  public void testRetryWaitsForToken() throws InterruptedException {
+    // one message every 200 ms, after a burst of one
+    final OutboundScheduler.Limits limits = new OutboundScheduler.Limits("1/0.2", "");
+    final List<Long> attempts = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done = new CountDownLatch(1);
+    scheduler.start();
+
+    scheduler.send("null.0.a", "null.0", limits, retries -> catbot.getRetryScheduler().submit(
+        "null.0.a", () -> {
+          attempts.add(System.nanoTime());
+          if (attempts.size() < 3) {
+            throw new RuntimeException("failed");
+          }
+        }, LOG, Collections.emptyList(), retries).whenComplete((result, error) -> done
+            .countDown()));
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(3, attempts.size());
+    for (int i = 1; i < attempts.size(); i++) {
+      final long gap = TimeUnit.NANOSECONDS.toMillis(attempts.get(i) - attempts.get(i - 1));
+      assertTrue("retry " + i + " after " + gap + " ms", gap >= 150);
+    }
+  }
+
+  public void testDispatcherSurvivesFailure() throws InterruptedException {
+    final OutboundScheduler.Limits limits = new OutboundScheduler.Limits("", "");
+    // merging with no separator fails in the dispatcher
+    final OutboundScheduler.Coalescing broken = new OutboundScheduler.Coalescing(0, 100, null);
+    final AtomicInteger sent = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(2);
+    scheduler.send("null.0.a", "null.0", limits, broken, "first", true, (text, retries) -> {
+      sent.incrementAndGet();
+      return null;
+    });
+    scheduler.send("null.0.a", "null.0", limits, broken, "second", true, (text, retries) -> {
+      done.countDown();
+      return null;
+    });
+    scheduler.start();
+
+    scheduler.send("null.0.b", "null.0", limits, retries -> {
+      done.countDown();
+      return CompletableFuture.completedFuture(null);
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("first message dropped", 0, sent.get());
+  }
+
+  public void testCoalescingMeasuresBytes() throws InterruptedException {
+    final OutboundScheduler.Limits limits = new OutboundScheduler.Limits("", "");
+    // 5 bytes of overhead, then 6 for each message and 3 for each separator
+    final OutboundScheduler.Coalescing coalescing = new OutboundScheduler.Coalescing(0, 20, " | ")
+        .measuredBy(text -> text.getBytes(StandardCharsets.UTF_8).length, 5);
+    final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch done = new CountDownLatch(2);
+    for (int i = 0; i < 3; i++) {
+      scheduler.send("null.0.a", "null.0", limits, coalescing, "\u00e9\u00e9\u00e9", true,
+          (text, retries) -> {
+            sent.add(text);
+            done.countDown();
+            return null;
+          });
+    }
+    scheduler.start();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("\u00e9\u00e9\u00e9 | \u00e9\u00e9\u00e9", sent.get(0));
+    assertEquals("\u00e9\u00e9\u00e9", sent.get(1));
+    assertEquals(1, scheduler.getCoalesced());
+  }
+}
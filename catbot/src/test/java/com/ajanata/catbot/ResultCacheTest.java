@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+
+public class ResultCacheTest extends TestCase {
+  private File dir;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("cache").toFile();
+  }
+
+  @Override
+  protected void tearDown() {
+    for (final File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  private ResultCache cache(final int maxEntries, final int maxDiskEntries) {
+    final Properties properties = new Properties();
+    properties.setProperty("caches.test.max.entries", String.valueOf(maxEntries));
+    properties.setProperty("caches.test.disk.max.entries", String.valueOf(maxDiskEntries));
+    properties.setProperty("caches.test.disk.path", dir.getPath());
+    return new ResultCache(Config.parse(properties).global(), "test");
+  }
+
+  public void testExpiredEntriesAreMisses() throws InterruptedException {
+    final ResultCache cache = cache(10, 10);
+    cache.put("a", "1", 1);
+    cache.put("b", "2");
+    Thread.sleep(5);
+
+    assertNull(cache.get("a"));
+    assertEquals("2", cache.get("b"));
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getDiskEntries());
+  }
+
+  public void testMemoryMissFallsBackToDisk() {
+    final ResultCache cache = cache(1, 10);
+    cache.put("a", "1");
+    cache.put("b", "2");
+
+    assertNull("evicted from memory", cache.getFromMemory("a"));
+    assertEquals(0, cache.getMisses());
+    assertEquals("1", cache.get("a"));
+    assertEquals(1, cache.getDiskHits());
+    assertEquals("1", cache.getFromMemory("a"));
+  }
+
+  public void testSurvivesRestart() {
+    cache(10, 10).put("a", "1");
+
+    final ResultCache restarted = cache(10, 10);
+    assertEquals(1, restarted.getDiskEntries());
+    assertEquals("1", restarted.get("a"));
+  }
+
+  public void testDiskLimitIsKeptWhileRunning() {
+    final ResultCache cache = cache(1, 20);
+    for (int i = 0; i < 100; i++) {
+      cache.put("key " + i, "value " + i);
+      assertTrue(cache.getDiskEntries() <= 20);
+    }
+
+    final String[] files = dir.list();
+    assertTrue(files.length <= 20);
+    assertEquals(cache.getDiskEntries(), files.length);
+    for (final String file : files) {
+      assertTrue("no temporary files left: " + file, file.endsWith(".entry"));
+    }
+  }
+}
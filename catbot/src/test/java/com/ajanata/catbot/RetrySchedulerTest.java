@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+
+public class RetrySchedulerTest extends TestCase {
+  private static final Logger LOG = LoggerFactory.getLogger(RetrySchedulerTest.class);
+  private static final List<Class<? extends Throwable>> NO_BAIL = Collections.emptyList();
+
+  private CatBot catbot;
+  private RetryScheduler retries;
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  @Override
+  protected void setUp() throws Exception {
+    catbot = NullBot.catbot("retry.backoff.initial.ms=1", "retry.backoff.max.ms=2",
+        "retry.max.attempts=4", "retry.budget.per.destination=1");
+    retries = catbot.getRetryScheduler();
+  }
+
+  @Override
+  protected void tearDown() {
+    retries.shutdown();
+  }
+
+  // Fails with the cause until it has been attempted that many times.
+  private Runnable failing(final int failures, final RuntimeException cause) {
+    return () -> {
+      if (attempts.incrementAndGet() <= failures) {
+        throw new RuntimeException(cause);
+      }
+    };
+  }
+
+  private static Throwable failure(final CompletableFuture<Void> future)
+      throws InterruptedException, TimeoutException {
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      fail("expected the task to be given up on");
+      return null;
+    } catch (final ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  public void testRetriesUntilSuccess() throws Exception {
+    final CompletableFuture<Void> future = retries.submit("null.0.a",
+        failing(2, new IllegalStateException()), LOG, NO_BAIL);
+
+    future.get(5, TimeUnit.SECONDS);
+    assertEquals(3, attempts.get());
+  }
+
+  public void testGivesUpAfterMaxAttempts() throws Exception {
+    final IllegalStateException cause = new IllegalStateException();
+    final CompletableFuture<Void> future = retries.submit("null.0.a",
+        failing(Integer.MAX_VALUE, cause), LOG, NO_BAIL);
+
+    assertSame(cause, failure(future));
+    assertEquals(4, attempts.get());
+  }
+
+  public void testBailOnIsNotRetried() throws Exception {
+    final IllegalArgumentException cause = new IllegalArgumentException();
+    final CompletableFuture<Void> future = retries.submit("null.0.a",
+        failing(Integer.MAX_VALUE, cause), LOG,
+        Arrays.<Class<? extends Throwable>> asList(IllegalArgumentException.class));
+
+    assertSame(cause, failure(future));
+    assertEquals(1, attempts.get());
+  }
+
+  public void testDestinationBudget() throws Exception {
+    final CompletableFuture<Void> resumed = new CompletableFuture<>();
+    // holds the destination's only retry until resumed
+    final CompletableFuture<Void> waiting = retries.submit("null.0.a",
+        failing(1, new IllegalStateException()), LOG, NO_BAIL,
+        retry -> resumed.thenRun(retry));
+    assertFalse(waiting.isDone());
+
+    final IllegalStateException cause = new IllegalStateException();
+    assertSame(cause, failure(retries.submit("null.0.a", () -> {
+      throw new RuntimeException(cause);
+    }, LOG, NO_BAIL)));
+    final AtomicInteger other = new AtomicInteger();
+    retries.submit("null.0.b", () -> {
+      if (other.incrementAndGet() < 2) {
+        throw new RuntimeException(cause);
+      }
+    }, LOG, NO_BAIL).get(5, TimeUnit.SECONDS);
+    assertEquals("other destinations have their own budget", 2, other.get());
+
+    resumed.complete(null);
+    waiting.get(5, TimeUnit.SECONDS);
+  }
+
+  public void testRetriesRunOnGivenExecutor() throws Exception {
+    final AtomicInteger resumed = new AtomicInteger();
+    final CompletableFuture<Void> future = retries.submit("null.0.a",
+        failing(2, new IllegalStateException()), LOG, NO_BAIL, retry -> {
+          resumed.incrementAndGet();
+          retry.run();
+        });
+
+    future.get(5, TimeUnit.SECONDS);
+    assertEquals(2, resumed.get());
+  }
+}
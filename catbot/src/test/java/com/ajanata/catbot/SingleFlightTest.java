@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+
+public class SingleFlightTest extends TestCase {
+  private final SingleFlight<String, String> flight = new SingleFlight<>();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  // Call execute on another thread, and wait until it is waiting for the leader.
+  private Thread follower(final AtomicReference<Object> result) throws InterruptedException {
+    final Thread thread = new Thread(() -> {
+      try {
+        result.set(flight.execute("key", () -> "follower " + loads.incrementAndGet()));
+      } catch (final RuntimeException e) {
+        result.set(e);
+      }
+    });
+    thread.start();
+    while (Thread.State.WAITING != thread.getState() && thread.isAlive()) {
+      Thread.sleep(1);
+    }
+    return thread;
+  }
+
+  public void testFollowerSharesLeaderResult() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicReference<Object> leader = new AtomicReference<>();
+    final Thread thread = new Thread(() -> leader.set(flight.execute("key", () -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return "leader " + loads.incrementAndGet();
+    })));
+    thread.start();
+    started.await();
+
+    final AtomicReference<Object> follower = new AtomicReference<>();
+    final Thread followerThread = follower(follower);
+    release.countDown();
+    thread.join();
+    followerThread.join();
+
+    assertEquals("leader 1", leader.get());
+    assertEquals("leader 1", follower.get());
+    assertEquals(1, loads.get());
+    assertEquals(0, flight.size());
+    assertEquals("next request loads again", "leader 2",
+        flight.execute("key", () -> "leader " + loads.incrementAndGet()));
+  }
+
+  public void testFollowerReceivesLeaderException() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final IllegalStateException failure = new IllegalStateException("failed");
+    final Thread thread = new Thread(() -> {
+      try {
+        flight.execute("key", () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          throw failure;
+        });
+      } catch (final IllegalStateException e) {
+        // expected
+      }
+    });
+    thread.start();
+    started.await();
+
+    final AtomicReference<Object> follower = new AtomicReference<>();
+    final Thread followerThread = follower(follower);
+    release.countDown();
+    thread.join();
+    followerThread.join();
+
+    assertSame(failure, follower.get());
+    assertEquals(0, loads.get());
+  }
+
+  public void testAsyncCoalescesUntilComplete() {
+    final CompletableFuture<String> load = new CompletableFuture<>();
+    final CompletableFuture<String> first = flight.executeAsync("key", () -> {
+      loads.incrementAndGet();
+      return load;
+    });
+    final CompletableFuture<String> second = flight.executeAsync("key", () -> {
+      loads.incrementAndGet();
+      return CompletableFuture.completedFuture("second");
+    });
+    final CompletableFuture<String> other = flight.executeAsync("other",
+        () -> CompletableFuture.completedFuture("other"));
+
+    assertEquals(1, loads.get());
+    assertEquals("other", other.join());
+    assertEquals(1, flight.size());
+    second.complete("not shared");
+    assertFalse(first.isDone());
+
+    load.complete("loaded");
+    assertEquals("loaded", first.join());
+    assertEquals("not shared", second.join());
+    assertEquals(0, flight.size());
+  }
+
+  public void testAsyncLoaderThrowing() {
+    final IllegalStateException failure = new IllegalStateException("failed");
+    final CompletableFuture<String> result = flight.executeAsync("key", () -> {
+      throw failure;
+    });
+
+    assertTrue(result.isCompletedExceptionally());
+    assertEquals(0, flight.size());
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+public class BrainCompactorTest extends TestCase {
+  private Path dir;
+  private Path brain;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("compactor");
+    brain = dir.resolve("test.brain");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(brain);
+    Files.deleteIfExists(brain.resolveSibling("test.brain.compact"));
+    Files.delete(dir);
+  }
+
+  public void testRepeatsAndRejectedLinesAreDropped() throws IOException {
+    write("The cat sat on the mat.", "the CAT sat, on the mat!", "no", "A dog sat on the log.",
+        "  the cat   sat on the mat  ");
+
+    final BrainCompactor.Result result = new BrainCompactor(line -> line.length() > 2)
+        .compact(brain);
+
+    assertEquals(Arrays.asList("The cat sat on the mat.", "A dog sat on the log."), read());
+    assertEquals(5, result.getLinesBefore());
+    assertEquals(2, result.getLinesAfter());
+    assertEquals(2, result.getDuplicates());
+    assertEquals(1, result.getRejected());
+    assertEquals(Files.size(brain), result.getBytesAfter());
+  }
+
+  public void testLinesThatHashTheSameAreKept() throws IOException {
+    write("The cat sat on the mat.", "A dog sat on the log.", "the cat sat on the mat",
+        "A bird sat on the fence.");
+
+    final BrainCompactor.Result result = new BrainCompactor(line -> true, line -> 42).compact(
+        brain);
+
+    assertEquals(Arrays.asList("The cat sat on the mat.", "A dog sat on the log.",
+        "A bird sat on the fence."), read());
+    assertEquals(1, result.getDuplicates());
+  }
+
+  public void testRepeatsOfLinesAlreadyWrittenOut() throws IOException {
+    // more than the 1 MiB write buffer, so the first copies are read back from the file
+    final List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 40000; i++) {
+      lines.add(String.format("line %05d about the cat that sat on the mat all day long.", i));
+    }
+    final List<String> repeated = new ArrayList<>(lines);
+    for (int i = 0; i < 40000; i += 100) {
+      repeated.add(lines.get(i).toUpperCase());
+    }
+    write(repeated.toArray(new String[0]));
+
+    // some lines hash the same
+    final BrainCompactor.Result result = new BrainCompactor(line -> true,
+        line -> line.hashCode() & 0xffff).compact(brain);
+
+    assertEquals(lines, read());
+    assertEquals(400, result.getDuplicates());
+  }
+
+  private void write(final String... lines) throws IOException {
+    Files.write(brain, Arrays.asList(lines), Charset.defaultCharset());
+  }
+
+  private List<String> read() throws IOException {
+    return Files.readAllLines(brain, Charset.defaultCharset());
+  }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class BrainLoaderTest extends TestCase {
+  private static final String[] WORDS = { "the", "cat", "sat", "on", "mat", "a", "dog", "log",
+      "and", "then", "it", "ran", "away", "from", "big", "red", "ball", "caf\u00e9", "don't" };
+  // much smaller than most lines, so chunks end in the middle of lines all through the file
+  private static final int CHUNK_BYTES = 40;
+
+  private Path dir;
+  private Path brain;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("loader");
+    brain = dir.resolve("test.brain");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(brain);
+    Files.delete(dir);
+  }
+
+  // CRLF and LF line endings, blank and short lines, repeats, and no line break at the end
+  private void write(final int lines) throws IOException {
+    final Random random = new Random(1);
+    final StringBuilder builder = new StringBuilder();
+    String previous = "";
+    for (int i = 0; i < lines; i++) {
+      String line;
+      if (0 == i % 17) {
+        line = previous;
+      } else {
+        final StringBuilder words = new StringBuilder();
+        for (int j = random.nextInt(12); j > 0; j--) {
+          words.append(WORDS[random.nextInt(WORDS.length)]).append(0 == j % 5 ? ", " : " ");
+        }
+        line = words.append(random.nextBoolean() ? "." : "!").toString();
+      }
+      builder.append(line);
+      if (i < lines - 1) {
+        builder.append(random.nextBoolean() ? "\r\n" : "\n");
+      }
+      previous = line;
+    }
+    Files.write(brain, builder.toString().getBytes(Charset.defaultCharset()));
+  }
+
+  private void assertLoadsLikeOneAtATime(final int threads) throws IOException {
+    final Vocabulary expectedVocabulary = new Vocabulary();
+    final MarkovModel expected = new MarkovModel();
+    final Tokenizer tokenizer = new Tokenizer();
+    long expectedLines = 0;
+    try (final BufferedReader in = Files.newBufferedReader(brain, Charset.defaultCharset())) {
+      String line;
+      while (null != (line = in.readLine())) {
+        final int length = tokenizer.split(line);
+        if (length >= ModelLayer.ORDER) {
+          expected.train(tokenizer.intern(expectedVocabulary), length);
+        }
+        expectedLines++;
+      }
+    }
+
+    final Vocabulary vocabulary = new Vocabulary();
+    final MarkovModel model = new MarkovModel();
+    final long lines = new BrainLoader(threads, CHUNK_BYTES).load(brain, 0, Files.size(brain),
+        vocabulary, model);
+
+    assertEquals(expectedLines, lines);
+    assertEquals(expectedVocabulary.size(), vocabulary.size());
+    for (int id = 0; id < vocabulary.size(); id++) {
+      assertEquals("same words in the same order", expectedVocabulary.word(id),
+          vocabulary.word(id));
+    }
+    assertEquals(expected.quadCount(), model.quadCount());
+    assertEquals(expected.edgeCount(), model.edgeCount());
+    for (int quad = 0; quad < expected.quadCount(); quad++) {
+      final int found = model.findQuad(expected.token(quad, 0), expected.token(quad, 1),
+          expected.token(quad, 2), expected.token(quad, 3));
+      assertTrue(found >= 0);
+      assertEquals(expected.count(quad), model.count(found));
+      assertEquals(expected.flags(quad), model.flags(found));
+      for (int direction = ModelLayer.NEXT; direction <= ModelLayer.PREVIOUS; direction++) {
+        assertEquals(expected.degree(quad, direction), model.degree(found, direction));
+      }
+    }
+  }
+
+  public void testOneThread() throws IOException {
+    write(2000);
+    assertLoadsLikeOneAtATime(1);
+  }
+
+  public void testManyThreads() throws IOException {
+    write(2000);
+    assertLoadsLikeOneAtATime(4);
+  }
+
+  public void testTrailingLineBreak() throws IOException {
+    write(50);
+    Files.write(brain, "\r\n".getBytes(Charset.defaultCharset()),
+        StandardOpenOption.APPEND);
+    assertLoadsLikeOneAtATime(3);
+  }
+}
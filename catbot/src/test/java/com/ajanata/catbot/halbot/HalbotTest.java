@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+
+public class HalbotTest extends TestCase {
+  private static final int BATCHES = 300;
+  private static final int BATCH_SIZE = 5;
+
+  // no two lines share a word, so whatever is generated is exactly one of them
+  static String line(final int i) {
+    return String.format("Alpha%d bravo%d charlie%d delta%d echo%d.", i, i, i, i, i);
+  }
+
+  public void testGenerateWhileTrainingAndPruning() throws Exception {
+    final Halbot halbot = new Halbot();
+    final Set<String> trained = ConcurrentHashMap.newKeySet();
+    trained.add("");
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final List<Thread> threads = new ArrayList<>();
+
+    final Thread trainer = new Thread(() -> {
+      for (int batch = 0; batch < BATCHES; batch++) {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+          lines.add(line(batch * BATCH_SIZE + i));
+        }
+        // known before any generator can see them
+        trained.addAll(lines);
+        halbot.train(lines);
+      }
+    });
+    threads.add(trainer);
+    threads.add(new Thread(() -> {
+      // rebuilds the segments, keeping everything
+      while (trainer.isAlive()) {
+        halbot.prune(0, 1);
+      }
+    }));
+    for (int t = 0; t < 3; t++) {
+      final int reader = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; trainer.isAlive(); i++) {
+          final String sentence = 0 == reader ? halbot.getSentence()
+              : halbot.getSentence("bravo" + i % (BATCHES * BATCH_SIZE));
+          if (!trained.contains(sentence)) {
+            throw new AssertionError("generated [" + sentence + "]");
+          }
+          halbot.describe();
+        }
+      }));
+    }
+
+    for (final Thread thread : threads) {
+      thread.setUncaughtExceptionHandler((th, e) -> failure.compareAndSet(null, e));
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    if (null != failure.get()) {
+      throw new AssertionError(failure.get());
+    }
+
+    // nothing trained while pruning was lost
+    for (int i = 0; i < BATCHES * BATCH_SIZE; i++) {
+      assertEquals(line(i), halbot.getSentence("bravo" + i));
+    }
+  }
+
+  public void testPruneKeepsWhatIsUsed() {
+    final Halbot halbot = new Halbot();
+    final Halbot expected = new Halbot();
+    for (int i = 0; i < 20; i++) {
+      halbot.train(line(i));
+      expected.train(line(i));
+    }
+    halbot.prune(0, 1);
+
+    assertEquals(expected.state().model.quadCount(), halbot.state().model.quadCount());
+    assertEquals(expected.state().model.edgeCount(), halbot.state().model.edgeCount());
+    assertEquals(line(7), halbot.getSentence("charlie7"));
+  }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.ajanata.catbot.halbot.Learner.Durability;
+
+import junit.framework.TestCase;
+
+
+public class LearnerTest extends TestCase {
+  // long enough that a batch never ends by lingering unless a test wants it to
+  private static final long FOREVER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private Path dir;
+  private Path brain;
+  private Learner learner;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("learner");
+    brain = dir.resolve("test.brain");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    if (null != learner) {
+      learner.shutdown();
+    }
+    Files.deleteIfExists(brain);
+    Files.deleteIfExists(brain.resolveSibling("test.brain.compact"));
+    Files.delete(dir);
+  }
+
+  private Learner start(final Predicate<String> accept, final int batchMax,
+      final long lingerMillis, final Durability durability) throws IOException {
+    learner = new Learner(new Halbot(), brain, 0, accept, 100000, batchMax, lingerMillis,
+        durability);
+    learner.start();
+    return learner;
+  }
+
+  private static String line(final int i) {
+    return String.format("line %d about the cat that sat on the mat", i);
+  }
+
+  private List<String> read() throws IOException {
+    return Files.exists(brain) ? Files.readAllLines(brain, Charset.defaultCharset())
+        : Collections.<String>emptyList();
+  }
+
+  private void waitForLines(final int count) throws Exception {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (read().size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(count, read().size());
+  }
+
+  public void testEveryLineInOrder() throws Exception {
+    start(line -> !line.startsWith("skip"), 7, 1, Durability.FLUSH);
+    final List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(learner.offer(line(i)));
+      expected.add(line(i));
+      if (0 == i % 10) {
+        learner.offer("skip " + i);
+      }
+    }
+    learner.shutdown();
+
+    assertEquals(expected, read());
+    assertEquals(1000, learner.getLearned());
+    assertEquals(1000, learner.getLines());
+    assertEquals(0, learner.getDropped());
+  }
+
+  public void testBatchWrittenWhenFull() throws Exception {
+    start(line -> true, 3, FOREVER_MILLIS, Durability.FLUSH);
+    for (int i = 0; i < 3; i++) {
+      learner.offer(line(i));
+    }
+    waitForLines(3);
+
+    learner.offer(line(3));
+    learner.offer(line(4));
+    Thread.sleep(100);
+    assertEquals("lingering for the rest of the batch", 3, read().size());
+    learner.offer(line(5));
+    waitForLines(6);
+  }
+
+  public void testBatchWrittenAfterLinger() throws Exception {
+    start(line -> true, 1000, 20, Durability.FSYNC);
+    learner.offer(line(0));
+    learner.offer(line(1));
+    waitForLines(2);
+  }
+
+  public void testShutdownLearnsWhatIsQueued() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    // hold up the learning thread on the first line, so the rest stay queued
+    start(line -> {
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return true;
+    }, 1, 0, Durability.NONE);
+    learner.offer(line(0));
+    while (learner.getQueued() > 0) {
+      Thread.sleep(1);
+    }
+    for (int i = 1; i < 100; i++) {
+      learner.offer(line(i));
+    }
+
+    final Thread stopper = new Thread(learner::shutdown);
+    stopper.start();
+    // 99 lines and the sentinel
+    while (learner.getQueued() < 100) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    stopper.join();
+
+    final List<String> lines = read();
+    assertEquals(100, lines.size());
+    assertEquals(line(99), lines.get(99));
+  }
+
+  public void testCompactKeepsLinesLearnedMeanwhile() throws Exception {
+    start(line -> true, 10, 0, Durability.FLUSH);
+    for (int i = 0; i < 10; i++) {
+      learner.offer(line(i));
+      // repeats, for the compaction to drop
+      learner.offer(line(i).toUpperCase());
+    }
+    waitForLines(20);
+
+    final CountDownLatch copying = new CountDownLatch(1);
+    final BrainCompactor compactor = new BrainCompactor(line -> {
+      if (1 == copying.getCount()) {
+        copying.countDown();
+        // learned while the file up to here is copied, without the learner's lock
+        learner.offer(line(10));
+        try {
+          final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+          while (learner.getLearned() < 21 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+          }
+        } catch (final InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return true;
+    });
+    final BrainCompactor.Result result = learner.compact(compactor);
+    learner.offer(line(11));
+    learner.shutdown();
+
+    final List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      expected.add(line(i));
+    }
+    assertEquals(expected, read());
+    assertEquals(10, result.getDuplicates());
+    assertEquals(12, learner.getLines());
+  }
+
+  public void testCompactWhileLearning() throws Exception {
+    start(line -> true, 5, 1, Durability.FLUSH);
+    final Thread offering = new Thread(() -> {
+      for (int i = 0; i < 5000; i++) {
+        learner.offer(line(i));
+      }
+    });
+    offering.start();
+    final BrainCompactor compactor = new BrainCompactor(line -> true);
+    while (offering.isAlive()) {
+      learner.compact(compactor);
+    }
+    learner.compact(compactor);
+    learner.shutdown();
+
+    final List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      expected.add(line(i));
+    }
+    assertEquals(expected, read());
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class MarkovModelTest extends TestCase {
+
+  private static int[] random(final Random random, final int vocabulary) {
+    final int[] tokens = new int[4 + random.nextInt(10)];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = random.nextInt(vocabulary);
+    }
+    return tokens;
+  }
+
+  public void testTrainsQuadsAndEdges() {
+    final MarkovModel model = new MarkovModel();
+    model.train(new int[] { 1, 2, 3, 4, 5, 6, 99 }, 6);
+
+    assertEquals(3, model.quadCount());
+    final int first = model.findQuad(1, 2, 3, 4);
+    final int middle = model.findQuad(2, 3, 4, 5);
+    final int last = model.findQuad(3, 4, 5, 6);
+    assertEquals(-1, model.findQuad(4, 5, 6, 99));
+    assertEquals(ModelLayer.FLAG_START, model.flags(first));
+    assertEquals(0, model.flags(middle));
+    assertEquals(ModelLayer.FLAG_END, model.flags(last));
+
+    assertEquals(0, model.degree(first, ModelLayer.PREVIOUS));
+    assertEquals(1, model.degree(first, ModelLayer.NEXT));
+    assertEquals(5, model.edgeToken(first, ModelLayer.NEXT, 0));
+    assertTrue(model.hasEdge(middle, ModelLayer.PREVIOUS, 1));
+    assertTrue(model.hasEdge(middle, ModelLayer.NEXT, 6));
+    assertFalse(model.hasEdge(middle, ModelLayer.NEXT, 5));
+    assertEquals(0, model.degree(last, ModelLayer.NEXT));
+    assertEquals(4, model.edgeCount());
+
+    assertEquals(1, model.wordQuadCount(1));
+    assertEquals(3, model.wordQuadCount(4));
+    assertEquals(0, model.wordQuadCount(99));
+    assertEquals(0, model.wordQuadCount(100000));
+  }
+
+  public void testRepeatsAreCounted() {
+    final MarkovModel model = new MarkovModel();
+    model.train(new int[] { 1, 2, 3, 4, 5 }, 5);
+    model.train(new int[] { 1, 2, 3, 4, 5 }, 5);
+    model.train(new int[] { 1, 1, 1, 1 }, 4);
+    model.train(new int[] { 1, 2, 3 }, 3);
+
+    assertEquals(3, model.quadCount());
+    final int quad = model.findQuad(1, 2, 3, 4);
+    assertEquals(2, model.count(quad));
+    assertEquals(1, model.degree(quad, ModelLayer.NEXT));
+    assertEquals(2, model.edgeCount(quad, ModelLayer.NEXT, 0));
+    assertEquals("each token indexes a quad once", 2, model.wordQuadCount(1));
+  }
+
+  public void testNewerLayerOnlyAddsWhatOlderLacks() {
+    final MarkovModel older = new MarkovModel();
+    older.train(new int[] { 1, 2, 3, 4, 5 }, 5);
+    final MarkovModel newer = new MarkovModel(older);
+    newer.train(new int[] { 1, 2, 3, 4, 5 }, 5);
+    newer.train(new int[] { 1, 2, 3, 4, 7 }, 5);
+
+    final int overlay = newer.findQuad(1, 2, 3, 4);
+    assertEquals(ModelLayer.FLAG_OVERLAY | ModelLayer.FLAG_START, newer.flags(overlay));
+    assertEquals(2, newer.count(overlay));
+    assertEquals(1, newer.degree(overlay, ModelLayer.NEXT));
+    assertEquals(7, newer.edgeToken(overlay, ModelLayer.NEXT, 0));
+    assertEquals("owned by the older layer", 0, newer.wordQuadCount(1));
+    assertEquals(1, newer.wordQuadCount(7));
+  }
+
+  public void testLookupsSurviveGrowth() {
+    final MarkovModel model = new MarkovModel();
+    final Random random = new Random(1);
+    for (int i = 0; i < 5000; i++) {
+      final int[] tokens = random(random, 3000);
+      model.train(tokens, tokens.length);
+    }
+
+    assertTrue(model.quadCount() > 10000);
+    for (int quad = 0; quad < model.quadCount(); quad++) {
+      assertEquals(quad, model.findQuad(model.token(quad, 0), model.token(quad, 1),
+          model.token(quad, 2), model.token(quad, 3)));
+      for (int direction = ModelLayer.NEXT; direction <= ModelLayer.PREVIOUS; direction++) {
+        for (int index = 0; index < model.degree(quad, direction); index++) {
+          assertTrue(model.hasEdge(quad, direction, model.edgeToken(quad, direction, index)));
+        }
+      }
+    }
+  }
+
+  public void testAbsorbMatchesTrainingInOrder() {
+    final MarkovModel whole = new MarkovModel();
+    final MarkovModel first = new MarkovModel();
+    final MarkovModel second = new MarkovModel();
+    final Random random = new Random(2);
+    for (int i = 0; i < 1000; i++) {
+      final int[] tokens = random(random, 50);
+      whole.train(tokens, tokens.length);
+      (i < 500 ? first : second).train(tokens, tokens.length);
+    }
+    final int[] identity = new int[50];
+    for (int token = 0; token < identity.length; token++) {
+      identity[token] = token;
+    }
+    final MarkovModel merged = new MarkovModel();
+    merged.absorb(first, identity);
+    merged.absorb(second, identity);
+
+    assertEquals(whole.quadCount(), merged.quadCount());
+    assertEquals(whole.edgeCount(), merged.edgeCount());
+    for (int quad = 0; quad < whole.quadCount(); quad++) {
+      for (int position = 0; position < ModelLayer.ORDER; position++) {
+        assertEquals(whole.token(quad, position), merged.token(quad, position));
+      }
+      assertEquals(whole.flags(quad), merged.flags(quad));
+      assertEquals(whole.count(quad), merged.count(quad));
+      for (int direction = ModelLayer.NEXT; direction <= ModelLayer.PREVIOUS; direction++) {
+        assertEquals(whole.degree(quad, direction), merged.degree(quad, direction));
+        for (int index = 0; index < whole.degree(quad, direction); index++) {
+          final int token = whole.edgeToken(quad, direction, index);
+          assertTrue(merged.hasEdge(quad, direction, token));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class PrunedLayerTest extends TestCase {
+  private static final int SENTENCES = 2000;
+
+  private MarkovModel model;
+
+  @Override
+  protected void setUp() {
+    // every sentence once, so every count is 1
+    final Random random = new Random(1);
+    model = new MarkovModel();
+    final int[] tokens = new int[12];
+    for (int sentence = 0; sentence < SENTENCES; sentence++) {
+      final int length = 6 + random.nextInt(tokens.length - 6);
+      for (int i = 0; i < length; i++) {
+        tokens[i] = random.nextInt(200);
+      }
+      model.train(tokens, length);
+    }
+  }
+
+  public void testNothingToPrune() {
+    final PrunedLayer pruned = prune(Long.MAX_VALUE, 1);
+
+    assertEquals(model.quadCount(), pruned.quadCount());
+    assertEquals(model.edgeCount(), pruned.edgeCount());
+    for (int token = 0; token < 200; token++) {
+      assertEquals(model.wordQuadCount(token), pruned.wordQuadCount(token));
+      for (int index = 0; index < pruned.wordQuadCount(token); index++) {
+        final int quad = pruned.wordQuad(token, index);
+        assertEquals(model.wordQuad(token, index), pruned.findQuad(pruned.token(quad, 0),
+            pruned.token(quad, 1), pruned.token(quad, 2), pruned.token(quad, 3)));
+      }
+    }
+    assertEquals(0, pruned.wordQuadCount(1000));
+  }
+
+  public void testBudgetKeepsAboutWhatFits() {
+    final PrunedLayer pruned = prune(model.estimateBytes() / 2, 1);
+
+    // all used once, so a threshold alone would have dropped everything
+    final double kept = (double) pruned.quadCount() / model.quadCount();
+    assertTrue("kept " + kept, kept > 0.4 && kept < 0.7);
+    assertWalkable(pruned);
+  }
+
+  public void testDecayKeepsSentencesWhole() {
+    final PrunedLayer pruned = prune(Long.MAX_VALUE, 0.5);
+
+    assertTrue(pruned.quadCount() > 0);
+    assertTrue(pruned.quadCount() < model.quadCount());
+    assertWalkable(pruned);
+    final ModelView view = new ModelView(pruned);
+    final Random random = new Random(2);
+    for (int i = 0; i < 200; i++) {
+      final int[] sentence = view.generate(random.nextInt(200), random);
+      assertTrue(sentence.length >= ModelLayer.ORDER);
+      assertFlag(sentence, 0, ModelLayer.FLAG_START);
+      assertFlag(sentence, sentence.length - ModelLayer.ORDER, ModelLayer.FLAG_END);
+    }
+  }
+
+  private PrunedLayer prune(final long targetBytes, final double decay) {
+    return PrunedLayer.prune(new ModelLayer[0], model, targetBytes, decay, new Random(3));
+  }
+
+  private void assertFlag(final int[] sentence, final int start, final byte flag) {
+    final int quad = model.findQuad(sentence[start], sentence[start + 1], sentence[start + 2],
+        sentence[start + 3]);
+    assertTrue(quad >= 0);
+    assertTrue(0 != (model.flags(quad) & flag));
+  }
+
+  // every quad can be walked on from until a sentence ends, and until it starts
+  private static void assertWalkable(final ModelLayer layer) {
+    for (int quad = 0; quad < layer.quadCount(); quad++) {
+      if (0 == (layer.flags(quad) & ModelLayer.FLAG_END)) {
+        assertTrue(layer.degree(quad, ModelLayer.NEXT) > 0);
+      }
+      if (0 == (layer.flags(quad) & ModelLayer.FLAG_START)) {
+        assertTrue(layer.degree(quad, ModelLayer.PREVIOUS) > 0);
+      }
+      for (int index = 0; index < layer.degree(quad, ModelLayer.NEXT); index++) {
+        assertTrue(layer.findQuad(layer.token(quad, 1), layer.token(quad, 2),
+            layer.token(quad, 3), layer.edgeToken(quad, ModelLayer.NEXT, index)) >= 0);
+      }
+      for (int index = 0; index < layer.degree(quad, ModelLayer.PREVIOUS); index++) {
+        assertTrue(layer.findQuad(layer.edgeToken(quad, ModelLayer.PREVIOUS, index),
+            layer.token(quad, 0), layer.token(quad, 1), layer.token(quad, 2)) >= 0);
+      }
+    }
+  }
+}
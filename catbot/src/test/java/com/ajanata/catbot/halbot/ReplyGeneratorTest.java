@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class ReplyGeneratorTest extends TestCase {
+  private final Halbot halbot = new Halbot();
+
+  @Override
+  protected void setUp() {
+    for (int i = 0; i < 20; i++) {
+      halbot.train(HalbotTest.line(i));
+    }
+  }
+
+  public void testZeroDeadlineStillReplies() {
+    final ReplyGenerator replies = new ReplyGenerator(halbot, 16, 0, 4, null);
+    try {
+      assertEquals(HalbotTest.line(3), replies.reply("what about bravo3?"));
+      assertEquals(HalbotTest.line(11), replies.reply("delta11"));
+    } finally {
+      replies.shutdown();
+    }
+  }
+
+  public void testRepliesWhenHelpersAreRejected() {
+    // rejects everything
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    final ReplyGenerator replies = new ReplyGenerator(halbot, 8, 10000, 4, null, executor);
+
+    final long start = System.nanoTime();
+    assertEquals(HalbotTest.line(5), replies.reply("charlie5"));
+    assertTrue("the caller generates every candidate, without waiting for the deadline",
+        System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+  }
+
+  public void testUnknownWords() {
+    final ReplyGenerator replies = new ReplyGenerator(halbot, 4, 0, 1, null);
+    assertTrue(replies.reply("nothing it knows").startsWith("Alpha"));
+  }
+
+  public void testReplyWhileTraining() throws InterruptedException {
+    final ReplyGenerator replies = new ReplyGenerator(halbot, 16, 5, 4, null);
+    final Thread trainer = new Thread(() -> {
+      for (int i = 20; i < 1000; i++) {
+        halbot.train(HalbotTest.line(i));
+      }
+    });
+    trainer.start();
+    try {
+      while (trainer.isAlive()) {
+        assertEquals(HalbotTest.line(7), replies.reply("echo7"));
+      }
+    } finally {
+      trainer.join();
+      replies.shutdown();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class ReplyPoolTest extends TestCase {
+  private final Halbot halbot = new Halbot();
+  private ReplyPool pool;
+
+  @Override
+  protected void setUp() {
+    for (int i = 0; i < 20; i++) {
+      halbot.train(HalbotTest.line(i));
+    }
+  }
+
+  @Override
+  protected void tearDown() {
+    pool.shutdown();
+  }
+
+  private void start(final double invalidateFraction) throws InterruptedException {
+    pool = new ReplyPool(halbot, 8, 4, 2, invalidateFraction, 10);
+    pool.start();
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    String sentence;
+    while (null == (sentence = pool.poll()) && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertTrue(sentence.startsWith("Alpha"));
+    // and the time to fill up again
+    Thread.sleep(50);
+  }
+
+  private void waitForEpoch(final long epoch) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (pool.epoch() < epoch && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(epoch, pool.epoch());
+  }
+
+  public void testThrownAwayWhenModelChanges() throws InterruptedException {
+    start(0);
+    final long epoch = pool.epoch();
+
+    // forget everything
+    halbot.prune(0, 0);
+    assertEquals(0, halbot.state().model.quadCount());
+    waitForEpoch(epoch + 1);
+
+    assertNull("nothing from the old model", pool.poll());
+  }
+
+  public void testKeptWhileModelChangesLittle() throws InterruptedException {
+    start(0.5);
+    final long epoch = pool.epoch();
+
+    halbot.train(HalbotTest.line(20));
+    Thread.sleep(100);
+
+    assertEquals(epoch, pool.epoch());
+    assertNotNull(pool.poll());
+  }
+
+  public void testAnyChangeWithNoFraction() throws InterruptedException {
+    start(0);
+    final long epoch = pool.epoch();
+
+    halbot.train(HalbotTest.line(20));
+
+    waitForEpoch(epoch + 1);
+  }
+}
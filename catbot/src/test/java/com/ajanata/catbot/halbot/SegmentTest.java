@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class SegmentTest extends TestCase {
+  private static final int VOCABULARY = 300;
+
+  private final Random random = new Random(1);
+
+  private int[] sentence() {
+    final int[] tokens = new int[4 + random.nextInt(10)];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = random.nextInt(VOCABULARY);
+    }
+    return tokens;
+  }
+
+  public void testMatchesModel() throws IOException {
+    final MarkovModel model = new MarkovModel();
+    for (int i = 0; i < 3000; i++) {
+      final int[] tokens = sentence();
+      model.train(tokens, tokens.length);
+    }
+    final Segment segment = Segment.merge(new ModelLayer[] { model }, VOCABULARY, Storage.HEAP);
+
+    assertMatches(model, segment);
+    for (int quad = 0; quad < model.quadCount(); quad++) {
+      for (int direction = ModelLayer.NEXT; direction <= ModelLayer.PREVIOUS; direction++) {
+        for (int index = 0; index < model.degree(quad, direction); index++) {
+          final int token = model.edgeToken(quad, direction, index);
+          final int at = Arrays.binarySearch(edges(segment, quad, direction), token);
+          assertEquals(model.edgeCount(quad, direction, index),
+              segment.edgeCount(quad, direction, at));
+        }
+      }
+    }
+    assertEquals(-1, segment.findQuad(VOCABULARY, 0, 0, 0));
+  }
+
+  public void testMergedLayersMatchOneModel() throws IOException {
+    final MarkovModel whole = new MarkovModel();
+    final MarkovModel older = new MarkovModel();
+    final MarkovModel newer = new MarkovModel(older);
+    for (int i = 0; i < 3000; i++) {
+      final int[] tokens = sentence();
+      whole.train(tokens, tokens.length);
+      (i < 2000 ? older : newer).train(tokens, tokens.length);
+      if (i % 500 == 0) {
+        // some sentences again, so the newer layer has overlays
+        newer.train(tokens, tokens.length);
+        whole.train(tokens, tokens.length);
+      }
+    }
+    final Segment segment = Segment.merge(new ModelLayer[] { older, newer }, VOCABULARY,
+        Storage.HEAP);
+
+    assertMatches(whole, segment);
+  }
+
+  private static int[] edges(final ModelLayer layer, final int quad, final int direction) {
+    final int[] tokens = new int[layer.degree(quad, direction)];
+    for (int index = 0; index < tokens.length; index++) {
+      tokens[index] = layer.edgeToken(quad, direction, index);
+    }
+    return tokens;
+  }
+
+  private static int[] wordQuads(final ModelLayer layer, final int token) {
+    final int[] quads = new int[layer.wordQuadCount(token)];
+    for (int index = 0; index < quads.length; index++) {
+      quads[index] = layer.wordQuad(token, index);
+    }
+    Arrays.sort(quads);
+    return quads;
+  }
+
+  // same quads with the same IDs, edge tokens and word index
+  private static void assertMatches(final MarkovModel model, final Segment segment) {
+    assertEquals(model.quadCount(), segment.quadCount());
+    assertEquals(model.edgeCount(), segment.edgeCount());
+    for (int quad = 0; quad < model.quadCount(); quad++) {
+      for (int position = 0; position < ModelLayer.ORDER; position++) {
+        assertEquals(model.token(quad, position), segment.token(quad, position));
+      }
+      assertEquals(quad, segment.findQuad(model.token(quad, 0), model.token(quad, 1),
+          model.token(quad, 2), model.token(quad, 3)));
+      assertEquals(model.flags(quad), segment.flags(quad));
+      assertEquals(model.count(quad), segment.count(quad));
+      for (int direction = ModelLayer.NEXT; direction <= ModelLayer.PREVIOUS; direction++) {
+        final int[] expected = edges(model, quad, direction);
+        Arrays.sort(expected);
+        final int[] actual = edges(segment, quad, direction);
+        assertTrue("edges sorted by token", Arrays.equals(expected, actual));
+        for (final int token : expected) {
+          assertTrue(segment.hasEdge(quad, direction, token));
+        }
+        assertFalse(segment.hasEdge(quad, direction, VOCABULARY));
+      }
+    }
+    for (int token = 0; token < VOCABULARY; token++) {
+      assertTrue(Arrays.equals(wordQuads(model, token), wordQuads(segment, token)));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.halbot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+public class SnapshotTest extends TestCase {
+  private Path dir;
+  private Path brain;
+  private Path snapshot;
+
+  @Override
+  protected void setUp() throws IOException {
+    dir = Files.createTempDirectory("snapshot");
+    brain = dir.resolve("test.brain");
+    snapshot = dir.resolve("test.brain.snapshot");
+    // well over the 64 KiB the snapshot once checked
+    final List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      lines.add(String.format("line %04d says the cat sat on mat %d.", i, i % 7));
+    }
+    Files.write(brain, lines, StandardCharsets.UTF_8);
+    new Halbot().load(brain, snapshot, 1);
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    Files.deleteIfExists(brain);
+    Files.deleteIfExists(snapshot);
+    Files.delete(dir);
+  }
+
+  public void testUnchangedBrainUsesSnapshot() throws IOException {
+    final Snapshot opened = Snapshot.open(snapshot, brain);
+    assertNotNull(opened);
+    assertEquals(Files.size(brain), opened.brainLength);
+    assertEquals(5000, opened.lines);
+  }
+
+  public void testAppendedBrainUsesSnapshot() throws IOException {
+    final long length = Files.size(brain);
+    Files.write(brain, "one more line for the cat.\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    final Snapshot opened = Snapshot.open(snapshot, brain);
+    assertNotNull(opened);
+    assertEquals(length, opened.brainLength);
+  }
+
+  public void testEarlyEditMakesSnapshotStale() throws IOException {
+    final byte[] bytes = Files.readAllBytes(brain);
+    // same length, changed near the start
+    bytes[5] = (byte) 'X';
+    Files.write(brain, bytes);
+
+    assertNull(Snapshot.open(snapshot, brain));
+  }
+
+  public void testTruncatedBrainMakesSnapshotStale() throws IOException {
+    final byte[] bytes = Files.readAllBytes(brain);
+    Files.write(brain, Arrays.copyOf(bytes, bytes.length / 2));
+
+    assertNull(Snapshot.open(snapshot, brain));
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2016-2017, Andy Janata
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this list of conditions
+ *   and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice, this list of
+ *   conditions and the following disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.ajanata.catbot.metrics;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class LatencyHistogramTest extends TestCase {
+  // index of the last bucket
+  private static final int LAST = LatencyHistogram.index(Long.MAX_VALUE);
+
+  public void testExactBelowSubBuckets() {
+    for (long nanos = 0; nanos <= 16; nanos++) {
+      assertEquals((int) nanos, LatencyHistogram.index(nanos));
+      assertEquals(nanos, LatencyHistogram.highest((int) nanos));
+    }
+    assertEquals(17, LatencyHistogram.index(17));
+    // from 32, each bucket holds two values
+    assertEquals(LatencyHistogram.index(32), LatencyHistogram.index(33));
+    assertEquals(33, LatencyHistogram.highest(LatencyHistogram.index(32)));
+  }
+
+  public void testBoundsAtTopExponent() {
+    final long top = 1L << 39;
+    final int index = LatencyHistogram.index(top);
+    assertEquals(LatencyHistogram.index(top - 1) + 1, index);
+    // 2^39 to 2^40 is split in 16, 2^35 each
+    assertEquals(top + (1L << 35) - 1, LatencyHistogram.highest(index));
+    assertEquals(index + 1, LatencyHistogram.index(top + (1L << 35)));
+    assertEquals(index + 15, LAST);
+    assertEquals(LAST, LatencyHistogram.index(1L << 40));
+    assertEquals(LAST, LatencyHistogram.index(Long.MAX_VALUE));
+  }
+
+  public void testEveryBucketBound() {
+    for (int i = 0; i < LAST; i++) {
+      final long highest = LatencyHistogram.highest(i);
+      assertEquals("highest of bucket " + i, i, LatencyHistogram.index(highest));
+      assertEquals("just past bucket " + i, i + 1, LatencyHistogram.index(highest + 1));
+      final long width = highest - (0 == i ? -1 : LatencyHistogram.highest(i - 1));
+      assertTrue("width of bucket " + i, width <= Math.max(1, highest / 16));
+    }
+  }
+
+  public void testQuantilesAreMonotonic() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      // spread over many exponents
+      histogram.record((long) Math.exp(random.nextDouble() * 25));
+    }
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    long previous = 0;
+    for (int i = 0; i <= 1000; i++) {
+      final long quantile = snapshot.getQuantileNanos(i / 1000.0);
+      assertTrue("quantile " + i / 1000.0, quantile >= previous);
+      previous = quantile;
+    }
+    assertEquals(snapshot.getMaxNanos(), snapshot.getQuantileNanos(1));
+  }
+
+  public void testSince() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000000);
+    histogram.record(5000000);
+    final LatencyHistogram.Snapshot earlier = histogram.snapshot();
+    histogram.record(10);
+    histogram.record(20);
+
+    final LatencyHistogram.Snapshot interval = histogram.snapshot().since(earlier);
+    assertEquals(2, interval.getCount());
+    assertEquals(15.0, interval.getMeanNanos());
+    assertEquals(10, interval.getQuantileNanos(0.5));
+    assertEquals(LatencyHistogram.highest(LatencyHistogram.index(20)), interval.getMaxNanos());
+    assertEquals(0, histogram.snapshot().since(histogram.snapshot()).getCount());
+  }
+}